@@ -0,0 +1,141 @@
+package proveedor;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import org.h2.tools.Server;
+
+// BD H2 en memoria en modo SQL Server con las tablas que leen los caminos calientes, cargada con
+// datos de tamaño y forma parecidos a producción. La semilla es fija: cada fork de JMH arma
+// exactamente los mismos datos. Lo que es T-SQL puro (procedimientos, MERGE, variables de tabla)
+// no corre en H2 y queda fuera de los benchmarks
+final class BaseDatosBenchmark {
+
+    static final String URL = "jdbc:h2:mem:proveedor_bench;MODE=MSSQLServer;DB_CLOSE_DELAY=-1;"
+        + "INIT=CREATE SCHEMA IF NOT EXISTS dbo\\;SET SCHEMA dbo";
+
+    static final int LINEAS = 100_000;
+    static final int PRIMERA_LINEA = 80_000_000;
+    static final int PREFIJOS = 200;
+    private static final long SEMILLA = 20250627L;
+
+    // Tipos de llamada 1 a 3 (local, celular, internacional) y 4 a 7 por grupo internacional
+    private static final double[] TARIFAS = { 0, 30, 45, 0, 120, 150, 210, 300 };
+    private static final String[] GRUPOS = { "C1", "B", "D", "E" };
+
+    private static boolean cargada;
+    private static Server servidorTcp;
+
+    private BaseDatosBenchmark() {
+    }
+
+    // Crea y carga la BD una sola vez por JVM y deja ConexionSQLServer apuntando a ella
+    static synchronized void iniciar(int conexiones) throws SQLException {
+        if (!cargada) {
+            try (Connection c = DriverManager.getConnection(URL)) {
+                crearTablas(c);
+                cargarTarifas(c);
+                cargarPrefijos(c);
+                cargarLineas(c);
+            }
+            cargada = true;
+        }
+        ConexionSQLServer.configurarPool(new PoolConexiones(URL, conexiones, 1000));
+    }
+
+    // Carga la BD y la publica por TCP para que otros procesos (varios nodos en localhost) la compartan
+    static synchronized void servir(int conexiones, int puertoTcp) throws SQLException {
+        iniciar(conexiones);
+        if (servidorTcp == null) {
+            servidorTcp = Server.createTcpServer("-tcpPort", String.valueOf(puertoTcp)).start();
+        }
+    }
+
+    // Usa la BD que publicó con servir otro proceso, sin cargar nada ("host:puerto")
+    static void conectarRemota(int conexiones, String servidor) {
+        String url = "jdbc:h2:tcp://" + servidor + "/mem:proveedor_bench;MODE=MSSQLServer;"
+            + "INIT=SET SCHEMA dbo";
+        ConexionSQLServer.configurarPool(new PoolConexiones(url, conexiones, 1000));
+    }
+
+    static String linea(int i) {
+        return String.valueOf(PRIMERA_LINEA + i);
+    }
+
+    // Una de cada diez líneas es postpago, igual que la cartera actual
+    static boolean esPostpago(int i) {
+        return i % 10 == 0;
+    }
+
+    // Prefijos internacionales de 1 a 3 dígitos al estilo de los códigos de país, sin repetir
+    static String prefijo(int i) {
+        if (i < 2) return i == 0 ? "1" : "7";
+        if (i < 92) return String.valueOf(20 + (i - 2));
+        return String.valueOf(200 + (i - 92) * 7 % 800);
+    }
+
+    private static void crearTablas(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("CREATE TABLE TIPO_TELEFONO (ID_T_TELEFONO INT PRIMARY KEY, DESCRIPCION VARCHAR(20))");
+            st.execute("INSERT INTO TIPO_TELEFONO VALUES (1, 'Postpago'), (2, 'Prepago')");
+            st.execute("CREATE TABLE TELEFONOS (NUM_TELEFONO VARCHAR(20) PRIMARY KEY, IDENTIFICADOR_TELEFONO VARCHAR(40), "
+                + "IDENTIFICADOR_TARJETA VARCHAR(40), ID_CODIGO INT, ID_CLIENTE INT, TIPO_TELEFONO INT, "
+                + "SALDO DECIMAL(12, 2), ID_ESTADO INT)");
+            st.execute("CREATE TABLE TIPO_LLAMADA (ID_T_LLAMADA INT PRIMARY KEY, COSTOS DECIMAL(10, 2))");
+            st.execute("CREATE TABLE PREFIJOS_INTERNACIONALES (PREFIJO VARCHAR(4) PRIMARY KEY, GRUPO VARCHAR(4))");
+            st.execute("CREATE TABLE LLAMADAS (ID_LLAMADA INT IDENTITY(1,1) PRIMARY KEY, NUMTELEFONO_ORIGEN VARCHAR(20), "
+                + "NUMTELEFONO_DESTINO VARCHAR(20), COSTO DECIMAL(12, 2), DURACION VARCHAR(6))");
+            st.execute("CREATE TABLE TRANSACCIONES (ID INT IDENTITY(1,1) PRIMARY KEY, ID_T_TRANS INT, ID_LLAMADA INT)");
+            st.execute("CREATE TABLE CONSULTAS_SALDO (ID BIGINT IDENTITY(1,1) PRIMARY KEY, NUM_TELEFONO VARCHAR(20), "
+                + "CONSULTADA TIMESTAMP)");
+        }
+    }
+
+    private static void cargarTarifas(Connection c) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("INSERT INTO TIPO_LLAMADA VALUES (?, ?)")) {
+            for (int tipo = 1; tipo < TARIFAS.length; tipo++) {
+                if (TARIFAS[tipo] == 0) continue;
+                ps.setInt(1, tipo);
+                ps.setDouble(2, TARIFAS[tipo]);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static void cargarPrefijos(Connection c) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("INSERT INTO PREFIJOS_INTERNACIONALES VALUES (?, ?)")) {
+            for (int i = 0; i < PREFIJOS; i++) {
+                ps.setString(1, prefijo(i));
+                ps.setString(2, GRUPOS[i % GRUPOS.length]);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static void cargarLineas(Connection c) throws SQLException {
+        Random azar = new Random(SEMILLA);
+        c.setAutoCommit(false);
+        try (PreparedStatement ps = c.prepareStatement("INSERT INTO TELEFONOS VALUES (?, ?, ?, 1, ?, ?, ?, ?)")) {
+            for (int i = 0; i < LINEAS; i++) {
+                ps.setString(1, linea(i));
+                ps.setString(2, "TEL" + i);
+                ps.setString(3, "SIM" + i);
+                ps.setInt(4, 1 + azar.nextInt(LINEAS / 2));
+                ps.setInt(5, esPostpago(i) ? 1 : 2);
+                ps.setDouble(6, esPostpago(i) ? 0 : azar.nextInt(500_000) / 100.0);
+                ps.setInt(7, azar.nextInt(20) == 0 ? 2 : 1);
+                ps.addBatch();
+                if (i % 5000 == 4999) ps.executeBatch();
+            }
+            ps.executeBatch();
+            c.commit();
+        } finally {
+            c.setAutoCommit(true);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package proveedor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Métodos de ConexionSQLServer contra la BD H2 de BaseDatosBenchmark. Cada invocación hace lo
+// mismo que una transacción: toma una conexión del pool, ejecuta y la devuelve, así el número
+// incluye el pool y la caché de sentencias. Sirve para comparar versiones del código de acceso,
+// no para estimar tiempos de SQL Server. Los de escritura agregan filas en cada iteración
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Benchmark)
+public class ConexionSQLServerBenchmark {
+
+    private static final int LOTE_CONSULTAS = 500;
+
+    @State(Scope.Thread)
+    public static class Hilo {
+        private int siguiente = 7919;
+
+        // Recorre las líneas con un paso primo para no leer siempre las mismas páginas
+        String linea() {
+            siguiente = (siguiente + 7919) % BaseDatosBenchmark.LINEAS;
+            return BaseDatosBenchmark.linea(siguiente);
+        }
+
+        String destinoInternacional() {
+            siguiente = (siguiente + 7919) % BaseDatosBenchmark.LINEAS;
+            return BaseDatosBenchmark.prefijo(siguiente % BaseDatosBenchmark.PREFIJOS) + "88881234";
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void preparar() throws SQLException {
+        BaseDatosBenchmark.iniciar(8);
+    }
+
+    @Benchmark
+    public PerfilSuscriptor obtenerPerfilSuscriptor(Hilo h) {
+        try (ConexionSQLServer db = conectar()) {
+            return db.obtenerPerfilSuscriptor(h.linea());
+        }
+    }
+
+    @Benchmark
+    public double obtenerSaldo(Hilo h) {
+        try (ConexionSQLServer db = conectar()) {
+            return db.obtenerSaldo(h.linea());
+        }
+    }
+
+    @Benchmark
+    public boolean telefonoExiste(Hilo h) {
+        try (ConexionSQLServer db = conectar()) {
+            return db.telefonoExiste(h.linea());
+        }
+    }
+
+    @Benchmark
+    public String obtenerTipoServicio(Hilo h) {
+        try (ConexionSQLServer db = conectar()) {
+            return db.obtenerTipoServicio(h.linea());
+        }
+    }
+
+    @Benchmark
+    public double obtenerTarifaLocal(Hilo h) {
+        try (ConexionSQLServer db = conectar()) {
+            return db.obtenerTarifaLocal(1 + (h.siguiente++ & 1));
+        }
+    }
+
+    // El camino sin caché de tarifas: hasta cuatro consultas por prefijo más la de la tarifa
+    @Benchmark
+    public double tarifaInternacional(Hilo h) {
+        try (ConexionSQLServer db = conectar()) {
+            return db.obtenerTarifaInternacional(db.obtenerGrupoInternacional(h.destinoInternacional()));
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> cargarPrefijosInternacionales() throws SQLException {
+        try (ConexionSQLServer db = conectar()) {
+            return db.cargarPrefijosInternacionales();
+        }
+    }
+
+    @Benchmark
+    public Map<Integer, Double> cargarTarifas() throws SQLException {
+        try (ConexionSQLServer db = conectar()) {
+            return db.cargarTarifas();
+        }
+    }
+
+    // Fin de llamada sin ingesta por lotes: LLAMADAS, TRANSACCIONES y rebajo de saldo
+    @Benchmark
+    public boolean registrarLlamadaYTransaccion(Hilo h) {
+        try (ConexionSQLServer db = conectar()) {
+            return db.registrarLlamadaYTransaccion(h.linea(), "22223333", "20250627", "101500", 0.01, "000030", 5, "prepago");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOTE_CONSULTAS)
+    public void registrarConsultasSaldo(Hilo h) throws SQLException {
+        List<AuditoriaConsultas.Consulta> lote = new ArrayList<>(LOTE_CONSULTAS);
+        long ahora = System.currentTimeMillis();
+        for (int i = 0; i < LOTE_CONSULTAS; i++) {
+            lote.add(new AuditoriaConsultas.Consulta(h.linea(), ahora));
+        }
+        try (ConexionSQLServer db = conectar()) {
+            db.registrarConsultasSaldo(lote);
+        }
+    }
+
+    private static ConexionSQLServer conectar() {
+        ConexionSQLServer db = new ConexionSQLServer();
+        if (!db.conectar()) throw new IllegalStateException("Sin conexión a la BD de benchmarks");
+        return db;
+    }
+}
@@ -0,0 +1,128 @@
+package proveedor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Consulta de saldo (transacción 2) de punta a punta contra ServidorPrueba en el mismo proceso: la
+// trama viaja por TCP local, pasa por ProveedorServer y la BD H2 de BaseDatosBenchmark. Con una
+// conexión por trama (sin keep_alive) el servidor cierra tras responder, el camino donde antes se
+// dormían 100 ms fijos antes del cierre: el p50 de SampleTime tiene que quedar muy por debajo de eso.
+//
+// consultasPorSegundo mide el rendimiento con conexiones persistentes, una por hilo. Con registro
+// "auditoria" la consulta se encola en AuditoriaConsultas; con "llamadas" se borra CONSULTAS_SALDO
+// antes de arrancar y el servidor vuelve al camino anterior, que inserta en LLAMADAS y TRANSACCIONES
+// en cada consulta
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Benchmark)
+public class ConsultaSaldoBenchmark {
+
+    private static final int PUERTO = 6107;
+
+    @Param({ "auditoria", "llamadas" })
+    public String registro;
+
+    @State(Scope.Thread)
+    public static class Hilo {
+        private int siguiente = 7919;
+        private Socket persistente;
+        private OutputStream salida;
+        private BufferedReader entrada;
+
+        String trama(boolean keepAlive) {
+            siguiente = (siguiente + 7919) % BaseDatosBenchmark.LINEAS;
+            return "{\"tipo_transaccion\":\"2\",\"telefono\":\"" + BaseDatosBenchmark.linea(siguiente)
+                + (keepAlive ? "\",\"keep_alive\":true}\n" : "\"}\n");
+        }
+
+        String enviarPersistente() throws IOException {
+            if (persistente == null) {
+                persistente = new Socket();
+                persistente.setTcpNoDelay(true);
+                persistente.connect(new InetSocketAddress("localhost", PUERTO), 1000);
+                persistente.setSoTimeout(5000);
+                salida = persistente.getOutputStream();
+                entrada = new BufferedReader(new InputStreamReader(persistente.getInputStream(), StandardCharsets.UTF_8));
+            }
+            salida.write(trama(true).getBytes(StandardCharsets.UTF_8));
+            salida.flush();
+            return entrada.readLine();
+        }
+
+        @TearDown(Level.Trial)
+        public void cerrar() throws IOException {
+            if (persistente != null) persistente.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void preparar() throws Exception {
+        BaseDatosBenchmark.iniciar(Config.TAMANO_POOL_BD);
+        if ("llamadas".equals(registro)) {
+            // Cada combinación corre en su propio fork: AuditoriaConsultas no llega a ver la tabla
+            try (Connection c = DriverManager.getConnection(BaseDatosBenchmark.URL); Statement st = c.createStatement()) {
+                st.execute("DROP TABLE CONSULTAS_SALDO");
+            }
+        }
+        ServidorPrueba.iniciar(PUERTO, 2);
+        // Todas las tramas salen de localhost: el límite por dirección cortaría la medición
+        Config.TASA_POR_DIRECCION = 1_000_000;
+        Config.RAFAGA_POR_DIRECCION = 1_000_000;
+        ControlAdmision.recargarTasaPorDireccion();
+        esperarPuerto();
+    }
+
+    @Benchmark
+    public String conexionPorTrama(Hilo h) throws IOException {
+        try (Socket s = new Socket()) {
+            s.setTcpNoDelay(true);
+            s.connect(new InetSocketAddress("localhost", PUERTO), 1000);
+            s.setSoTimeout(5000);
+            OutputStream salida = s.getOutputStream();
+            salida.write(h.trama(false).getBytes(StandardCharsets.UTF_8));
+            salida.flush();
+            return comprobar(new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)).readLine());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(8)
+    public String consultasPorSegundo(Hilo h) throws IOException {
+        return comprobar(h.enviarPersistente());
+    }
+
+    // Una respuesta de error (BD caída, servidor ocupado) sería más rápida y falsearía la medición
+    private static String comprobar(String respuesta) {
+        if (respuesta == null || !respuesta.contains("\"status\":\"OK\"")) {
+            throw new IllegalStateException("Respuesta inesperada: " + respuesta);
+        }
+        return respuesta;
+    }
+
+    private static void esperarPuerto() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress("localhost", PUERTO), 100);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("El servidor de prueba no abrió el puerto " + PUERTO);
+    }
+}
@@ -0,0 +1,432 @@
+package proveedor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Generador de carga del protocolo de tramas JSON por línea. Reproduce una mezcla de transacciones
+// 1/2/3/5/6/7 a una tasa fija (lazo abierto: las tramas se programan a intervalos regulares y la
+// latencia se mide desde el instante programado, así una cola en el servidor no esconde su propia
+// espera) repartidas entre un número fijo de conexiones. Las 5 cierran llamadas abiertas por una
+// 1 exitosa, como haría la central. Reporta por tipo la tasa lograda, percentiles de latencia y
+// respuestas por código.
+//
+// Con --saturacion sube la tasa por escalones hasta que el servidor deja de sostenerla (tasa
+// lograda menor al 95% de la pedida, p99 sobre --sla-p99-ms o más de --max-errores de errores de
+// capacidad: sin respuesta, "Servidor ocupado", "Fallo de conexion a BD" o tramas que no salieron
+// a tiempo) e informa el último escalón sostenido. Los errores de negocio (saldo insuficiente,
+// etc.) se reportan pero no cuentan para la saturación.
+//
+//     java -cp benchmarks/target/benchmarks.jar proveedor.GeneradorCarga --local --tasa=500 --duracion=30
+//     java -cp benchmarks/target/benchmarks.jar proveedor.GeneradorCarga --host=10.0.0.5 --saturacion
+//
+// Opciones: --host, --puerto, --tasa (tramas/s), --conexiones, --duracion y --calentamiento (s),
+// --mezcla=1=40,2=15,3=2,5=37,6=4,7=2, --persistente (keep_alive), --timeout-ms, --semilla,
+// --saturacion con --factor, --tasa-max, --sla-p99-ms y --max-errores, --lineas y --primera-linea
+// (líneas existentes en la BD), --local (levanta ServidorPrueba en este proceso)
+public class GeneradorCarga {
+
+    private static final int[] TIPOS = { 1, 2, 3, 5, 6, 7 };
+    private static final String OK = "OK";
+    private static final String SIN_RESPUESTA = "SIN_RESPUESTA";
+    private static final String ATRASADA = "NO_ENVIADA_A_TIEMPO";
+    private static final List<String> ERRORES_CAPACIDAD =
+        List.of(SIN_RESPUESTA, ATRASADA, "Servidor ocupado", "Fallo de conexion a BD");
+    private static final DateTimeFormatter FECHA = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter HORA = DateTimeFormatter.ofPattern("HHmmss");
+
+    private record Peticion(int tipo, String trama, long programada, String linea, String destino) {}
+
+    private record Llamada(String linea, String destino) {}
+
+    // Resultados de un escalón, por tipo de transacción
+    private static final class Resultado {
+        final Histograma latencia = new Histograma();
+        final ConcurrentHashMap<String, LongAdder> codigos = new ConcurrentHashMap<>();
+
+        void registrar(String codigo, long programada) {
+            latencia.registrarDesde(programada);
+            codigos.computeIfAbsent(codigo, c -> new LongAdder()).increment();
+        }
+
+        long contar(String codigo) {
+            LongAdder n = codigos.get(codigo);
+            return n != null ? n.sum() : 0;
+        }
+
+        long erroresCapacidad() {
+            long n = 0;
+            for (String c : ERRORES_CAPACIDAD) n += contar(c);
+            return n;
+        }
+    }
+
+    // Un escalón completo: cada tipo y el total
+    private static final class Escalon {
+        final Map<Integer, Resultado> porTipo = new TreeMap<>();
+        final Resultado total = new Resultado();
+
+        Escalon() {
+            for (int tipo : TIPOS) porTipo.put(tipo, new Resultado());
+        }
+
+        void registrar(int tipo, String codigo, long programada) {
+            porTipo.get(tipo).registrar(codigo, programada);
+            total.registrar(codigo, programada);
+        }
+    }
+
+    private final Opciones op;
+    private final String host;
+    private final int puerto;
+    private final int conexiones;
+    private final int timeoutMs;
+    private final boolean persistente;
+    private final int lineas;
+    private final int primeraLinea;
+    private final int[] acumulado = new int[TIPOS.length];
+    private final Random azar;
+    private final ConcurrentLinkedQueue<Llamada> abiertas = new ConcurrentLinkedQueue<>();
+    private int siguienteAlta;
+
+    GeneradorCarga(Opciones op) {
+        this.op = op;
+        this.host = op.texto("host", "localhost");
+        this.puerto = op.entero("puerto", Config.PUERTO_PROVEEDOR);
+        this.conexiones = op.entero("conexiones", 64);
+        this.timeoutMs = op.entero("timeout-ms", 5000);
+        this.persistente = op.si("persistente");
+        this.lineas = op.entero("lineas", BaseDatosBenchmark.LINEAS);
+        this.primeraLinea = op.entero("primera-linea", BaseDatosBenchmark.PRIMERA_LINEA);
+        this.azar = new Random(op.entero("semilla", 42));
+        // Altas con números fuera del rango existente y distintos entre corridas
+        this.siguienteAlta = 90_000_000 + (int) (System.currentTimeMillis() / 1000 % 900) * 10_000;
+
+        int total = 0;
+        Map<Integer, Integer> pesos = leerMezcla(op.texto("mezcla", "1=40,2=15,3=2,5=37,6=4,7=2"));
+        for (int i = 0; i < TIPOS.length; i++) {
+            total += pesos.getOrDefault(TIPOS[i], 0);
+            acumulado[i] = total;
+        }
+        if (total == 0) throw new IllegalArgumentException("La mezcla no tiene ninguna transacción");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Opciones op = new Opciones(args);
+        if (op.si("local")) {
+            int puerto = op.entero("puerto", Config.PUERTO_PROVEEDOR);
+            BaseDatosBenchmark.iniciar(op.entero("conexiones-bd", Config.TAMANO_POOL_BD));
+            ServidorPrueba.iniciar(puerto, op.entero("retardo-identificador", 2));
+            esperarPuerto(op.texto("host", "localhost"), puerto);
+        }
+        new GeneradorCarga(op).ejecutar();
+        System.exit(0);
+    }
+
+    void ejecutar() throws InterruptedException {
+        double tasa = op.decimal("tasa", 500);
+        int duracion = op.entero("duracion", 30);
+        int calentamiento = op.entero("calentamiento", 5);
+
+        System.out.printf(Locale.ROOT, "Destino %s:%d, %d conexiones%s%n", host, puerto, conexiones,
+            persistente ? " persistentes" : ", una por trama");
+        if (calentamiento > 0) {
+            correr(tasa, calentamiento);
+        }
+
+        if (!op.si("saturacion")) {
+            reportar(tasa, duracion, correr(tasa, duracion));
+            return;
+        }
+
+        double factor = op.decimal("factor", 1.5);
+        double tasaMax = op.decimal("tasa-max", 100_000);
+        double slaP99Ms = op.decimal("sla-p99-ms", 100);
+        double maxErrores = op.decimal("max-errores", 0.01);
+        double sostenida = 0;
+        List<String> escalones = new ArrayList<>();
+
+        for (; tasa <= tasaMax; tasa *= factor) {
+            Escalon r = correr(tasa, duracion);
+            reportar(tasa, duracion, r);
+
+            Resultado total = r.total;
+            long n = total.latencia.getTotal();
+            double lograda = (n - total.contar(ATRASADA)) / (double) duracion;
+            double p99 = total.latencia.percentilMicros(0.99) / 1000.0;
+            double errores = n == 0 ? 1 : total.erroresCapacidad() / (double) n;
+            boolean sostiene = lograda >= tasa * 0.95 && p99 <= slaP99Ms && errores <= maxErrores;
+            escalones.add(String.format(Locale.ROOT, "%10.0f %10.0f %10.2f %9.2f%%  %s",
+                tasa, lograda, p99, errores * 100, sostiene ? "sí" : "NO"));
+            if (!sostiene) break;
+            sostenida = tasa;
+        }
+
+        System.out.printf("%nSaturación (p99 <= %.0f ms, errores de capacidad <= %.1f%%)%n", slaP99Ms, maxErrores * 100);
+        System.out.printf("%10s %10s %10s %10s  %s%n", "pedida/s", "lograda/s", "p99 ms", "errores", "sostiene");
+        escalones.forEach(System.out::println);
+        System.out.printf(Locale.ROOT, "Última tasa sostenida: %.0f tramas/s%n", sostenida);
+    }
+
+    // Un escalón: programa tramas a la tasa pedida durante los segundos dados y espera las respuestas
+    private Escalon correr(double tasa, int segundos) throws InterruptedException {
+        Escalon resultados = new Escalon();
+
+        LinkedBlockingQueue<Peticion> cola = new LinkedBlockingQueue<>();
+        Peticion fin = new Peticion(0, null, 0, null, null);
+        List<Thread> hilos = new ArrayList<>();
+        for (int i = 0; i < conexiones; i++) {
+            Thread t = new Thread(() -> trabajar(cola, fin, resultados), "carga-" + i);
+            t.setDaemon(true);
+            t.start();
+            hilos.add(t);
+        }
+
+        long intervalo = (long) (1_000_000_000L / tasa);
+        long inicio = System.nanoTime();
+        long total = (long) (tasa * segundos);
+        for (long i = 0; i < total; i++) {
+            long programada = inicio + i * intervalo;
+            long espera = programada - System.nanoTime();
+            if (espera > 0) LockSupport.parkNanos(espera);
+            cola.add(armar(programada));
+        }
+
+        // Lo que sigue en cola al cerrar el escalón no salió a tiempo: se cuenta y no se envía
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        List<Peticion> atrasadas = new ArrayList<>();
+        while (!cola.isEmpty() && System.nanoTime() < limite) {
+            Thread.sleep(10);
+        }
+        cola.drainTo(atrasadas);
+        for (Peticion p : atrasadas) {
+            resultados.registrar(p.tipo(), ATRASADA, p.programada());
+        }
+
+        for (int i = 0; i < conexiones; i++) cola.add(fin);
+        for (Thread t : hilos) t.join(timeoutMs * 2L);
+        return resultados;
+    }
+
+    private void trabajar(LinkedBlockingQueue<Peticion> cola, Peticion fin, Escalon resultados) {
+        Canal canal = null;
+        try {
+            while (true) {
+                Peticion p = cola.take();
+                if (p == fin) break;
+
+                String respuesta;
+                try {
+                    if (canal == null) canal = new Canal(host, puerto, timeoutMs);
+                    respuesta = canal.enviar(p.trama());
+                } catch (IOException e) {
+                    respuesta = null;
+                }
+                if (!persistente || respuesta == null) {
+                    if (canal != null) canal.cerrar();
+                    canal = null;
+                }
+
+                String codigo = codigo(respuesta);
+                resultados.registrar(p.tipo(), codigo, p.programada());
+                if (p.tipo() == 1 && OK.equals(codigo)) {
+                    abiertas.add(new Llamada(p.linea(), p.destino()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (canal != null) canal.cerrar();
+        }
+    }
+
+    private Peticion armar(long programada) {
+        int tipo = elegirTipo();
+        String linea = linea(azar.nextInt(lineas));
+        StringBuilder t = new StringBuilder(200).append("{\"tipo_transaccion\":\"").append(tipo).append('"');
+        String destino = null;
+
+        switch (tipo) {
+            case 1: {
+                int tipoLlamada = 1 + azar.nextInt(3);
+                destino = tipoLlamada == 3
+                    ? BaseDatosBenchmark.prefijo(azar.nextInt(BaseDatosBenchmark.PREFIJOS)) + "88881234"
+                    : String.valueOf(22_000_000 + azar.nextInt(9_000_000));
+                campo(t, "telefono", linea);
+                campo(t, "destino", destino);
+                campo(t, "tipo_llamada", String.valueOf(tipoLlamada));
+                break;
+            }
+            case 2:
+                campo(t, "telefono", linea);
+                break;
+            case 3: {
+                int n = siguienteAlta++;
+                campo(t, "telefono", String.valueOf(n));
+                campo(t, "identificadorTel", "TEL" + n);
+                campo(t, "identificador_tarjeta", "SIM" + n);
+                campo(t, "tipo", azar.nextInt(10) == 0 ? "postpago" : "prepago");
+                campo(t, "estado", "3");
+                break;
+            }
+            case 5: {
+                // Cierra la llamada abierta más antigua; sin ninguna, un CDR suelto
+                Llamada abierta = abiertas.poll();
+                int segundos = 10 + azar.nextInt(590);
+                campo(t, "telefono", abierta != null ? abierta.linea() : linea);
+                campo(t, "destino", abierta != null ? abierta.destino() : String.valueOf(22_000_000 + azar.nextInt(9_000_000)));
+                campo(t, "fecha", LocalDate.now().format(FECHA));
+                campo(t, "hora", LocalTime.now().format(HORA));
+                campo(t, "duracion", String.format("%02d%02d%02d", segundos / 3600, segundos % 3600 / 60, segundos % 60));
+                campo(t, "costo", String.format(Locale.ROOT, "%.2f", segundos * 0.5));
+                break;
+            }
+            case 6: {
+                int i = azar.nextInt(lineas);
+                campo(t, "telefono", linea(i));
+                campo(t, "identificadorTel", "TEL" + i);
+                campo(t, "identificador_tarjeta", "SIM" + i);
+                campo(t, "tipo", "prepago");
+                campo(t, "estado", azar.nextBoolean() ? "activar" : "desactivar");
+                campo(t, "duenio", String.valueOf(1 + azar.nextInt(lineas / 2)));
+                break;
+            }
+            default: {
+                LocalDate hoy = LocalDate.now();
+                campo(t, "fecha_calculo", hoy.format(FECHA));
+                campo(t, "fecha_max_pago", hoy.plusDays(15).format(FECHA));
+            }
+        }
+        if (persistente) t.append(",\"keep_alive\":true");
+        return new Peticion(tipo, t.append('}').toString(), programada, linea, destino);
+    }
+
+    private int elegirTipo() {
+        int x = azar.nextInt(acumulado[acumulado.length - 1]);
+        for (int i = 0; i < TIPOS.length; i++) {
+            if (x < acumulado[i]) return TIPOS[i];
+        }
+        return TIPOS[TIPOS.length - 1];
+    }
+
+    private String linea(int i) {
+        return String.valueOf(primeraLinea + i);
+    }
+
+    private static void campo(StringBuilder t, String nombre, String valor) {
+        t.append(",\"").append(nombre).append("\":\"").append(valor).append('"');
+    }
+
+    // OK, el mensaje de error de la respuesta o SIN_RESPUESTA
+    private static String codigo(String respuesta) {
+        if (respuesta == null) return SIN_RESPUESTA;
+        if (respuesta.contains("\"status\":\"OK\"")) return OK;
+        for (String clave : new String[] { "\"mensaje\":\"", "\"message\":\"" }) {
+            int i = respuesta.indexOf(clave);
+            if (i >= 0) {
+                int desde = i + clave.length();
+                int hasta = respuesta.indexOf('"', desde);
+                if (hasta > desde) return respuesta.substring(desde, hasta);
+            }
+        }
+        return "OTRO";
+    }
+
+    private static void reportar(double tasa, int segundos, Escalon resultados) {
+        System.out.printf(Locale.ROOT, "%nTasa pedida %.0f tramas/s durante %d s%n", tasa, segundos);
+        System.out.printf("%-6s %9s %9s %8s %9s %9s %9s %9s %9s%n",
+            "tipo", "tramas", "por s", "error %", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<Integer, Resultado> e : resultados.porTipo.entrySet()) {
+            fila(String.valueOf(e.getKey()), segundos, e.getValue());
+        }
+        fila("total", segundos, resultados.total);
+
+        for (Map.Entry<Integer, Resultado> e : resultados.porTipo.entrySet()) {
+            StringBuilder sb = new StringBuilder();
+            new TreeMap<>(e.getValue().codigos).forEach((c, n) -> {
+                if (!OK.equals(c)) sb.append(" [").append(c).append(": ").append(n.sum()).append(']');
+            });
+            if (sb.length() > 0) System.out.println("  tipo " + e.getKey() + " errores:" + sb);
+        }
+    }
+
+    private static void fila(String nombre, int segundos, Resultado r) {
+        Histograma h = r.latencia;
+        long n = h.getTotal();
+        if (n == 0) return;
+        long errores = n - r.contar(OK);
+        System.out.printf(Locale.ROOT, "%-6s %9d %9.1f %8.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+            nombre, n, (n - r.contar(ATRASADA)) / (double) segundos, errores * 100.0 / n,
+            h.percentilMicros(0.5) / 1000.0, h.percentilMicros(0.9) / 1000.0, h.percentilMicros(0.99) / 1000.0,
+            h.percentilMicros(0.999) / 1000.0, h.getMaximoMicros() / 1000.0);
+    }
+
+    private static void esperarPuerto(String host, int puerto) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress(host, puerto), 100);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("El servidor de prueba no abrió el puerto " + puerto);
+    }
+
+    private static Map<Integer, Integer> leerMezcla(String texto) {
+        Map<Integer, Integer> pesos = new TreeMap<>();
+        for (String par : texto.split(",")) {
+            String[] kv = par.split("=");
+            pesos.put(Integer.parseInt(kv[0].trim()), Integer.parseInt(kv[1].trim()));
+        }
+        return pesos;
+    }
+
+    // Una conexión al servidor; con keep_alive se reutiliza para las tramas siguientes
+    private static final class Canal {
+        final Socket socket = new Socket();
+        final OutputStream salida;
+        final BufferedReader entrada;
+
+        Canal(String host, int puerto, int timeoutMs) throws IOException {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, puerto), timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            salida = socket.getOutputStream();
+            entrada = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        String enviar(String trama) throws IOException {
+            salida.write((trama + "\n").getBytes(StandardCharsets.UTF_8));
+            salida.flush();
+            return entrada.readLine();
+        }
+
+        void cerrar() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nada que hacer
+            }
+        }
+    }
+}
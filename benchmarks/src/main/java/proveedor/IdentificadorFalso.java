@@ -0,0 +1,69 @@
+package proveedor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+// Identificador de mentira para las pruebas de carga: responde {"status":"OK"} a cada línea que
+// recibe, tras un retardo que simula su tiempo de respuesta (se puede cambiar en marcha para
+// simular un Identificador lento). Atiende tanto una trama por conexión como conexiones
+// persistentes (lee hasta que el otro lado cierra)
+final class IdentificadorFalso {
+
+    private static final byte[] OK = "{\"status\":\"OK\"}\n".getBytes(StandardCharsets.UTF_8);
+
+    private final int puerto;
+    private volatile int retardoMs;
+    private final LongAdder recibidas = new LongAdder();
+
+    IdentificadorFalso(int puerto, int retardoMs) {
+        this.puerto = puerto;
+        this.retardoMs = retardoMs;
+    }
+
+    // Abre el puerto y atiende en segundo plano
+    void iniciar() throws IOException {
+        ServerSocket servidor = new ServerSocket(puerto);
+        Thread aceptador = new Thread(() -> {
+            try (servidor; var hilos = Executors.newVirtualThreadPerTaskExecutor()) {
+                while (true) {
+                    Socket s = servidor.accept();
+                    hilos.execute(() -> atender(s));
+                }
+            } catch (IOException e) {
+                Log.error("Identificador falso detenido: " + e.getMessage());
+            }
+        }, "identificador-falso");
+        aceptador.setDaemon(true);
+        aceptador.start();
+        Log.info("Identificador falso en puerto " + puerto + " (retardo " + retardoMs + " ms)");
+    }
+
+    void setRetardoMs(int retardoMs) {
+        this.retardoMs = retardoMs;
+    }
+
+    long getRecibidas() {
+        return recibidas.sum();
+    }
+
+    private void atender(Socket s) {
+        try (s; BufferedReader entrada = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8))) {
+            OutputStream salida = s.getOutputStream();
+            while (entrada.readLine() != null) {
+                recibidas.increment();
+                if (retardoMs > 0) Thread.sleep(retardoMs);
+                salida.write(OK);
+                salida.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            // El cliente cerró o se cortó la conexión
+        }
+    }
+}
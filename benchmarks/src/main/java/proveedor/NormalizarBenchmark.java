@@ -0,0 +1,30 @@
+package proveedor;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Normalización del estado y el tipo de línea de la transacción 6, con los valores que mandan los
+// distintos clientes (números, sinónimos, mayúsculas y espacios)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms512m", "-Xmx512m" })
+@State(Scope.Thread)
+public class NormalizarBenchmark {
+
+    private static final String[] ESTADOS = { "1", "activar", " Activo ", "2", "DESACTIVAR", "inactivo", "off", "x" };
+    private static final String[] TIPOS = { "1", "postpago", " Pospago", "2", "PREPAGO", "post-pago", "pago", "otro" };
+
+    private int siguiente;
+
+    @Benchmark
+    public String estado() {
+        return ProveedorServer.normalizarEstadoStr(ESTADOS[siguiente++ & 7]);
+    }
+
+    @Benchmark
+    public String tipo() {
+        return ProveedorServer.normalizarTipoStr(TIPOS[siguiente++ & 7]);
+    }
+}
@@ -0,0 +1,41 @@
+package proveedor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Opciones de línea de comandos de las herramientas de carga: --clave=valor, o --clave sola para
+// las de sí/no
+final class Opciones {
+
+    private final Map<String, String> valores = new HashMap<>();
+
+    Opciones(String[] args) {
+        for (String a : args) {
+            if (!a.startsWith("--")) throw new IllegalArgumentException("Opción inválida: " + a);
+            int igual = a.indexOf('=');
+            if (igual < 0) {
+                valores.put(a.substring(2), "true");
+            } else {
+                valores.put(a.substring(2, igual), a.substring(igual + 1));
+            }
+        }
+    }
+
+    String texto(String clave, String porDefecto) {
+        return valores.getOrDefault(clave, porDefecto);
+    }
+
+    int entero(String clave, int porDefecto) {
+        String v = valores.get(clave);
+        return v != null ? Integer.parseInt(v.trim()) : porDefecto;
+    }
+
+    double decimal(String clave, double porDefecto) {
+        String v = valores.get(clave);
+        return v != null ? Double.parseDouble(v.trim()) : porDefecto;
+    }
+
+    boolean si(String clave) {
+        return Boolean.parseBoolean(valores.getOrDefault(clave, "false"));
+    }
+}
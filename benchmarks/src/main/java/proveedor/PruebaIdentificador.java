@@ -0,0 +1,138 @@
+package proveedor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Comprobaciones del circuito y del cliente del Identificador contra IdentificadorFalso, sin BD:
+//  - Circuito solo: se abre tras los fallos seguidos, deja pasar una única prueba pasada la pausa
+//    y según su resultado se cierra o vuelve a abrirse;
+//  - NotificadorIdentificador de punta a punta: un Identificador más lento que
+//    TIMEOUT_RESPUESTA_IDENTIFICADOR_MS da false a tiempo (la transacción 6 responde "no
+//    notificado"), tras FALLOS_ABRIR_CIRCUITO timeouts el circuito corta sin enviar nada, y cuando
+//    el Identificador vuelve la prueba del semiabierto lo cierra.
+// Sin -Dproveedor.config usa un archivo temporal con timeouts y pausas cortos para que dure segundos.
+// Termina con código 1 si alguna comprobación falla.
+//
+//     java -cp benchmarks/target/benchmarks.jar proveedor.PruebaIdentificador [--persistente] [--puerto=5099]
+public class PruebaIdentificador {
+
+    // Como la arma NotificadorIdentificador.tramaEstadoLinea; no se llama aquí porque cargaría Config
+    private static final String TRAMA = "{\"tipo_transaccion\":\"6\",\"telefono\":\"80000001\","
+        + "\"identificadorTel\":\"IMEI-1\",\"identificador_tarjeta\":\"SIM-1\",\"tipo\":\"prepago\","
+        + "\"identificacion_cliente\":\"1-1111-1111\",\"estado\":\"activar\"}";
+
+    private static final List<String> fallidas = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        Opciones op = new Opciones(args);
+
+        // Antes de tocar Config, que lee el archivo al cargarse
+        if (System.getProperty("proveedor.config") == null && System.getenv("PROVEEDOR_CONFIG") == null) {
+            Path archivo = Files.createTempFile("prueba-identificador", ".properties");
+            archivo.toFile().deleteOnExit();
+            Files.writeString(archivo, "PUERTO_IDENTIFICADOR=" + op.entero("puerto", 5099) + "\n"
+                + "IDENTIFICADOR_PERSISTENTE=" + op.texto("persistente", "false") + "\n"
+                + "TIMEOUT_RESPUESTA_IDENTIFICADOR_MS=300\n"
+                + "FALLOS_ABRIR_CIRCUITO=3\n"
+                + "PAUSA_CIRCUITO_MS=500\n"
+                + "RECARGA_CONFIG_S=0\n"
+                + "NIVEL_LOG=ERROR\n");
+            System.setProperty("proveedor.config", archivo.toString());
+        }
+
+        circuito();
+        identificador();
+
+        if (fallidas.isEmpty()) {
+            System.out.println("Todas las comprobaciones pasaron");
+        } else {
+            System.out.println(fallidas.size() + " comprobaciones fallaron: " + fallidas);
+            System.exit(1);
+        }
+    }
+
+    private static void circuito() throws InterruptedException {
+        System.out.println("Circuito");
+        Circuito c = new Circuito("prueba", 3, 200);
+        for (int i = 0; i < 3; i++) {
+            comprobar("cerrado permite la llamada " + (i + 1), c.permitir());
+            c.fallo();
+        }
+        comprobar("abierto tras 3 fallos seguidos", c.estaAbierto() && !c.permitir());
+
+        Thread.sleep(250);
+        comprobar("pasada la pausa deja pasar una prueba", c.permitir());
+        comprobar("con la prueba en curso no deja pasar otra", !c.permitir());
+        c.fallo();
+        comprobar("prueba fallida: vuelve a abrirse", c.estaAbierto() && !c.permitir());
+
+        Thread.sleep(250);
+        comprobar("nueva prueba tras otra pausa", c.permitir());
+        c.exito();
+        comprobar("prueba exitosa: se cierra", !c.estaAbierto() && c.permitir() && c.permitir());
+
+        c.fallo();
+        c.exito();
+        c.fallo();
+        c.fallo();
+        comprobar("un éxito reinicia la cuenta de fallos seguidos", !c.estaAbierto());
+    }
+
+    private static void identificador() throws Exception {
+        int timeout = Config.TIMEOUT_RESPUESTA_IDENTIFICADOR_MS;
+        int fallos = Config.FALLOS_ABRIR_CIRCUITO;
+        System.out.println("Identificador en puerto " + Config.PUERTO_IDENTIFICADOR
+            + (Config.IDENTIFICADOR_PERSISTENTE ? " (persistente)" : "") + ", timeout " + timeout
+            + " ms, circuito " + fallos + " fallos / " + Config.PAUSA_CIRCUITO_MS + " ms");
+
+        IdentificadorFalso falso = new IdentificadorFalso(Config.PUERTO_IDENTIFICADOR, 0);
+        falso.iniciar();
+
+        comprobar("responde OK", enviar() == Boolean.TRUE);
+
+        // Más lento que el timeout: cada envío falla a tiempo, no cuando el Identificador termina
+        falso.setRetardoMs(timeout * 3);
+        for (int i = 0; i < fallos; i++) {
+            long inicio = System.currentTimeMillis();
+            boolean ok = enviar();
+            long ms = System.currentTimeMillis() - inicio;
+            comprobar("timeout " + (i + 1) + " da false en " + ms + " ms", !ok && ms < timeout + 1000);
+        }
+
+        // Circuito abierto: falla enseguida y la trama no llega al Identificador, aunque ya responda
+        falso.setRetardoMs(0);
+        long recibidas = falso.getRecibidas();
+        long inicio = System.currentTimeMillis();
+        boolean ok = enviar();
+        long ms = System.currentTimeMillis() - inicio;
+        comprobar("circuito abierto falla en " + ms + " ms sin enviar", !ok && ms < 100 && falso.getRecibidas() == recibidas);
+
+        // Semiabierto: la prueba sale, el Identificador ya responde y el circuito se cierra
+        Thread.sleep(Config.PAUSA_CIRCUITO_MS + 100L);
+        comprobar("prueba del semiabierto llega y cierra el circuito", enviar() && falso.getRecibidas() == recibidas + 1);
+        comprobar("cerrado de nuevo", enviar() && enviar());
+
+        // Semiabierto con el Identificador todavía lento: la prueba falla y vuelve a abrirse
+        falso.setRetardoMs(timeout * 3);
+        for (int i = 0; i < fallos; i++) {
+            enviar();
+        }
+        Thread.sleep(Config.PAUSA_CIRCUITO_MS + 100L);
+        comprobar("prueba del semiabierto por timeout da false", !enviar());
+        inicio = System.currentTimeMillis();
+        ok = enviar();
+        ms = System.currentTimeMillis() - inicio;
+        comprobar("tras la prueba fallida vuelve a abrirse", !ok && ms < 100);
+    }
+
+    private static boolean enviar() {
+        return NotificadorIdentificador.enviarTrama(TRAMA).join();
+    }
+
+    private static void comprobar(String descripcion, boolean ok) {
+        System.out.println((ok ? "  ok     " : "  FALLA  ") + descripcion);
+        if (!ok) fallidas.add(descripcion);
+    }
+}
@@ -0,0 +1,85 @@
+package proveedor;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Establecimiento y fin de llamadas desde varios hilos a la vez sobre RegistroLlamadas, sin BD: tres
+// hilos registran y finalizan llamadas sobre líneas compartidas (parte ya vencidas) y uno descarta
+// las vencidas como el hilo de limpieza. Con pocas líneas casi todo choca en la misma entrada del
+// mapa; con muchas mide el costo sin contención. Al terminar cada iteración comprueba que no quedó
+// ninguna llamada, que el contador global volvió a 0 y que el índice por inicio quedó vacío: una
+// carrera entre registrar, finalizar y descartarVencidas que pierda o duplique una baja hace fallar
+// la corrida
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class RegistroLlamadasBenchmark {
+
+    @Param({ "16", "100000" })
+    public int lineas;
+
+    private String[] telefonos;
+    private RegistroLlamadas registro;
+
+    @State(Scope.Thread)
+    public static class Hilo {
+        private int siguiente = (int) Thread.currentThread().getId() * 7919;
+        private int llamadas;
+
+        int linea(int lineas) {
+            siguiente = (siguiente + 7919) & 0x7fffffff;
+            return siguiente % lineas;
+        }
+
+        // Una de cada ocho llamadas ya vencida, para que descartarVencidas tenga trabajo
+        boolean vencida() {
+            return (++llamadas & 7) == 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        telefonos = new String[lineas];
+        for (int i = 0; i < lineas; i++) {
+            telefonos[i] = String.valueOf(80_000_000 + i);
+        }
+        // Sin tope global y con el tope por línea de producción
+        registro = new RegistroLlamadas(Integer.MAX_VALUE, Config.MAX_LLAMADAS_POR_LINEA);
+    }
+
+    @TearDown(Level.Iteration)
+    public void comprobar() {
+        registro.descartarVencidas();
+        int porLinea = 0;
+        for (String telefono : telefonos) {
+            porLinea += registro.contarActivas(telefono);
+        }
+        if (porLinea != 0 || registro.contarActivas() != 0 || registro.llamadaMasAntigua() != null) {
+            throw new IllegalStateException("Quedaron llamadas: " + porLinea + " por línea, "
+                + registro.contarActivas() + " en el contador global, más antigua " + registro.llamadaMasAntigua());
+        }
+    }
+
+    @Benchmark
+    @Group("mezcla")
+    @GroupThreads(3)
+    public Object altaYFin(Hilo h) {
+        String telefono = telefonos[h.linea(lineas)];
+        long ahora = System.currentTimeMillis();
+        long expira = h.vencida() ? ahora - 1 : ahora + 60_000;
+        int resultado = registro.registrar(new RegistroLlamadas.LlamadaActiva(telefono, "22001234", 1, ahora, expira, null));
+        if (resultado != RegistroLlamadas.REGISTRADA) return resultado;
+        // Puede finalizar la de otro hilo (la más antigua de la línea) o ninguna si la descartó la limpieza
+        return registro.finalizar(telefono);
+    }
+
+    @Benchmark
+    @Group("mezcla")
+    @GroupThreads(1)
+    public void limpieza() {
+        registro.descartarVencidas();
+    }
+}
@@ -0,0 +1,53 @@
+package proveedor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Armado de respuestas: EscritorRespuesta contra el String.format más getBytes que se usaba antes
+// para las respuestas de llamada (transacción 1) y saldo (transacción 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms512m", "-Xmx512m" })
+@State(Scope.Thread)
+public class RespuestaBenchmark {
+
+    private final EscritorRespuesta escritor = new EscritorRespuesta();
+    private long costoCentavos = 1_234_567;
+    private int segundos = 5_025;
+    private double saldo = 4_321.57;
+
+    @Benchmark
+    public EscritorRespuesta llamada() {
+        escritor.llamada(costoCentavos, segundos);
+        return escritor;
+    }
+
+    @Benchmark
+    public byte[] llamadaConFormat() {
+        String json = String.format("{\"status\":\"OK\",\"costo\":\"%010d\",\"tiempo\":\"%02d%02d%02d\"}",
+            costoCentavos, segundos / 3600, (segundos % 3600) / 60, segundos % 60);
+        return (json + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public EscritorRespuesta saldo() {
+        escritor.saldo(saldo);
+        return escritor;
+    }
+
+    @Benchmark
+    public byte[] saldoConFormat() {
+        String json = String.format(Locale.ROOT, "{\"status\":\"OK\",\"saldo\":\"%.2f\"}", saldo);
+        return (json + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public EscritorRespuesta plantilla() {
+        escritor.escribir(Respuestas.SALDO_INSUFICIENTE);
+        return escritor;
+    }
+}
@@ -0,0 +1,61 @@
+package proveedor;
+
+import java.net.BindException;
+
+// Proveedor completo para pruebas de carga sin SQL Server: BD H2 de BaseDatosBenchmark, Identificador
+// falso en Config.PUERTO_IDENTIFICADOR y ProveedorServer en el modo de Config.MODO_SERVIDOR.
+// Arranca los mismos motores que ProveedorTelefonico salvo los que dependen de T-SQL (ingesta de
+// CDR por lotes y outbox de notificaciones): la transacción 5 escribe directo y la 6 notifica en
+// línea. Las transacciones 6 y 7 terminan en error sobre H2 (procedimientos y lotes T-SQL); el
+// reporte de GeneradorCarga las muestra por código de respuesta.
+//
+//     java -cp benchmarks/target/benchmarks.jar proveedor.ServidorPrueba [--puerto=6000]
+//         [--conexiones-bd=20] [--retardo-identificador=2]
+//
+// Varios nodos en localhost (Cluster): el primero carga la BD y la publica por TCP, los demás la
+// usan; cada uno desde su propio directorio de trabajo (cobros/, altas/) y el Identificador falso
+// lo abre el primero que arranca. El puerto de métricas solo lo toma el primero.
+//
+//     ServidorPrueba --puerto=6000 --nodos=localhost:6000,localhost:6001 --servir-bd=9092
+//     ServidorPrueba --puerto=6001 --nodos=localhost:6000,localhost:6001 --bd-remota=localhost:9092
+public class ServidorPrueba {
+
+    public static void main(String[] args) throws Exception {
+        Opciones op = new Opciones(args);
+        int puerto = op.entero("puerto", Config.PUERTO_PROVEEDOR);
+        int conexionesBd = op.entero("conexiones-bd", Config.TAMANO_POOL_BD);
+
+        String remota = op.texto("bd-remota", null);
+        if (remota != null) {
+            BaseDatosBenchmark.conectarRemota(conexionesBd, remota);
+        } else if (op.entero("servir-bd", 0) > 0) {
+            BaseDatosBenchmark.servir(conexionesBd, op.entero("servir-bd", 0));
+        } else {
+            BaseDatosBenchmark.iniciar(conexionesBd);
+        }
+
+        Cluster.iniciar(op.texto("nodo", "localhost:" + puerto), op.texto("nodos", ""));
+        iniciar(puerto, op.entero("retardo-identificador", 2));
+        Thread.currentThread().join();
+    }
+
+    // Deja el servidor atendiendo en un hilo aparte, sobre la BD ya configurada con BaseDatosBenchmark
+    static void iniciar(int puerto, int retardoIdentificador) throws Exception {
+        try {
+            new IdentificadorFalso(Config.PUERTO_IDENTIFICADOR, retardoIdentificador).iniciar();
+        } catch (BindException e) {
+            Log.info("Identificador falso ya abierto por otro proceso, se usa ese");
+        }
+
+        Config.iniciar();
+        Metricas.iniciar();
+        CacheTarifas.iniciar();
+        MotorReservas.iniciar();
+        ConsumoPostpago.iniciar();
+        AuditoriaConsultas.iniciar();
+
+        Thread servidor = new Thread(() -> new ProveedorServer(puerto).iniciar(), "servidor-prueba");
+        servidor.setDaemon(true);
+        servidor.start();
+    }
+}
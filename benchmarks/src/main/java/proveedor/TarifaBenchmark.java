@@ -0,0 +1,88 @@
+package proveedor;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Cálculo de tarifa y tiempo de la transacción 1 prepago, como en procesarLlamada: tarifa desde
+// CacheTarifas (trie de prefijos para las internacionales), reserva del saldo en MotorReservas y
+// respuesta con costo y tiempo. Las cuentas se cargan de la BD en el setup, así la medición no
+// incluye la primera lectura del saldo. La reserva se libera enseguida para no agotar el saldo.
+// tarifaSql es la línea de base: el camino sin caché (hasta cuatro consultas de prefijo y la de
+// TIPO_LLAMADA) contra la BD H2 en el mismo proceso, sin la ida y vuelta de red de SQL Server
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms512m", "-Xmx512m" })
+@State(Scope.Thread)
+public class TarifaBenchmark {
+
+    private static final int LINEAS = 1024;
+
+    private final String[] lineas = new String[LINEAS];
+    private final String[] destinos = new String[LINEAS];
+    private final int[] tipos = new int[LINEAS];
+    private final EscritorRespuesta escritor = new EscritorRespuesta();
+    private ConexionSQLServer db;
+    private int siguiente;
+
+    @Setup(Level.Trial)
+    public void preparar() throws Exception {
+        BaseDatosBenchmark.iniciar(2);
+        db = new ConexionSQLServer();
+        if (!db.conectar() || !CacheTarifas.refrescar(db)) {
+            throw new IllegalStateException("No se pudo cargar la caché de tarifas");
+        }
+
+        // Solo prepago; uno de cada tres destinos internacional, con prefijos de todos los largos
+        int i = 0;
+        for (int n = 1; i < LINEAS; n++) {
+            if (BaseDatosBenchmark.esPostpago(n)) continue;
+            lineas[i] = BaseDatosBenchmark.linea(n);
+            tipos[i] = 1 + i % 3;
+            destinos[i] = tipos[i] == 3
+                ? BaseDatosBenchmark.prefijo(i % BaseDatosBenchmark.PREFIJOS) + "88881234"
+                : String.valueOf(22_000_000 + i);
+            MotorReservas.Reserva r = MotorReservas.reservar(db, lineas[i], 1);
+            if (r != null) MotorReservas.liberar(lineas[i], r);
+            i++;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() {
+        db.close();
+    }
+
+    @Benchmark
+    public double tarifa() {
+        int i = siguiente++ & (LINEAS - 1);
+        return CacheTarifas.calcularTarifa(destinos[i], tipos[i]);
+    }
+
+    // Igual que ProveedorServer.calcularTarifa cuando la caché no está cargada
+    @Benchmark
+    public double tarifaSql() {
+        int i = siguiente++ & (LINEAS - 1);
+        if (tipos[i] == 3) {
+            return db.obtenerTarifaInternacional(db.obtenerGrupoInternacional(destinos[i]));
+        }
+        return db.obtenerTarifaLocal(tipos[i]);
+    }
+
+    @Benchmark
+    public void tarifaYTiempo(Blackhole bh) throws SQLException {
+        int i = siguiente++ & (LINEAS - 1);
+        double tarifa = CacheTarifas.calcularTarifa(destinos[i], tipos[i]);
+        MotorReservas.Reserva reserva = MotorReservas.reservar(db, lineas[i], tarifa);
+        if (reserva != null) {
+            escritor.llamada((int) (reserva.monto() * 100), reserva.segundos());
+            MotorReservas.liberar(lineas[i], reserva);
+            bh.consume(escritor);
+        } else {
+            bh.consume(Respuestas.SALDO_INSUFICIENTE);
+        }
+    }
+}
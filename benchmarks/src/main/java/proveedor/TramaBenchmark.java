@@ -0,0 +1,62 @@
+package proveedor;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Lectura de tramas: LectorTrama (más la validación de Solicitud) contra la lectura anterior con
+// Gson a un Map, tal como la hacía parsearJsonConGson (un Gson nuevo por trama) y con un Gson
+// compartido, para separar el costo de crear el Gson del de leer
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms512m", "-Xmx512m" })
+@State(Scope.Thread)
+public class TramaBenchmark {
+
+    private static final Type MAPA = new TypeToken<Map<String, String>>() {}.getType();
+    private static final Gson GSON = new Gson();
+
+    @Param({ "llamada", "fin_llamada", "estado_linea" })
+    public String trama;
+
+    private String json;
+    private final LectorTrama lector = new LectorTrama();
+
+    @Setup
+    public void preparar() {
+        switch (trama) {
+            case "llamada":
+                json = "{\"tipo_transaccion\":\"1\",\"telefono\":\"80000001\",\"destino\":\"50688881234\",\"tipo_llamada\":\"3\"}";
+                break;
+            case "fin_llamada":
+                json = "{\"tipo_transaccion\":\"5\",\"telefono\":\"80000001\",\"destino\":\"22223333\",\"fecha\":\"20250627\","
+                    + "\"hora\":\"101500\",\"duracion\":\"000312\",\"costo\":\"156.00\",\"keep_alive\":true}";
+                break;
+            default:
+                json = "{\"tipo_transaccion\":\"6\",\"telefono\":\"80000001\",\"identificadorTel\":\"TEL1\","
+                    + "\"identificador_tarjeta\":\"SIM1\",\"tipo\":\"prepago\",\"estado\":\"activar\",\"duenio\":\"1-0234-0567\"}";
+        }
+    }
+
+    @Benchmark
+    public void lectorTrama(Blackhole bh) {
+        bh.consume(lector.leer(json));
+        bh.consume(Solicitud.decodificar(lector));
+    }
+
+    @Benchmark
+    public Map<String, String> gsonPorTrama() {
+        return new Gson().fromJson(json, MAPA);
+    }
+
+    @Benchmark
+    public Map<String, String> gsonCompartido() {
+        return GSON.fromJson(json, MAPA);
+    }
+}
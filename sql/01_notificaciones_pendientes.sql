@@ -0,0 +1,25 @@
+-- Outbox de notificaciones de estado de línea hacia el Identificador (transacción 6).
+-- La fila se inserta en la misma transacción que el cambio de estado y el despachador del
+-- proveedor la borra cuando el Identificador confirma la entrega.
+USE COMPANIA_TELEFONICA;
+GO
+
+IF OBJECT_ID('dbo.NOTIFICACIONES_PENDIENTES', 'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.NOTIFICACIONES_PENDIENTES (
+        ID               BIGINT IDENTITY(1,1) NOT NULL PRIMARY KEY,
+        CLAVE            VARCHAR(36)    NOT NULL,                 -- clave de idempotencia, viaja en la trama
+        TELEFONO         VARCHAR(20)    NOT NULL,
+        TRAMA            NVARCHAR(1000) NOT NULL,
+        INTENTOS         INT            NOT NULL DEFAULT 0,
+        PROXIMO_INTENTO  DATETIME2      NOT NULL DEFAULT SYSUTCDATETIME(),
+        FALLIDA          BIT            NOT NULL DEFAULT 0,       -- agotó los intentos, requiere revisión
+        CREADA           DATETIME2      NOT NULL DEFAULT SYSUTCDATETIME(),
+        CONSTRAINT UQ_NOTIFICACIONES_CLAVE UNIQUE (CLAVE)
+    );
+
+    -- Entrega en orden por teléfono y búsqueda de las vencidas
+    CREATE INDEX IX_NOTIFICACIONES_TELEFONO ON dbo.NOTIFICACIONES_PENDIENTES (TELEFONO, ID) WHERE FALLIDA = 0;
+    CREATE INDEX IX_NOTIFICACIONES_PROXIMO ON dbo.NOTIFICACIONES_PENDIENTES (PROXIMO_INTENTO) INCLUDE (TELEFONO) WHERE FALLIDA = 0;
+END
+GO
@@ -0,0 +1,22 @@
+-- Búsqueda de clientes por cédula sin recorrer CLIENTES completa.
+-- La cédula se compara sin guiones, espacios ni puntos; antes se aplicaba REPLACE sobre la
+-- columna en cada consulta y ningún índice servía. Ahora la forma normalizada es una columna
+-- calculada persistida con su propio índice.
+-- Agregar una columna persistida reescribe la tabla: con millones de filas conviene correrlo en
+-- una ventana de mantenimiento (en Enterprise el índice puede crearse con ONLINE = ON).
+USE COMPANIA_TELEFONICA;
+GO
+
+IF COL_LENGTH('dbo.CLIENTES', 'CEDULA_NORMALIZADA') IS NULL
+BEGIN
+    ALTER TABLE dbo.CLIENTES
+        ADD CEDULA_NORMALIZADA AS CAST(REPLACE(REPLACE(REPLACE(CEDULA, '-', ''), ' ', ''), '.', '') AS VARCHAR(50)) PERSISTED;
+END
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_CLIENTES_CEDULA_NORMALIZADA' AND object_id = OBJECT_ID('dbo.CLIENTES'))
+BEGIN
+    CREATE NONCLUSTERED INDEX IX_CLIENTES_CEDULA_NORMALIZADA
+        ON dbo.CLIENTES (CEDULA_NORMALIZADA) INCLUDE (ID_CLIENTE);
+END
+GO
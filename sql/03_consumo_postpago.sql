@@ -0,0 +1,21 @@
+-- Consumo acumulado del ciclo en curso por línea postpago y tipo de llamada (transacción 5).
+-- El proveedor lo agrega en memoria al recibir cada CDR y guarda aquí los totales cada
+-- SNAPSHOT_CONSUMO_S segundos; el cálculo de cobros puede partir de estas filas en lugar de
+-- recorrer LLAMADAS. Los valores son totales absolutos del ciclo, no incrementos.
+USE COMPANIA_TELEFONICA;
+GO
+
+IF OBJECT_ID('dbo.CONSUMO_POSTPAGO', 'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.CONSUMO_POSTPAGO (
+        NUM_TELEFONO   VARCHAR(20)    NOT NULL,
+        CICLO          INT            NOT NULL,                 -- AAAAMM de la fecha del CDR
+        TIPO_LLAMADA   TINYINT        NOT NULL,                 -- 0 si el fin de llamada no tenía inicio registrado
+        LLAMADAS       INT            NOT NULL,
+        SEGUNDOS       BIGINT         NOT NULL,
+        COSTO          DECIMAL(18, 2) NOT NULL,
+        ACTUALIZADO    DATETIME2      NOT NULL DEFAULT SYSUTCDATETIME(),
+        CONSTRAINT PK_CONSUMO_POSTPAGO PRIMARY KEY (CICLO, NUM_TELEFONO, TIPO_LLAMADA)
+    );
+END
+GO
@@ -0,0 +1,18 @@
+-- Bitácora de consultas de saldo (transacción 2). Reemplaza el registro ficticio en LLAMADAS y
+-- TRANSACCIONES que se hacía por cada consulta: el proveedor acumula las consultas en memoria y
+-- las inserta por lotes. Solo se agregan filas.
+USE COMPANIA_TELEFONICA;
+GO
+
+IF OBJECT_ID('dbo.CONSULTAS_SALDO', 'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.CONSULTAS_SALDO (
+        ID             BIGINT IDENTITY(1,1) NOT NULL,
+        NUM_TELEFONO   VARCHAR(20)    NOT NULL,
+        CONSULTADA     DATETIME2      NOT NULL,                 -- hora de la consulta, no de la inserción
+        CONSTRAINT PK_CONSULTAS_SALDO PRIMARY KEY (ID)
+    );
+
+    CREATE INDEX IX_CONSULTAS_SALDO_TELEFONO ON dbo.CONSULTAS_SALDO (NUM_TELEFONO, CONSULTADA);
+END
+GO
@@ -0,0 +1,66 @@
+-- Cálculo de cobros postpago por rango de NUM_TELEFONO (transacción 7 con PARTICIONES_COBRO > 1,
+-- opcional: por defecto el proveedor ejecuta SP_COBROS_POSTPAGOS completo).
+-- MotorCobros parte el trabajo en rangos contiguos de líneas postpago y corre uno por partición,
+-- varios a la vez; una partición interrumpida se vuelve a ejecutar entera, así que el resultado
+-- debe ser el mismo cuantas veces se corra: el cobro de cada línea y ciclo se reemplaza, no se suma.
+-- El monto sale del consumo acumulado del ciclo (CONSUMO_POSTPAGO, script 03) en lugar de recorrer
+-- LLAMADAS. Requiere el script 03 aplicado y el proveedor corriendo con ConsumoPostpago persistente.
+-- CONSUMO_POSTPAGO es una foto periódica de los acumulados en memoria, no el detalle: antes de
+-- activar las particiones hay que conciliar COBROS_POSTPAGO contra el resultado de SP_COBROS_POSTPAGOS.
+USE COMPANIA_TELEFONICA;
+GO
+
+IF OBJECT_ID('dbo.COBROS_POSTPAGO', 'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.COBROS_POSTPAGO (
+        NUM_TELEFONO   VARCHAR(20)    NOT NULL,
+        CICLO          INT            NOT NULL,                 -- AAAAMM de @FECHA_CALCULO
+        LLAMADAS       INT            NOT NULL,
+        SEGUNDOS       BIGINT         NOT NULL,
+        MONTO          DECIMAL(18, 2) NOT NULL,
+        FECHA_CALCULO  DATE           NOT NULL,
+        FECHA_M_PAGO   DATE           NOT NULL,
+        CALCULADO      DATETIME2      NOT NULL DEFAULT SYSUTCDATETIME(),
+        CONSTRAINT PK_COBROS_POSTPAGO PRIMARY KEY (CICLO, NUM_TELEFONO)
+    );
+END
+GO
+
+CREATE OR ALTER PROCEDURE dbo.SP_COBROS_POSTPAGOS_RANGO
+    @FECHA_CALCULO DATE,
+    @FECHA_M_PAGO  DATE,
+    @NUM_DESDE     VARCHAR(20),
+    @NUM_HASTA     VARCHAR(20)
+AS
+BEGIN
+    SET NOCOUNT ON;
+    SET XACT_ABORT ON;
+
+    DECLARE @CICLO INT = YEAR(@FECHA_CALCULO) * 100 + MONTH(@FECHA_CALCULO);
+
+    BEGIN TRANSACTION;
+
+    -- Solo las líneas postpago del rango con consumo en el ciclo; sin consumo no se genera cobro
+    MERGE dbo.COBROS_POSTPAGO WITH (HOLDLOCK) AS destino
+    USING (
+        SELECT T.NUM_TELEFONO,
+               SUM(C.LLAMADAS) AS LLAMADAS,
+               SUM(C.SEGUNDOS) AS SEGUNDOS,
+               SUM(C.COSTO)    AS MONTO
+        FROM dbo.TELEFONOS T
+        JOIN dbo.TIPO_TELEFONO TT ON TT.ID_T_TELEFONO = T.TIPO_TELEFONO AND LOWER(TT.DESCRIPCION) = 'postpago'
+        JOIN dbo.CONSUMO_POSTPAGO C ON C.NUM_TELEFONO = T.NUM_TELEFONO AND C.CICLO = @CICLO
+        WHERE T.NUM_TELEFONO BETWEEN @NUM_DESDE AND @NUM_HASTA
+        GROUP BY T.NUM_TELEFONO
+    ) AS origen
+    ON destino.CICLO = @CICLO AND destino.NUM_TELEFONO = origen.NUM_TELEFONO
+    WHEN MATCHED THEN
+        UPDATE SET LLAMADAS = origen.LLAMADAS, SEGUNDOS = origen.SEGUNDOS, MONTO = origen.MONTO,
+                   FECHA_CALCULO = @FECHA_CALCULO, FECHA_M_PAGO = @FECHA_M_PAGO, CALCULADO = SYSUTCDATETIME()
+    WHEN NOT MATCHED THEN
+        INSERT (NUM_TELEFONO, CICLO, LLAMADAS, SEGUNDOS, MONTO, FECHA_CALCULO, FECHA_M_PAGO)
+        VALUES (origen.NUM_TELEFONO, @CICLO, origen.LLAMADAS, origen.SEGUNDOS, origen.MONTO, @FECHA_CALCULO, @FECHA_M_PAGO);
+
+    COMMIT TRANSACTION;
+END
+GO
@@ -0,0 +1,16 @@
+-- Última secuencia del WAL de CDR aplicada en la BD, por WAL (equipo y directorio). El proveedor
+-- la actualiza en la misma transacción que guarda cada lote de CDR; al arrancar reenvía del WAL
+-- solo lo posterior, así una caída entre el commit y el checkpoint local no cobra dos veces.
+USE COMPANIA_TELEFONICA;
+GO
+
+IF OBJECT_ID('dbo.CDR_APLICADOS', 'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.CDR_APLICADOS (
+        ORIGEN            VARCHAR(300)   NOT NULL,              -- equipo:directorio del WAL
+        ULTIMA_SECUENCIA  BIGINT         NOT NULL,
+        ACTUALIZADO       DATETIME2      NOT NULL DEFAULT SYSUTCDATETIME(),
+        CONSTRAINT PK_CDR_APLICADOS PRIMARY KEY (ORIGEN)
+    );
+END
+GO
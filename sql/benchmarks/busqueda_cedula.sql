@@ -0,0 +1,57 @@
+-- Compara la búsqueda de cliente por cédula anterior (REPLACE sobre la columna) con la búsqueda
+-- sobre CEDULA_NORMALIZADA indexada, en una tabla sintética del tamaño de producción.
+-- Se corre en una BD de pruebas; no toca dbo.CLIENTES. Ver lecturas lógicas y tiempos en la
+-- pestaña de mensajes.
+SET NOCOUNT ON;
+
+DECLARE @filas INT = 3000000;
+
+IF OBJECT_ID('tempdb..#CLIENTES_BENCH') IS NOT NULL DROP TABLE #CLIENTES_BENCH;
+CREATE TABLE #CLIENTES_BENCH (
+    ID_CLIENTE INT NOT NULL PRIMARY KEY,
+    CEDULA     VARCHAR(20) NOT NULL,
+    NOMBRE     VARCHAR(60) NOT NULL
+);
+
+-- Cédulas con el formato mixto que llega de los sistemas de origen: 1-0234-0567, 1 0234 0567, 102340567
+WITH n AS (
+    SELECT TOP (@filas) ROW_NUMBER() OVER (ORDER BY (SELECT NULL)) AS i
+    FROM sys.all_objects a CROSS JOIN sys.all_objects b CROSS JOIN sys.all_objects c
+)
+INSERT INTO #CLIENTES_BENCH (ID_CLIENTE, CEDULA, NOMBRE)
+SELECT i,
+       CASE i % 3
+           WHEN 0 THEN CONCAT(i % 9 + 1, '-', RIGHT(CONCAT('0000', i / 10000 % 10000), 4), '-', RIGHT(CONCAT('0000', i % 10000), 4))
+           WHEN 1 THEN CONCAT(i % 9 + 1, ' ', RIGHT(CONCAT('0000', i / 10000 % 10000), 4), ' ', RIGHT(CONCAT('0000', i % 10000), 4))
+           ELSE CONCAT(i % 9 + 1, RIGHT(CONCAT('0000', i / 10000 % 10000), 4), RIGHT(CONCAT('0000', i % 10000), 4))
+       END,
+       CONCAT('Cliente ', i)
+FROM n;
+
+DECLARE @ced VARCHAR(50) = (SELECT REPLACE(REPLACE(REPLACE(CEDULA, '-', ''), ' ', ''), '.', '')
+                            FROM #CLIENTES_BENCH WHERE ID_CLIENTE = @filas - 17);
+DECLARE @id INT;
+
+PRINT '--- Antes: REPLACE sobre la columna (recorrido completo)';
+SET STATISTICS IO, TIME ON;
+SELECT TOP 1 @id = ID_CLIENTE FROM #CLIENTES_BENCH
+WHERE REPLACE(REPLACE(REPLACE(CEDULA, '-', ''), ' ', ''), '.', '') = @ced
+   OR CAST(ID_CLIENTE AS VARCHAR(20)) = @ced;
+SET STATISTICS IO, TIME OFF;
+
+ALTER TABLE #CLIENTES_BENCH
+    ADD CEDULA_NORMALIZADA AS CAST(REPLACE(REPLACE(REPLACE(CEDULA, '-', ''), ' ', ''), '.', '') AS VARCHAR(50)) PERSISTED;
+CREATE NONCLUSTERED INDEX IX_BENCH_CEDULA_NORMALIZADA ON #CLIENTES_BENCH (CEDULA_NORMALIZADA) INCLUDE (ID_CLIENTE);
+
+PRINT '--- Después: búsqueda por CEDULA_NORMALIZADA (igual que el lote de activación)';
+SET STATISTICS IO, TIME ON;
+SELECT TOP 1 @id = ID_CLIENTE FROM (
+    SELECT ID_CLIENTE, 0 AS ORDEN FROM #CLIENTES_BENCH WHERE CEDULA_NORMALIZADA = @ced
+    UNION ALL
+    SELECT ID_CLIENTE, 1 FROM #CLIENTES_BENCH
+    WHERE ID_CLIENTE = TRY_CAST(@ced AS INT) AND CAST(ID_CLIENTE AS VARCHAR(20)) = @ced
+) c ORDER BY ORDEN;
+SET STATISTICS IO, TIME OFF;
+
+PRINT CONCAT('ID encontrado: ', @id);
+DROP TABLE #CLIENTES_BENCH;
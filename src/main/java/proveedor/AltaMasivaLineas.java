@@ -0,0 +1,166 @@
+package proveedor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// Alta masiva de líneas disponibles (transacción 9 y "alta-masiva <archivo>" por línea de comandos).
+// El archivo se lee en flujo: CSV (telefono,identificadorTel,identificador_tarjeta,tipo, con o sin
+// encabezado) o NDJSON (.ndjson/.jsonl, un objeto por línea con esas mismas claves). Cada fila se
+// valida contra los números ya existentes, cargados una sola vez en memoria, y contra las filas
+// anteriores del mismo archivo; las válidas se insertan en lotes de Config.LOTE_ALTAS con JDBC
+// batch. Las rechazadas quedan en <archivo>.rechazos con el número de fila y el motivo
+public class AltaMasivaLineas {
+
+    public record Resultado(int procesadas, int insertadas, int rechazadas, Path rechazos) {}
+
+    public record Linea(int fila, String original, String telefono, String identificadorTel,
+                        String identificadorTarjeta, int idTipo, double saldoInicial) {}
+
+    private final ConexionSQLServer db;
+    private final Set<String> existentes;
+    private final BufferedWriter rechazos;
+    private final List<Linea> lote = new ArrayList<>(Config.LOTE_ALTAS);
+    private final LectorTrama lector = new LectorTrama();
+    private int insertadas;
+    private int rechazadas;
+
+    private AltaMasivaLineas(ConexionSQLServer db, Set<String> existentes, BufferedWriter rechazos) {
+        this.db = db;
+        this.existentes = existentes;
+        this.rechazos = rechazos;
+    }
+
+    // Resuelve un nombre de archivo recibido por la red dentro de Config.DIRECTORIO_ALTAS; null si
+    // intenta salir del directorio
+    public static Path archivoEnDirectorioAltas(String nombre) {
+        Path directorio = Path.of(Config.DIRECTORIO_ALTAS).toAbsolutePath().normalize();
+        Path archivo = directorio.resolve(nombre).normalize();
+        return archivo.startsWith(directorio) && !archivo.equals(directorio) ? archivo : null;
+    }
+
+    public static Resultado importar(ConexionSQLServer db, Path archivo) throws IOException, SQLException {
+        boolean ndjson = archivo.getFileName().toString().matches("(?i).*\\.(ndjson|jsonl)");
+        Path archivoRechazos = archivo.resolveSibling(archivo.getFileName() + ".rechazos");
+
+        long inicio = System.currentTimeMillis();
+        Set<String> existentes = db.cargarNumerosTelefono();
+
+        int procesadas = 0;
+        AltaMasivaLineas alta;
+        try (BufferedReader entrada = Files.newBufferedReader(archivo, StandardCharsets.UTF_8);
+             BufferedWriter salida = Files.newBufferedWriter(archivoRechazos, StandardCharsets.UTF_8)) {
+            alta = new AltaMasivaLineas(db, existentes, salida);
+
+            String linea;
+            int fila = 0;
+            while ((linea = entrada.readLine()) != null) {
+                fila++;
+                if (linea.isBlank()) continue;
+                if (!ndjson && fila == 1 && linea.trim().toLowerCase().startsWith("telefono")) continue;
+
+                procesadas++;
+                alta.procesar(fila, linea, ndjson);
+            }
+            alta.vaciarLote();
+        }
+
+        if (alta.rechazadas == 0) {
+            Files.deleteIfExists(archivoRechazos);
+        }
+        Log.info("Alta masiva " + archivo.getFileName() + ": " + procesadas + " filas, "
+            + alta.insertadas + " insertadas, " + alta.rechazadas + " rechazadas en "
+            + (System.currentTimeMillis() - inicio) + " ms");
+        return new Resultado(procesadas, alta.insertadas, alta.rechazadas, alta.rechazadas > 0 ? archivoRechazos : null);
+    }
+
+    private void procesar(int fila, String texto, boolean ndjson) throws IOException, SQLException {
+        String telefono, idTel, idTarjeta, tipo;
+        if (ndjson) {
+            if (!lector.leer(texto)) {
+                rechazar(fila, "Formato JSON invalido", texto);
+                return;
+            }
+            telefono = lector.get(LectorTrama.Campo.TELEFONO);
+            idTel = lector.get(LectorTrama.Campo.IDENTIFICADOR_TEL);
+            idTarjeta = lector.get(LectorTrama.Campo.IDENTIFICADOR_TARJETA);
+            tipo = lector.get(LectorTrama.Campo.TIPO);
+        } else {
+            String[] campos = texto.split(",", -1);
+            if (campos.length != 4) {
+                rechazar(fila, "Se esperaban 4 columnas", texto);
+                return;
+            }
+            telefono = campos[0];
+            idTel = campos[1];
+            idTarjeta = campos[2];
+            tipo = campos[3];
+        }
+
+        telefono = recortar(telefono);
+        idTel = recortar(idTel);
+        idTarjeta = recortar(idTarjeta);
+        tipo = recortar(tipo);
+        if (telefono == null || idTel == null || idTarjeta == null || tipo == null) {
+            rechazar(fila, "Datos incompletos", texto);
+            return;
+        }
+
+        int idTipo = db.obtenerIdTipoTelefono(tipo);
+        if (idTipo == -1) {
+            rechazar(fila, "Tipo de telefono invalido", texto);
+            return;
+        }
+
+        // Cubre tanto los existentes en la BD como los repetidos dentro del archivo
+        if (!existentes.add(telefono)) {
+            rechazar(fila, "Telefono en uso", texto);
+            return;
+        }
+
+        double saldoInicial = tipo.equalsIgnoreCase("prepago") ? 1000.0 : 0.0;
+        lote.add(new Linea(fila, texto, telefono, idTel, idTarjeta, idTipo, saldoInicial));
+        if (lote.size() >= Config.LOTE_ALTAS) {
+            vaciarLote();
+        }
+    }
+
+    // Si el lote falla (por ejemplo un número dado de alta por otra vía mientras tanto) se repite
+    // fila por fila para rechazar solo las que fallan
+    private void vaciarLote() throws IOException, SQLException {
+        if (lote.isEmpty()) return;
+        try {
+            db.insertarLineasProveedor(lote);
+            insertadas += lote.size();
+        } catch (SQLException e) {
+            for (Linea l : lote) {
+                try {
+                    db.insertarLineasProveedor(List.of(l));
+                    insertadas++;
+                } catch (SQLException fila) {
+                    rechazar(l.fila(), "Error BD: " + fila.getMessage(), l.original());
+                }
+            }
+        }
+        lote.clear();
+    }
+
+    private void rechazar(int fila, String motivo, String texto) throws IOException {
+        rechazadas++;
+        rechazos.write(fila + "\t" + motivo + "\t" + texto);
+        rechazos.newLine();
+    }
+
+    private static String recortar(String valor) {
+        if (valor == null) return null;
+        valor = valor.trim();
+        return valor.isEmpty() ? null : valor;
+    }
+}
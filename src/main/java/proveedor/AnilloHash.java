@@ -0,0 +1,67 @@
+package proveedor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+// Anillo de hash consistente, inmutable: cada nodo ("host:puerto") ocupa varios puntos y una clave
+// pertenece al primer punto igual o mayor que su hash. Al entrar o salir un nodo solo cambian de
+// dueño las claves de sus tramos. El hash no depende de la JVM, así todos los nodos arman el mismo
+// anillo con la misma lista
+final class AnilloHash {
+    private final long[] puntos;
+    private final String[] duenios;
+    private final List<String> nodos;
+
+    AnilloHash(Collection<String> nodos, int puntosPorNodo) {
+        this.nodos = List.copyOf(new TreeSet<>(nodos));
+        List<long[]> pares = new ArrayList<>();
+        for (int n = 0; n < this.nodos.size(); n++) {
+            for (int i = 0; i < puntosPorNodo; i++) {
+                pares.add(new long[] { hash(this.nodos.get(n) + "#" + i), n });
+            }
+        }
+        // Empates (improbables) se resuelven por nodo, igual en todos
+        pares.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        puntos = new long[pares.size()];
+        duenios = new String[pares.size()];
+        for (int i = 0; i < pares.size(); i++) {
+            puntos[i] = pares.get(i)[0];
+            duenios[i] = this.nodos.get((int) pares.get(i)[1]);
+        }
+    }
+
+    String duenio(String clave) {
+        if (puntos.length == 0) return null;
+        int i = Arrays.binarySearch(puntos, hash(clave));
+        if (i < 0) i = -i - 1;
+        return duenios[i == puntos.length ? 0 : i];
+    }
+
+    List<String> getNodos() {
+        return nodos;
+    }
+
+    boolean contiene(String nodo) {
+        return nodos.contains(nodo);
+    }
+
+    // FNV-1a de 64 bits con el mezclado final de MurmurHash3, para repartir bien claves parecidas
+    static long hash(String clave) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : clave.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
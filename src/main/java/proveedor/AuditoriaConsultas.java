@@ -0,0 +1,95 @@
+package proveedor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bitácora de consultas de saldo (transacción 2) en CONSULTAS_SALDO. La consulta solo encola el
+// teléfono y la hora; un hilo aparte las inserta por lotes, así la transacción 2 no escribe en la
+// BD. La cola es acotada (Config.MAX_AUDITORIA_PENDIENTE): si la BD no da abasto se descartan
+// registros de auditoría antes que frenar las consultas, y se cuentan los descartados
+public class AuditoriaConsultas {
+
+    public record Consulta(String telefono, long instante) {}
+
+    private static final ArrayBlockingQueue<Consulta> cola = new ArrayBlockingQueue<>(Config.MAX_AUDITORIA_PENDIENTE);
+    private static final AtomicLong descartadas = new AtomicLong();
+    private static volatile boolean activa;
+
+    // Si la tabla no existe (script sql/ sin aplicar) la consulta sigue registrándose en LLAMADAS como antes
+    public static synchronized void iniciar() {
+        if (activa) return;
+
+        try (ConexionSQLServer db = new ConexionSQLServer()) {
+            if (!db.conectarSegundoPlano() || !db.existeAuditoriaConsultas()) {
+                Log.aviso("Tabla CONSULTAS_SALDO no disponible, las consultas se registran en LLAMADAS");
+                return;
+            }
+        }
+
+        activa = true;
+        Thread hilo = new Thread(AuditoriaConsultas::escribirLotes, "auditoria-consultas");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    public static boolean estaActiva() {
+        return activa;
+    }
+
+    public static void registrar(String telefono) {
+        if (!cola.offer(new Consulta(telefono, System.currentTimeMillis()))) {
+            long n = descartadas.incrementAndGet();
+            if (n % 1000 == 1) {
+                Log.aviso("Cola de auditoría de consultas llena, " + n + " registros descartados");
+            }
+        }
+    }
+
+    public static long getDescartadas() {
+        return descartadas.get();
+    }
+
+    private static void escribirLotes() {
+        List<Consulta> lote = new ArrayList<>(Config.LOTE_AUDITORIA);
+        while (true) {
+            try {
+                lote.add(cola.take());
+                if (cola.size() < Config.LOTE_AUDITORIA - 1) {
+                    Thread.sleep(Config.ESPERA_AUDITORIA_MS);
+                }
+                cola.drainTo(lote, Config.LOTE_AUDITORIA - 1);
+
+                guardarLote(lote);
+                lote.clear();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                Log.error("Error en la auditoría de consultas: " + e.getMessage());
+            }
+        }
+    }
+
+    // Reintenta mientras la BD no responda (como la cola es acotada, lo nuevo se descarta mientras
+    // tanto); un lote que la BD rechaza por sus datos se descarta para no trabar la bitácora
+    private static void guardarLote(List<Consulta> lote) throws InterruptedException {
+        while (true) {
+            try (ConexionSQLServer db = new ConexionSQLServer()) {
+                if (db.conectarSegundoPlano()) {
+                    db.registrarConsultasSaldo(lote);
+                    return;
+                }
+            } catch (SQLException e) {
+                if (!IngestaCDR.esTransitorio(e)) {
+                    descartadas.addAndGet(lote.size());
+                    Log.aviso("Lote de auditoría de consultas rechazado por la BD, se descarta: " + e.getMessage());
+                    return;
+                }
+                Log.aviso("Error guardando auditoría de consultas, se reintenta: " + e.getMessage());
+            }
+            Thread.sleep(Config.REINTENTO_CDR_MS);
+        }
+    }
+}
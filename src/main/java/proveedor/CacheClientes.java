@@ -0,0 +1,41 @@
+package proveedor;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// Caché de cédula normalizada -> ID_CLIENTE para la transacción 6. Solo guarda clientes
+// encontrados (uno nuevo debe aparecer enseguida) y vence tras Config.TTL_CEDULA_MS (0 la desactiva)
+public class CacheClientes {
+
+    private static final class Entrada {
+        final int idCliente;
+        final long expira;
+
+        Entrada(int idCliente, long expira) {
+            this.idCliente = idCliente;
+            this.expira = expira;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Entrada> clientes = new ConcurrentHashMap<>();
+
+    public static Integer obtener(String cedula) {
+        Entrada e = clientes.get(cedula);
+        if (e == null) return null;
+        if (e.expira <= System.currentTimeMillis()) {
+            clientes.remove(cedula, e);
+            return null;
+        }
+        return e.idCliente;
+    }
+
+    public static void guardar(String cedula, int idCliente) {
+        if (Config.TTL_CEDULA_MS <= 0) return;
+
+        long ahora = System.currentTimeMillis();
+        if (clientes.size() >= Config.MAX_CEDULAS_CACHE) {
+            clientes.values().removeIf(x -> x.expira <= ahora);
+            if (clientes.size() >= Config.MAX_CEDULAS_CACHE) clientes.clear();
+        }
+        clientes.put(cedula, new Entrada(idCliente, ahora + Config.TTL_CEDULA_MS));
+    }
+}
@@ -0,0 +1,58 @@
+package proveedor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+// Caché de lectura de perfiles de suscriptor por NUM_TELEFONO con TTL corto (Config.TTL_PERFIL_MS,
+// 0 la desactiva). Las activaciones, desactivaciones y cambios de saldo la invalidan
+public class CachePerfiles {
+
+    private static final class Entrada {
+        final PerfilSuscriptor perfil;
+        final long expira;
+
+        Entrada(PerfilSuscriptor perfil, long expira) {
+            this.perfil = perfil;
+            this.expira = expira;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Entrada> perfiles = new ConcurrentHashMap<>();
+
+    // Cada invalidación incrementa la generación; una lectura de la BD que empezó antes de una
+    // invalidación no se guarda, así no se reinstala un saldo viejo
+    private static final AtomicLong generacion = new AtomicLong();
+
+    public static PerfilSuscriptor obtener(ConexionSQLServer db, String numero) {
+        long ahora = System.currentTimeMillis();
+        Entrada e = perfiles.get(numero);
+        if (e != null && e.expira > ahora) {
+            return e.perfil;
+        }
+
+        long gen = generacion.get();
+        PerfilSuscriptor perfil = db.obtenerPerfilSuscriptor(numero);
+
+        if (Config.TTL_PERFIL_MS > 0 && perfil != PerfilSuscriptor.ERROR && generacion.get() == gen) {
+            if (perfiles.size() >= Config.MAX_PERFILES_CACHE) {
+                perfiles.values().removeIf(x -> x.expira <= ahora);
+                if (perfiles.size() >= Config.MAX_PERFILES_CACHE) perfiles.clear();
+            }
+            perfiles.put(numero, new Entrada(perfil, ahora + Config.TTL_PERFIL_MS));
+        }
+        return perfil;
+    }
+
+    public static void invalidar(String numero) {
+        generacion.incrementAndGet();
+        perfiles.remove(numero);
+    }
+
+    // Rebalanceo entre nodos: los perfiles de líneas que pasaron a otro nodo dejan de actualizarse
+    // aquí y no deben servirse si la línea vuelve
+    public static void invalidarSi(Predicate<String> numero) {
+        generacion.incrementAndGet();
+        perfiles.keySet().removeIf(numero);
+    }
+}
@@ -0,0 +1,76 @@
+package proveedor;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Caché en memoria de los datos de referencia de tarifas (TIPO_LLAMADA y PREFIJOS_INTERNACIONALES).
+// Se carga completa, se refresca cada Config.REFRESCO_TARIFAS_S o a pedido y se reemplaza de
+// forma atómica, así calcular una tarifa no toca la BD
+public class CacheTarifas {
+
+    private static final class Datos {
+        final TriePrefijos prefijos;
+        final Map<Integer, Double> tarifas;
+
+        Datos(TriePrefijos prefijos, Map<Integer, Double> tarifas) {
+            this.prefijos = prefijos;
+            this.tarifas = tarifas;
+        }
+    }
+
+    private static final AtomicReference<Datos> datos = new AtomicReference<>();
+    private static ScheduledExecutorService refresco;
+
+    public static synchronized void iniciar() {
+        refrescar();
+        if (refresco == null) {
+            refresco = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "refresco-tarifas");
+                t.setDaemon(true);
+                return t;
+            });
+            refresco.scheduleWithFixedDelay(CacheTarifas::refrescar,
+                Config.REFRESCO_TARIFAS_S, Config.REFRESCO_TARIFAS_S, TimeUnit.SECONDS);
+        }
+    }
+
+    public static boolean refrescar() {
+        try (ConexionSQLServer db = new ConexionSQLServer()) {
+            return db.conectarSegundoPlano() && refrescar(db);
+        }
+    }
+
+    // Si la carga falla se conserva la versión anterior
+    public static boolean refrescar(ConexionSQLServer db) {
+        try {
+            TriePrefijos prefijos = new TriePrefijos(db.cargarPrefijosInternacionales());
+            Map<Integer, Double> tarifas = Map.copyOf(db.cargarTarifas());
+            datos.set(new Datos(prefijos, tarifas));
+
+            Log.info("Tarifas cargadas: " + tarifas.size() + " tipos de llamada, "
+                + prefijos.getTamano() + " prefijos internacionales");
+            return true;
+        } catch (Exception e) {
+            Log.error("Error al refrescar caché de tarifas: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public static boolean estaCargada() {
+        return datos.get() != null;
+    }
+
+    // Mismas reglas que ConexionSQLServer: 9999 si no hay tarifa para el destino o el tipo
+    public static double calcularTarifa(String destino, int tipoLlamada) {
+        Datos d = datos.get();
+        if (tipoLlamada == 3) {
+            tipoLlamada = ConexionSQLServer.tipoLlamadaPorGrupo(d.prefijos.buscarGrupo(destino));
+            if (tipoLlamada == -1) return 9999;
+        }
+        Double tarifa = d.tarifas.get(tipoLlamada);
+        return tarifa != null ? tarifa : 9999;
+    }
+}
@@ -0,0 +1,51 @@
+package proveedor;
+
+// Circuito para un servicio remoto: tras varios fallos seguidos se abre y las llamadas fallan de
+// inmediato; pasada la pausa deja pasar una sola prueba (semiabierto) y según su resultado se
+// cierra o vuelve a abrirse
+final class Circuito {
+    private final String nombre;
+    private final int fallosParaAbrir;
+    private final long pausaMs;
+
+    private int fallosSeguidos;
+    private long abiertoHasta;
+    private boolean pruebaEnCurso;
+
+    Circuito(String nombre, int fallosParaAbrir, long pausaMs) {
+        this.nombre = nombre;
+        this.fallosParaAbrir = fallosParaAbrir;
+        this.pausaMs = pausaMs;
+    }
+
+    // Cada llamada permitida debe informar exito() o fallo()
+    synchronized boolean permitir() {
+        if (fallosSeguidos < fallosParaAbrir) return true;
+        if (System.currentTimeMillis() < abiertoHasta || pruebaEnCurso) return false;
+        pruebaEnCurso = true;
+        return true;
+    }
+
+    synchronized void exito() {
+        if (fallosSeguidos >= fallosParaAbrir) {
+            Log.info("Circuito " + nombre + " cerrado");
+        }
+        fallosSeguidos = 0;
+        pruebaEnCurso = false;
+    }
+
+    synchronized void fallo() {
+        fallosSeguidos++;
+        pruebaEnCurso = false;
+        if (fallosSeguidos >= fallosParaAbrir) {
+            if (fallosSeguidos == fallosParaAbrir) {
+                Log.aviso("Circuito " + nombre + " abierto tras " + fallosSeguidos + " fallos seguidos");
+            }
+            abiertoHasta = System.currentTimeMillis() + pausaMs;
+        }
+    }
+
+    synchronized boolean estaAbierto() {
+        return fallosSeguidos >= fallosParaAbrir;
+    }
+}
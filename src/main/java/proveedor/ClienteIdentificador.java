@@ -0,0 +1,197 @@
+package proveedor;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Cliente de tramas de una línea hacia el Identificador, con API asíncrona. Todas las esperas
+// tienen timeout, las notificaciones en curso están acotadas y un circuito corta las llamadas
+// mientras el Identificador no responde. En modo persistente mantiene un pequeño pool de
+// conexiones y encadena varias tramas en cada una; las respuestas llegan en el mismo orden
+final class ClienteIdentificador {
+    private final String host;
+    private final int puerto;
+    private final boolean persistente;
+    private final Circuito circuito;
+    private final Semaphore enCurso = new Semaphore(Config.MAX_NOTIFICACIONES_EN_CURSO);
+    private final ExecutorService hilos = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicReferenceArray<Canal> canales;
+    private final AtomicInteger turno = new AtomicInteger();
+
+    ClienteIdentificador(String host, int puerto, boolean persistente) {
+        this.host = host;
+        this.puerto = puerto;
+        this.persistente = persistente;
+        this.circuito = new Circuito("Identificador", Config.FALLOS_ABRIR_CIRCUITO, Config.PAUSA_CIRCUITO_MS);
+        this.canales = new AtomicReferenceArray<>(Math.max(1, Config.CONEXIONES_IDENTIFICADOR));
+    }
+
+    boolean esPersistente() {
+        return persistente;
+    }
+
+    // Envía la trama (sin fin de línea) y completa con la línea de respuesta. Falla con
+    // IOException si el circuito está abierto o hay demasiadas tramas en curso, y con
+    // TimeoutException si no llega respuesta a tiempo
+    CompletableFuture<String> enviar(String trama) {
+        if (!enCurso.tryAcquire()) {
+            return CompletableFuture.failedFuture(new IOException("Demasiadas notificaciones en curso"));
+        }
+        if (!circuito.permitir()) {
+            enCurso.release();
+            return CompletableFuture.failedFuture(new IOException("Circuito abierto hacia el Identificador"));
+        }
+
+        long inicio = System.nanoTime();
+        byte[] linea = (trama + "\n").getBytes(StandardCharsets.UTF_8);
+        CompletableFuture<String> respuesta = persistente ? enviarPorCanal(linea) : enviarEnConexionNueva(linea);
+        return respuesta
+            .orTimeout(Config.TIMEOUT_RESPUESTA_IDENTIFICADOR_MS, TimeUnit.MILLISECONDS)
+            .whenComplete((r, error) -> {
+                enCurso.release();
+                Metricas.identificador(inicio, error == null);
+                if (error == null) {
+                    circuito.exito();
+                } else {
+                    circuito.fallo();
+                }
+            });
+    }
+
+    // Modo por defecto: una conexión por trama, como espera el Identificador original
+    private CompletableFuture<String> enviarEnConexionNueva(byte[] linea) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (Socket socket = new Socket()) {
+                socket.connect(resolver(), Config.TIMEOUT_CONEXION_IDENTIFICADOR_MS);
+                socket.setSoTimeout(Config.TIMEOUT_RESPUESTA_IDENTIFICADOR_MS);
+                OutputStream salida = socket.getOutputStream();
+                salida.write(linea);
+                salida.flush();
+
+                BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                String respuesta = entrada.readLine();
+                if (respuesta == null) {
+                    throw new IOException("El Identificador cerró la conexión sin responder");
+                }
+                return respuesta;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, hilos);
+    }
+
+    private CompletableFuture<String> enviarPorCanal(byte[] linea) {
+        int i = Math.floorMod(turno.getAndIncrement(), canales.length());
+        Canal canal = canales.get(i);
+        if (canal != null && !canal.cerrado) {
+            return canal.enviar(linea);
+        }
+        // Conectar bloquea: se hace fuera del hilo que llama
+        return CompletableFuture.supplyAsync(() -> abrirCanal(i), hilos)
+            .thenCompose(c -> c.enviar(linea));
+    }
+
+    private Canal abrirCanal(int i) {
+        Canal actual = canales.get(i);
+        if (actual != null && !actual.cerrado) return actual;
+        try {
+            Canal nuevo = new Canal();
+            if (canales.compareAndSet(i, actual, nuevo)) {
+                hilos.execute(nuevo::leerRespuestas);
+                return nuevo;
+            }
+            nuevo.cerrar(new IOException("Conexión sobrante"));
+            return abrirCanal(i);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Se resuelve en cada conexión, por si cambia la dirección del Identificador
+    private InetSocketAddress resolver() {
+        return new InetSocketAddress(host, puerto);
+    }
+
+    // Conexión persistente: las tramas se escriben en orden bajo el candado y un hilo lector
+    // completa las respuestas pendientes en el mismo orden
+    private final class Canal {
+        private final Socket socket = new Socket();
+        private final OutputStream salida;
+        private final BufferedReader entrada;
+        private final Queue<CompletableFuture<String>> pendientes = new ConcurrentLinkedQueue<>();
+        private final ReentrantLock escritura = new ReentrantLock();
+        volatile boolean cerrado;
+
+        Canal() throws IOException {
+            try {
+                socket.connect(resolver(), Config.TIMEOUT_CONEXION_IDENTIFICADOR_MS);
+                socket.setTcpNoDelay(true);
+                salida = new BufferedOutputStream(socket.getOutputStream());
+                entrada = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        CompletableFuture<String> enviar(byte[] linea) {
+            CompletableFuture<String> respuesta = new CompletableFuture<>();
+            escritura.lock();
+            try {
+                if (cerrado) {
+                    respuesta.completeExceptionally(new IOException("Conexión con el Identificador cerrada"));
+                    return respuesta;
+                }
+                pendientes.add(respuesta);
+                salida.write(linea);
+                salida.flush();
+            } catch (IOException e) {
+                cerrar(e);
+            } finally {
+                escritura.unlock();
+            }
+
+            // Si una respuesta no llega a tiempo las siguientes quedarían desfasadas: se descarta la conexión
+            respuesta.orTimeout(Config.TIMEOUT_RESPUESTA_IDENTIFICADOR_MS, TimeUnit.MILLISECONDS).whenComplete((r, error) -> {
+                if (error instanceof TimeoutException) {
+                    cerrar(new IOException("Identificador sin respuesta, se descarta la conexión"));
+                }
+            });
+            return respuesta;
+        }
+
+        void leerRespuestas() {
+            try {
+                String linea;
+                while ((linea = entrada.readLine()) != null) {
+                    CompletableFuture<String> respuesta = pendientes.poll();
+                    if (respuesta != null) {
+                        respuesta.complete(linea);
+                    }
+                }
+                cerrar(new IOException("El Identificador cerró la conexión"));
+            } catch (IOException e) {
+                cerrar(e);
+            }
+        }
+
+        void cerrar(IOException causa) {
+            cerrado = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.error("Error al cerrar conexión con el Identificador: " + e.getMessage());
+            }
+            CompletableFuture<String> respuesta;
+            while ((respuesta = pendientes.poll()) != null) {
+                respuesta.completeExceptionally(causa);
+            }
+        }
+    }
+}
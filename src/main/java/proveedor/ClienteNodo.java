@@ -0,0 +1,90 @@
+package proveedor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+// Cliente de tramas hacia otro nodo del proveedor, para los reenvíos y la membresía. Bloqueante (lo
+// llaman los hilos que atienden tramas) y con un pequeño pool de conexiones persistentes: las tramas
+// viajan con keep_alive y la conexión se devuelve al pool tras leer la respuesta. No reintenta: un
+// fin de llamada reenviado dos veces se cobraría dos veces
+final class ClienteNodo {
+
+    private static final class Canal {
+        final Socket socket = new Socket();
+        final OutputStream salida;
+        final BufferedReader entrada;
+        long ultimoUso;
+
+        Canal(String host, int puerto) throws IOException {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, puerto), Config.TIMEOUT_REENVIO_MS);
+            socket.setSoTimeout(Config.TIMEOUT_REENVIO_MS);
+            salida = socket.getOutputStream();
+            entrada = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        void cerrar() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nada que hacer
+            }
+        }
+    }
+
+    private final String host;
+    private final int puerto;
+    private final ConcurrentLinkedDeque<Canal> libres = new ConcurrentLinkedDeque<>();
+
+    ClienteNodo(String nodo) {
+        int dosPuntos = nodo.lastIndexOf(':');
+        this.host = nodo.substring(0, dosPuntos);
+        this.puerto = Integer.parseInt(nodo.substring(dosPuntos + 1));
+    }
+
+    // Envía la trama (sin fin de línea) y devuelve la línea de respuesta. Con reutilizable en false
+    // el otro nodo cierra tras responder (la trama pedía keep_alive false) y la conexión no vuelve al pool
+    String enviar(String trama, boolean reutilizable) throws IOException {
+        Canal canal = tomar();
+        try {
+            canal.salida.write((trama + "\n").getBytes(StandardCharsets.UTF_8));
+            canal.salida.flush();
+            String respuesta = canal.entrada.readLine();
+            if (respuesta == null) throw new IOException("El nodo " + host + ":" + puerto + " cerró la conexión sin responder");
+
+            if (reutilizable && libres.size() < Config.CONEXIONES_POR_NODO) {
+                canal.ultimoUso = System.currentTimeMillis();
+                libres.addFirst(canal);
+            } else {
+                canal.cerrar();
+            }
+            return respuesta;
+        } catch (IOException e) {
+            canal.cerrar();
+            throw e;
+        }
+    }
+
+    void cerrar() {
+        Canal c;
+        while ((c = libres.pollFirst()) != null) c.cerrar();
+    }
+
+    // Las conexiones inactivas por más de la mitad del keep_alive del otro lado se descartan antes
+    // de que las cierre él
+    private Canal tomar() throws IOException {
+        long limite = System.currentTimeMillis() - Config.TIMEOUT_KEEP_ALIVE_MS / 2;
+        Canal c;
+        while ((c = libres.pollFirst()) != null) {
+            if (c.ultimoUso >= limite && !c.socket.isClosed()) return c;
+            c.cerrar();
+        }
+        return new Canal(host, puerto);
+    }
+}
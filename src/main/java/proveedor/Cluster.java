@@ -0,0 +1,343 @@
+package proveedor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+// Despliegue en varios nodos: las líneas se reparten por NUM_TELEFONO con un anillo de hash
+// consistente (AnilloHash) y cada una la atiende siempre el mismo nodo, el único que tiene en memoria
+// su saldo reservado, su consumo postpago y su perfil. Una trama de una línea ajena que llega a un
+// nodo se reenvía tal cual a su dueño (marcada con "reenviado" para no volver a reenviarla) y se
+// devuelve su respuesta; cualquier nodo sirve de entrada. Las transacciones sin línea (7 a 10) se
+// atienden donde llegan, sobre la BD compartida.
+//
+// La membresía viaja con la transacción 12: al arrancar cada nodo se anuncia a los de Config.NODOS
+// y adopta la lista que le devuelven, al apagarse avisa que sale, y un latido saca del anillo a un
+// nodo que no responde Config.FALLOS_SACAR_NODO veces seguidas (y lo vuelve a poner cuando
+// responde). Cada cambio de anillo rebalancea: se sueltan las cuentas, perfiles y consumo de las
+// líneas que pasaron a otro nodo y se carga el consumo de las recibidas. Quedan sin mover las
+// llamadas en curso (sus reservas se sueltan y el fin de llamada cobra en el nuevo dueño sin reserva)
+// y los CDR aún en el WAL del nodo anterior, que llegan a la BD en milisegundos salvo que esté caída.
+// Con Config.NODOS vacío no hay anillo y todo se atiende localmente, como antes.
+//
+// Solo una dirección de nodo (del anillo, caído o de la lista inicial) puede marcar tramas como
+// reenviadas o pedir unir y salir; un cliente cualquiera solo puede listar. Un equipo nuevo entra
+// al anillo si figura en Config.NODOS de los demás o si se pide su unión desde un nodo
+public class Cluster {
+
+    private static volatile AnilloHash anillo;
+    private static volatile Set<InetAddress> direccionesNodos = Set.of();
+    private static String local;
+    private static List<String> iniciales = List.of();
+    private static ScheduledExecutorService tareas;
+
+    private static final Set<String> caidos = ConcurrentHashMap.newKeySet();
+    private static final ConcurrentHashMap<String, Integer> fallos = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ClienteNodo> clientes = new ConcurrentHashMap<>();
+    private static final LongAdder reenvios = new LongAdder();
+    private static final LongAdder reenviosFallidos = new LongAdder();
+
+    public static synchronized void iniciar(String nodoLocal, String nodos) {
+        if (tareas != null || nodos == null || nodos.isBlank()) return;
+
+        local = normalizarNodo(nodoLocal == null || nodoLocal.isBlank() ? "localhost:" + Config.PUERTO_PROVEEDOR : nodoLocal);
+        if (local == null) {
+            Log.error("Nodo local inválido (" + nodoLocal + "), se atiende como nodo único");
+            return;
+        }
+        iniciales = leerNodos(nodos);
+        Set<String> miembros = new TreeSet<>(iniciales);
+        miembros.add(local);
+
+        tareas = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cluster");
+            t.setDaemon(true);
+            return t;
+        });
+        // El primer anillo no rebalancea: no hay nada en memoria todavía
+        cambiarAnillo(miembros, false);
+        Log.info("Nodo " + local + " con el anillo " + anillo.getNodos());
+
+        tareas.execute(Cluster::anunciar);
+        tareas.scheduleWithFixedDelay(Cluster::latido, Config.LATIDO_NODOS_MS, Config.LATIDO_NODOS_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(Cluster::despedirse, "cluster-salida"));
+    }
+
+    // Nodo dueño de la línea si no es este, o null si se atiende aquí
+    public static String duenioRemoto(String telefono) {
+        AnilloHash a = anillo;
+        if (a == null) return null;
+        String duenio = a.duenio(telefono);
+        return local.equals(duenio) ? null : duenio;
+    }
+
+    // Una trama marcada "reenviado" o que cambia la membresía solo se respeta si viene de otro nodo
+    static boolean esNodo(InetAddress direccion) {
+        return direccion != null && direccionesNodos.contains(direccion);
+    }
+
+    // Reenvía la trama tal cual al nodo dueño y devuelve su línea de respuesta, o null si no se pudo
+    static String reenviar(String nodo, String trama, String keepAlive) {
+        String t = trama.trim();
+        StringBuilder sb = new StringBuilder(t.length() + 40).append(t, 0, t.length() - 1);
+        sb.append(",\"reenviado\":\"1\"");
+        if (keepAlive == null) sb.append(",\"keep_alive\":true");
+        sb.append('}');
+
+        reenvios.increment();
+        try {
+            return cliente(nodo).enviar(sb.toString(), keepAlive == null || esVerdadero(keepAlive));
+        } catch (IOException e) {
+            reenviosFallidos.increment();
+            Log.aviso("No se pudo reenviar al nodo " + nodo + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Transacción 12. Unir y salir llegan siempre de un nodo (ProveedorServer rechaza los demás): el
+    // pedido directo se propaga a los otros nodos y el que llega reenviado solo se aplica
+    static String membresia(Solicitud.Membresia m, boolean reenviada) {
+        if (anillo == null) return "{\"status\":\"ERROR\",\"mensaje\":\"Nodo sin cluster\"}";
+
+        switch (m.accion()) {
+            case "unir":
+                unir(m.nodo());
+                break;
+            case "salir":
+                if (m.nodo().equals(local)) {
+                    return "{\"status\":\"ERROR\",\"mensaje\":\"Un nodo no puede sacarse a si mismo\"}";
+                }
+                sacar(m.nodo(), true);
+                break;
+            default:
+                break;
+        }
+        if (!reenviada && !m.accion().equals("listar")) {
+            tareas.execute(() -> propagar(m.accion(), m.nodo()));
+        }
+        return "{\"status\":\"OK\",\"nodos\":\"" + String.join(",", anillo.getNodos()) + "\"}";
+    }
+
+    public static List<String> getNodos() {
+        AnilloHash a = anillo;
+        return a != null ? a.getNodos() : List.of();
+    }
+
+    public static long getReenvios() {
+        return reenvios.sum();
+    }
+
+    public static long getReenviosFallidos() {
+        return reenviosFallidos.sum();
+    }
+
+    // "host:puerto" con el host en minúsculas, o null si no tiene esa forma
+    static String normalizarNodo(String nodo) {
+        if (nodo == null) return null;
+        nodo = nodo.trim().toLowerCase();
+        int dosPuntos = nodo.lastIndexOf(':');
+        if (dosPuntos <= 0 || dosPuntos == nodo.length() - 1) return null;
+        try {
+            int puerto = Integer.parseInt(nodo.substring(dosPuntos + 1));
+            return puerto > 0 && puerto < 65536 ? nodo : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static synchronized void unir(String nodo) {
+        caidos.remove(nodo);
+        fallos.remove(nodo);
+        if (anillo.contiene(nodo)) return;
+        Set<String> miembros = new TreeSet<>(anillo.getNodos());
+        miembros.add(nodo);
+        cambiarAnillo(miembros, true);
+        Log.info("Nodo " + nodo + " unido, anillo " + anillo.getNodos());
+    }
+
+    // Un nodo que salió a pedido no se sigue revisando; uno que dejó de responder sí, para volver
+    // a unirlo cuando responda
+    private static synchronized void sacar(String nodo, boolean aPedido) {
+        fallos.remove(nodo);
+        if (aPedido) {
+            caidos.remove(nodo);
+        } else {
+            caidos.add(nodo);
+        }
+        if (!anillo.contiene(nodo)) return;
+        Set<String> miembros = new TreeSet<>(anillo.getNodos());
+        miembros.remove(nodo);
+        cambiarAnillo(miembros, true);
+        ClienteNodo c = clientes.remove(nodo);
+        if (c != null) c.cerrar();
+        Log.aviso("Nodo " + nodo + (aPedido ? " salió" : " no responde") + ", anillo " + anillo.getNodos());
+    }
+
+    private static void cambiarAnillo(Set<String> miembros, boolean rebalancear) {
+        AnilloHash anterior = anillo;
+        AnilloHash nuevo = new AnilloHash(miembros, Config.PUNTOS_POR_NODO);
+        Set<String> conocidos = new TreeSet<>(miembros);
+        conocidos.addAll(caidos);
+        conocidos.addAll(iniciales);
+        direccionesNodos = resolver(conocidos);
+        anillo = nuevo;
+        if (rebalancear && anterior != null) {
+            tareas.execute(() -> rebalancear(anterior, nuevo));
+        }
+    }
+
+    private static void rebalancear(AnilloHash anterior, AnilloHash nuevo) {
+        Predicate<String> ajena = t -> !local.equals(nuevo.duenio(t));
+        int cuentas = MotorReservas.soltar(ajena);
+        CachePerfiles.invalidarSi(ajena);
+        int consumos = ConsumoPostpago.entregar(ajena);
+        Log.info("Rebalanceo: " + cuentas + " cuentas y " + consumos + " consumos postpago entregados a otros nodos");
+
+        // El nodo anterior guarda el consumo al enterarse del cambio; se le da un margen antes de leerlo.
+        // Si el anillo volvió a cambiar mientras tanto solo se cargan las líneas que siguen siendo de este nodo
+        Predicate<String> ganada = t -> !local.equals(anterior.duenio(t)) && local.equals(nuevo.duenio(t))
+            && local.equals(anillo.duenio(t));
+        tareas.schedule(() -> {
+            int recibidos = ConsumoPostpago.recibir(ganada);
+            if (recibidos > 0) Log.info("Rebalanceo: " + recibidos + " consumos postpago recibidos de otros nodos");
+        }, Config.ESPERA_REBALANCEO_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Al arrancar: se anuncia a cada nodo conocido y adopta los nodos que ellos conocen
+    private static void anunciar() {
+        for (String nodo : anillo.getNodos()) {
+            if (nodo.equals(local)) continue;
+            try {
+                String respuesta = cliente(nodo).enviar(trama("unir", local, false), true);
+                for (String otro : leerNodos(valor(respuesta, "nodos"))) {
+                    if (!otro.equals(local)) unir(otro);
+                }
+            } catch (IOException e) {
+                Log.aviso("Nodo " + nodo + " no disponible al arrancar: " + e.getMessage());
+                fallo(nodo);
+            }
+        }
+    }
+
+    private static void propagar(String accion, String nodo) {
+        for (String otro : anillo.getNodos()) {
+            if (otro.equals(local) || otro.equals(nodo)) continue;
+            try {
+                cliente(otro).enviar(trama(accion, nodo, true), true);
+            } catch (IOException e) {
+                Log.aviso("No se pudo avisar a " + otro + " del cambio de " + nodo + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Lista a cada nodo del anillo y a los caídos; los nodos que otro conoce y este no se unen
+    private static void latido() {
+        try {
+            Set<String> revisar = new TreeSet<>(anillo.getNodos());
+            revisar.addAll(caidos);
+            revisar.remove(local);
+            for (String nodo : revisar) {
+                try {
+                    String respuesta = cliente(nodo).enviar(trama("listar", null, false), true);
+                    fallos.remove(nodo);
+                    if (!anillo.contiene(nodo)) {
+                        // Volvió: se le vuelve a anunciar este nodo por si arrancó de nuevo sin conocerlo
+                        unir(nodo);
+                        cliente(nodo).enviar(trama("unir", local, true), true);
+                    }
+                    for (String otro : leerNodos(valor(respuesta, "nodos"))) {
+                        if (!otro.equals(local) && !anillo.contiene(otro) && !caidos.contains(otro)) unir(otro);
+                    }
+                } catch (IOException e) {
+                    fallo(nodo);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.error("Error en el latido de nodos: " + e.getMessage());
+        }
+    }
+
+    private static void fallo(String nodo) {
+        int n = fallos.merge(nodo, 1, Integer::sum);
+        if (n >= Config.FALLOS_SACAR_NODO && anillo.contiene(nodo)) {
+            sacar(nodo, false);
+        }
+    }
+
+    private static void despedirse() {
+        AnilloHash a = anillo;
+        if (a == null) return;
+        for (String nodo : a.getNodos()) {
+            if (nodo.equals(local)) continue;
+            try {
+                cliente(nodo).enviar(trama("salir", local, true), false);
+            } catch (IOException e) {
+                // se enterará por el latido
+            }
+        }
+    }
+
+    private static ClienteNodo cliente(String nodo) {
+        return clientes.computeIfAbsent(nodo, ClienteNodo::new);
+    }
+
+    private static String trama(String accion, String nodo, boolean reenviada) {
+        StringBuilder sb = new StringBuilder("{\"tipo_transaccion\":\"12\",\"accion\":\"").append(accion).append('"');
+        if (nodo != null) sb.append(",\"nodo\":\"").append(nodo).append('"');
+        if (reenviada) sb.append(",\"reenviado\":\"1\"");
+        return sb.append(",\"keep_alive\":true}").toString();
+    }
+
+    // Valor de texto de una clave en una respuesta de otro nodo (las arma membresia, sin escapes)
+    private static String valor(String json, String clave) {
+        String buscar = "\"" + clave + "\":\"";
+        int i = json.indexOf(buscar);
+        if (i < 0) return "";
+        int inicio = i + buscar.length();
+        int fin = json.indexOf('"', inicio);
+        return fin < 0 ? "" : json.substring(inicio, fin);
+    }
+
+    private static List<String> leerNodos(String texto) {
+        List<String> nodos = new ArrayList<>();
+        for (String parte : texto.split(",")) {
+            if (parte.isBlank()) continue;
+            String nodo = normalizarNodo(parte);
+            if (nodo != null) {
+                nodos.add(nodo);
+            } else {
+                Log.aviso("Nodo inválido, se ignora: " + parte);
+            }
+        }
+        return nodos;
+    }
+
+    private static Set<InetAddress> resolver(Set<String> nodos) {
+        Set<InetAddress> direcciones = new HashSet<>();
+        for (String nodo : nodos) {
+            String host = nodo.substring(0, nodo.lastIndexOf(':'));
+            try {
+                for (InetAddress d : InetAddress.getAllByName(host)) direcciones.add(d);
+            } catch (UnknownHostException e) {
+                Log.aviso("No se pudo resolver el nodo " + nodo + ": " + e.getMessage());
+            }
+        }
+        return Set.copyOf(direcciones);
+    }
+
+    private static boolean esVerdadero(String s) {
+        s = s.trim().toLowerCase();
+        return s.equals("1") || s.equals("true") || s.equals("si");
+    }
+}
@@ -1,14 +1,55 @@
 // ConexionSQLServer.java
 package proveedor;
+import java.math.BigDecimal;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntSupplier;
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 public class ConexionSQLServer implements AutoCloseable {
+    private static volatile PoolConexiones pool;
+
+    private static volatile Map<String, Integer> tiposTelefono = Map.of();
+    private static volatile long tiposTelefonoCargados;
+
+    private PoolConexiones poolOrigen;
+    private PoolConexiones.ConexionPool conexionPool;
     private Connection conexion;
+    private boolean segundoPlano;
+
+    // Pool compartido por todas las instancias; se crea al primer uso
+    public static PoolConexiones getPool() {
+        PoolConexiones p = pool;
+        if (p == null) {
+            synchronized (ConexionSQLServer.class) {
+                if (pool == null) {
+                    Config.exigirClaveBd();
+                    String usuario = Config.USUARIO_BD.isEmpty() ? null : Config.USUARIO_BD;
+                    pool = new PoolConexiones(Config.URL_BD, usuario, Config.CLAVE_BD,
+                        Config.TAMANO_POOL_BD, Config.TIMEOUT_ADQUIRIR_BD_MS);
+                }
+                p = pool;
+            }
+        }
+        return p;
+    }
+
+    // Permite apuntar a otra BD (por ejemplo una embebida para pruebas); cierra el pool anterior
+    public static synchronized void configurarPool(PoolConexiones nuevo) {
+        PoolConexiones anterior = pool;
+        pool = nuevo;
+        if (anterior != null) anterior.cerrar();
+    }
     
     public class AESCipher {
     // Debe ser EXACTAMENTE la misma clave que usás en C# o Python
@@ -26,7 +67,7 @@ public class ConexionSQLServer implements AutoCloseable {
             byte[] encrypted = cipher.doFinal(value.getBytes("UTF-8"));
             return Base64.getEncoder().encodeToString(encrypted); // lo guardás en SQL como texto
         } catch (Exception ex) {
-            ex.printStackTrace();
+            Log.error("Error al cifrar", ex);
         }
         return null;
     }
@@ -42,219 +83,288 @@ public class ConexionSQLServer implements AutoCloseable {
             byte[] original = cipher.doFinal(Base64.getDecoder().decode(encrypted));
             return new String(original, "UTF-8");
         } catch (Exception ex) {
-            ex.printStackTrace();
+            Log.error("Error al descifrar", ex);
         }
         return null;
     }
 }
 
+    // Para los motores en segundo plano: espera su cupo en ControlAdmision antes de tomar del pool
+    public boolean conectarSegundoPlano() {
+        if (!ControlAdmision.entrarSegundoPlano()) return false;
+        if (conectar()) {
+            segundoPlano = true;
+            return true;
+        }
+        ControlAdmision.salirSegundoPlano();
+        return false;
+    }
+
     public boolean conectar() {
         try {
-            String url = "jdbc:sqlserver://localhost:1433;"
-                       + "databaseName=COMPANIA_TELEFONICA;"
-                       + "user=sa;"
-                       + "password=mich22;"
-                       + "encrypt=false;"
-                       + "trustServerCertificate=true;";
-
-            Class.forName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
-            conexion = DriverManager.getConnection(url);
-            System.out.println("Conexión exitosa a SQL Server.");
+            poolOrigen = getPool();
+            conexionPool = poolOrigen.adquirir();
+            conexion = conexionPool.getConexion();
             return true;
         } catch (Exception e) {
-            System.err.println("Error al conectar con SQL Server: " + e.getMessage());
+            Log.error("Error al conectar con SQL Server: " + e.getMessage());
             return false;
         }
     }
 
-    public boolean ejecutarCalculoCobroPostpago(String fechaCalculo, String fechaMaxPago) {
-        String sql = "EXEC SP_COBROS_POSTPAGOS \n" +
-                     "    @FECHA_CALCULO = ?, \n" +
-                     "    @FECHA_M_PAGO = ?";
-        try (PreparedStatement stmt = conexion.prepareStatement(sql)) {
+    // Una partición del cálculo de cobros (MotorCobros). Sin rango se ejecuta SP_COBROS_POSTPAGOS
+    // completo; con rango, SP_COBROS_POSTPAGOS_RANGO, que debe cobrar solo las líneas con
+    // NUM_TELEFONO entre @NUM_DESDE y @NUM_HASTA (inclusive) y ser idempotente, porque una partición
+    // interrumpida se vuelve a ejecutar entera
+    public void ejecutarCalculoCobroPostpago(String fechaCalculo, String fechaMaxPago, String desde, String hasta) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            String sql = desde == null
+                ? "EXEC SP_COBROS_POSTPAGOS @FECHA_CALCULO = ?, @FECHA_M_PAGO = ?"
+                : "EXEC SP_COBROS_POSTPAGOS_RANGO @FECHA_CALCULO = ?, @FECHA_M_PAGO = ?, @NUM_DESDE = ?, @NUM_HASTA = ?";
+            // La sentencia cacheada solo se usa aquí, así que el timeout no afecta a otras consultas
+            PreparedStatement stmt = preparar(sql);
+            stmt.setQueryTimeout(Config.TIMEOUT_PARTICION_COBRO_S);
             stmt.setString(1, fechaCalculo);
             stmt.setString(2, fechaMaxPago);
+            if (desde != null) {
+                stmt.setString(3, desde);
+                stmt.setString(4, hasta);
+            }
             stmt.execute();
-            return true;
-        } catch (SQLException e) {
-            System.err.println("Error al ejecutar SP_COBROS_POSTPAGOS: " + e.getMessage());
-            return false;
+        } finally {
+            Metricas.bd("ejecutarCalculoCobroPostpago", inicio);
         }
     }
 
-    
+    // Reparte las líneas postpago en hasta <particiones> rangos contiguos de NUM_TELEFONO con
+    // aproximadamente la misma cantidad de líneas cada uno
+    public List<String[]> rangosLineasPostpago(int particiones) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            List<String[]> rangos = new ArrayList<>();
+            int idTipo = obtenerIdTipoTelefono("postpago");
+            if (idTipo == -1) return rangos;
+
+            PreparedStatement stmt = preparar(
+                "SELECT MIN(NUM_TELEFONO), MAX(NUM_TELEFONO) FROM (" +
+                "  SELECT NUM_TELEFONO, NTILE(?) OVER (ORDER BY NUM_TELEFONO) AS GRUPO" +
+                "  FROM TELEFONOS WHERE TIPO_TELEFONO = ?" +
+                ") T GROUP BY GRUPO ORDER BY GRUPO"
+            );
+            stmt.setInt(1, particiones);
+            stmt.setInt(2, idTipo);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rangos.add(new String[] { rs.getString(1), rs.getString(2) });
+                }
+            }
+            return rangos;
+        } finally {
+            Metricas.bd("rangosLineasPostpago", inicio);
+        }
+    }
+
+    // Cliente por cédula (sin guiones, espacios ni puntos) o por ID_CLIENTE, dentro de los lotes de
+    // activación y desactivación; si ya viene resuelto (CacheClientes) no se busca. Ambas ramas usan
+    // índice: CEDULA_NORMALIZADA (sql/02_clientes_cedula_normalizada.sql) y la clave de CLIENTES.
+    // Deja -4 como resultado si no existe. Los lotes devuelven (código, ID_CLIENTE)
+    private static final String LOTE_BUSCAR_CLIENTE =
+        "DECLARE @ced VARCHAR(50) = ?, @cliente INT = ?; " +
+        "IF @cliente IS NULL " +
+        "    SELECT TOP 1 @cliente = ID_CLIENTE FROM ( " +
+        "        SELECT ID_CLIENTE, 0 AS ORDEN FROM dbo.CLIENTES WHERE CEDULA_NORMALIZADA = @ced " +
+        "        UNION ALL " +
+        "        SELECT ID_CLIENTE, 1 FROM dbo.CLIENTES " +
+        "        WHERE ID_CLIENTE = TRY_CAST(@ced AS INT) AND CAST(ID_CLIENTE AS VARCHAR(20)) = @ced " +
+        "    ) c ORDER BY ORDEN; " +
+        "IF @cliente IS NULL BEGIN SELECT -4, NULL; RETURN; END; ";
+
+    // Un solo viaje a la BD: la actualización lleva la condición de estado (sin carrera entre la
+    // verificación y la escritura) y, si no aplica, se consulta la línea solo para el código de motivo.
+    // Códigos: 1 ok, -2 ya activa, -3 tipo inválido, -4 cliente no encontrado, -5 línea no encontrada,
+    // -6 no se actualizó, -7 inactiva, -8 estado no válido para activar, -99 error SQL
+    private static final String LOTE_ACTIVAR_LINEA =
+        "SET NOCOUNT ON; " +
+        LOTE_BUSCAR_CLIENTE +
+        "DECLARE @num VARCHAR(100) = ?, @tel VARCHAR(100) = ?, @chip VARCHAR(100) = ?; " +
+        "UPDATE dbo.TELEFONOS SET ID_ESTADO = 1, SALDO = ?, TIPO_TELEFONO = ?, ID_CLIENTE = @cliente " +
+        "WHERE NUM_TELEFONO = @num AND IDENTIFICADOR_TELEFONO = @tel AND IDENTIFICADOR_TARJETA = @chip AND ID_ESTADO = 3; " +
+        "IF @@ROWCOUNT > 0 BEGIN SELECT 1, @cliente; RETURN; END; " +
+        "DECLARE @existe BIT = 0, @estado INT; " +
+        "SELECT @existe = 1, @estado = ID_ESTADO FROM dbo.TELEFONOS " +
+        "WHERE NUM_TELEFONO = @num AND IDENTIFICADOR_TELEFONO = @tel AND IDENTIFICADOR_TARJETA = @chip; " +
+        "SELECT CASE WHEN @existe = 0 THEN -5 WHEN @estado = 1 THEN -2 WHEN @estado = 2 THEN -7 " +
+        "            WHEN @estado = 3 THEN -6 ELSE -8 END, @cliente;";
+
+    // Códigos: 1 ok, -2 el cliente no es el dueño, -4 cliente no encontrado, -5 línea no encontrada,
+    // -6 no se actualizó, -7 la línea no está activa, -99 error SQL
+    private static final String LOTE_DESACTIVAR_LINEA =
+        "SET NOCOUNT ON; " +
+        LOTE_BUSCAR_CLIENTE +
+        "DECLARE @num VARCHAR(100) = ?, @tel VARCHAR(100) = ?, @chip VARCHAR(100) = ?; " +
+        "UPDATE dbo.TELEFONOS SET ID_ESTADO = 2 " +
+        "WHERE NUM_TELEFONO = @num AND IDENTIFICADOR_TELEFONO = @tel AND IDENTIFICADOR_TARJETA = @chip " +
+        "  AND ID_CLIENTE = @cliente AND ID_ESTADO = 1; " +
+        "IF @@ROWCOUNT > 0 BEGIN SELECT 1, @cliente; RETURN; END; " +
+        "DECLARE @existe BIT = 0, @duenio INT, @estado INT; " +
+        "SELECT @existe = 1, @duenio = ID_CLIENTE, @estado = ID_ESTADO FROM dbo.TELEFONOS " +
+        "WHERE NUM_TELEFONO = @num AND IDENTIFICADOR_TELEFONO = @tel AND IDENTIFICADOR_TARJETA = @chip; " +
+        "SELECT CASE WHEN @existe = 0 THEN -5 WHEN @duenio IS NULL OR @duenio <> @cliente THEN -2 " +
+        "            WHEN @estado IS NULL OR @estado <> 1 THEN -7 ELSE -6 END, @cliente;";
+
     public int activarLinea(String numero, String idTel, String idChip, String tipo, String cedula) {
+        long inicio = System.nanoTime();
         try {
             int idTipo = obtenerIdTipoTelefono(tipo);
             if (idTipo == -1) {
-                System.err.println("Tipo de teléfono inválido: " + tipo);
+                Log.aviso("Tipo de teléfono inválido: " + tipo);
                 return -3;
             }
-
-            int idCliente = obtenerIdClientePorCedula(cedula);
-            if (idCliente == -1) {
-                System.err.println("Cliente no encontrado con cédula: " + cedula);
+            if (cedula == null || cedula.trim().isEmpty()) {
+                Log.aviso("Cliente no encontrado con cédula: " + cedula);
                 return -4;
             }
 
-            PreparedStatement stmt = conexion.prepareStatement(
-                "SELECT ID_ESTADO FROM TELEFONOS WHERE NUM_TELEFONO = ? AND IDENTIFICADOR_TELEFONO = ? AND IDENTIFICADOR_TARJETA = ?"
-            );
-            stmt.setString(1, numero);
-            stmt.setString(2, idTel);
-            stmt.setString(3, idChip);
-
-            ResultSet rs = stmt.executeQuery();
-            if (!rs.next()) {
-                System.err.println("No se encontró línea con ese teléfono y tarjetas.");
-                return -5;
-            }
-
-            int estado = rs.getInt("ID_ESTADO");
-
-            if (estado == 1) { // Activo
-                System.err.println("El teléfono ya está activo.");
-                return -2;
-            }
-            if (estado == 2) { // Inactivo
-                System.err.println("El teléfono está inactivo.");
-                return -7;
-            }
-            if (estado != 3) { // No está disponible
-                System.err.println("El estado de la línea no es válido para activar: " + estado);
-                return -8;
-            }
-
-            // Si está en estado 3 (disponible), entonces sí se puede activar
-
-
             double saldoInicial = tipo.equalsIgnoreCase("prepago") ? 1000.0 : 0.0;
 
-            PreparedStatement upd = conexion.prepareStatement(
-                "UPDATE TELEFONOS SET ID_ESTADO = 1, SALDO = ?, TIPO_TELEFONO = ?, ID_CLIENTE = ? WHERE NUM_TELEFONO = ?"
-            );
-            upd.setDouble(1, saldoInicial);
-            upd.setInt(2, idTipo);
-            upd.setInt(3, idCliente);
-            upd.setString(4, numero);
-
-
-            return upd.executeUpdate() > 0 ? 1 : -6;
+            PreparedStatement stmt = preparar(LOTE_ACTIVAR_LINEA);
+            String limpia = parametrosCliente(stmt, cedula);
+            stmt.setString(3, numero);
+            stmt.setString(4, idTel);
+            stmt.setString(5, idChip);
+            stmt.setDouble(6, saldoInicial);
+            stmt.setInt(7, idTipo);
 
+            int resultado = ejecutarLoteLinea(stmt, limpia);
+            if (resultado != 1) {
+                Log.aviso("No se activó la línea " + numero + " (código " + resultado + ")");
+            }
+            return resultado;
         } catch (SQLException e) {
-            System.err.println("❌ Error activando línea:");
-            e.printStackTrace(); // muestra stack completo
+            Log.error("Error activando línea " + numero, e);
             return -99;
+        } finally {
+            Metricas.bd("activarLinea", inicio);
         }
     }
-    
-  public int desactivarLinea(String numero, String idTel, String idChip, String cedula) {
-    try {
-        int idCliente = obtenerIdClientePorCedula(cedula);
-        if (idCliente == -1) return -4;
-
-        // Buscar la línea por los 3 IDs
-        String sel = "SELECT ID_CLIENTE, ID_ESTADO " +
-                     "FROM dbo.TELEFONOS " +
-                     "WHERE NUM_TELEFONO=? AND IDENTIFICADOR_TELEFONO=? AND IDENTIFICADOR_TARJETA=?";
-        Integer actualCliente = null, estadoActual = null;
-        try (PreparedStatement s = conexion.prepareStatement(sel)) {
-            s.setString(1, numero.trim());
-            s.setString(2, idTel.trim());
-            s.setString(3, idChip.trim());
-            try (ResultSet rs = s.executeQuery()) {
-                if (!rs.next()) return -5; // no encontrada
-                actualCliente = rs.getInt("ID_CLIENTE");
-                estadoActual  = rs.getInt("ID_ESTADO");
-            }
-        }
-
-        if (!actualCliente.equals(idCliente)) return -2;   // dueño no coincide
-        if (estadoActual != 1)           return -7;        // no está activa
-        String sql = "UPDATE dbo.TELEFONOS " +
-                     "SET ID_ESTADO = 2 " +
-                     "WHERE NUM_TELEFONO=? AND IDENTIFICADOR_TELEFONO=? AND IDENTIFICADOR_TARJETA=? AND ID_CLIENTE=?";
-        try (PreparedStatement upd = conexion.prepareStatement(sql)) {
-            upd.setString(1, numero.trim());
-            upd.setString(2, idTel.trim());
-            upd.setString(3, idChip.trim());
-            upd.setInt(4, idCliente);
-            int rows = upd.executeUpdate();
-            return rows > 0 ? 1 : -6;
-        }
-
-    } catch (SQLException e) {
-        System.err.println("❌ Error desactivando línea:");
-        e.printStackTrace();
-        return -99;
-    }
-}
-
-   private int obtenerIdClientePorCedula(String cedulaOId) {
-    if (cedulaOId == null || cedulaOId.trim().isEmpty()) return -1;
 
-    // normaliza: quita todo lo que no sea dígito
-    String limpio = cedulaOId.replaceAll("[^0-9]", "");
+    public int desactivarLinea(String numero, String idTel, String idChip, String cedula) {
+        long inicio = System.nanoTime();
+        try {
+            if (cedula == null || cedula.trim().isEmpty()) return -4;
 
-    String sql =
-        "SELECT TOP 1 ID_CLIENTE " +
-        "FROM dbo.CLIENTES " +
-        "WHERE REPLACE(REPLACE(REPLACE(CEDULA,'-',''),' ',''),'.','') = ? " +  
-        "   OR CAST(ID_CLIENTE AS VARCHAR(20)) = ?";                           
+            PreparedStatement stmt = preparar(LOTE_DESACTIVAR_LINEA);
+            String limpia = parametrosCliente(stmt, cedula);
+            stmt.setString(3, numero.trim());
+            stmt.setString(4, idTel.trim());
+            stmt.setString(5, idChip.trim());
 
-    try (PreparedStatement stmt = conexion.prepareStatement(sql)) {
-        stmt.setString(1, limpio);
-        stmt.setString(2, limpio);
-        try (ResultSet rs = stmt.executeQuery()) {
-            return rs.next() ? rs.getInt(1) : -1;
+            return ejecutarLoteLinea(stmt, limpia);
+        } catch (SQLException e) {
+            Log.error("Error desactivando línea " + numero, e);
+            return -99;
+        } finally {
+            Metricas.bd("desactivarLinea", inicio);
         }
-    } catch (SQLException e) {
-        System.err.println("Error al obtener ID_CLIENTE (entrada=" + cedulaOId + "): " + e.getMessage());
-        return -1;
     }
-}
 
     public double obtenerSaldo(String numero) {
-        try (PreparedStatement stmt = conexion.prepareStatement(
-                "SELECT SALDO FROM dbo.TELEFONOS WHERE NUM_TELEFONO = ?")) {
+        try {
+            return consultarSaldo(numero);
+        } catch (SQLException e) {
+            Log.error("Error al obtener saldo: " + e.getMessage());
+            return 0.0;
+        }
+    }
+
+    // Como obtenerSaldo, pero un error de la BD no se confunde con saldo 0
+    public double consultarSaldo(String numero) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            PreparedStatement stmt = preparar("SELECT SALDO FROM dbo.TELEFONOS WHERE NUM_TELEFONO = ?");
             stmt.setString(1, numero);
             try (ResultSet rs = stmt.executeQuery()) {
                 return rs.next() ? rs.getDouble("SALDO") : 0.0;
             }
-        } catch (SQLException e) {
-            System.err.println("Error al obtener saldo: " + e.getMessage());
-            return 0.0;
+        } finally {
+            Metricas.bd("obtenerSaldo", inicio);
         }
     }
     
     public boolean telefonoExiste(String telefonoo) {
-    try (PreparedStatement stmt = conexion.prepareStatement(
-            "SELECT 1 FROM TELEFONOS WHERE NUM_TELEFONO = ?")) {
-        stmt.setString(1, telefonoo);
-        try (ResultSet rs = stmt.executeQuery()) {
-            return rs.next(); // true si existe, false si no
+        long inicio = System.nanoTime();
+        try {
+            PreparedStatement stmt = preparar("SELECT 1 FROM TELEFONOS WHERE NUM_TELEFONO = ?");
+            stmt.setString(1, telefonoo);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next(); // true si existe, false si no
+            }
+        } catch (SQLException e) {
+            Log.error("Error al verificar existencia del teléfono: " + e.getMessage());
+            return true; // Por seguridad, asumimos que existe si hay error
+        } finally {
+            Metricas.bd("telefonoExiste", inicio);
         }
-    } catch (SQLException e) {
-        System.err.println("Error al verificar existencia del teléfono: " + e.getMessage());
-        return true; // Por seguridad, asumimos que existe si hay error
     }
+
+    // Parámetros 1 y 2 de LOTE_BUSCAR_CLIENTE: cédula normalizada e ID_CLIENTE si ya está en caché
+    private static String parametrosCliente(PreparedStatement stmt, String cedula) throws SQLException {
+        String limpia = cedula.replaceAll("[^0-9]", "");
+        Integer idCliente = CacheClientes.obtener(limpia);
+        stmt.setString(1, limpia);
+        if (idCliente != null) {
+            stmt.setInt(2, idCliente);
+        } else {
+            stmt.setNull(2, Types.INTEGER);
+        }
+        return limpia;
     }
 
-    
+    private static int ejecutarLoteLinea(PreparedStatement stmt, String cedulaLimpia) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) return -6;
+            int resultado = rs.getInt(1);
+            int idCliente = rs.getInt(2);
+            if (!rs.wasNull()) {
+                CacheClientes.guardar(cedulaLimpia, idCliente);
+            }
+            return resultado;
+        }
+    }
+
+    // TIPO_TELEFONO casi nunca cambia: se guarda completa (descripción en minúsculas -> id) y solo
+    // se vuelve a leer si piden un tipo desconocido, como mucho una vez cada REFRESCO_TARIFAS_S
     public int obtenerIdTipoTelefono(String tipo) {
-        try (PreparedStatement stmt = conexion.prepareStatement(
-                "SELECT ID_T_TELEFONO FROM TIPO_TELEFONO WHERE LOWER(DESCRIPCION) = ?")) {
-            stmt.setString(1, tipo.toLowerCase());
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next() ? rs.getInt("ID_T_TELEFONO") : -1;
+        String clave = tipo.toLowerCase();
+        Map<String, Integer> tipos = tiposTelefono;
+        Integer id = tipos.get(clave);
+        if (id != null) return id;
+
+        long ahora = System.currentTimeMillis();
+        if (ahora - tiposTelefonoCargados < Config.REFRESCO_TARIFAS_S * 1000L) return -1;
+
+        try {
+            Map<String, Integer> nuevos = new HashMap<>();
+            try (ResultSet rs = preparar("SELECT ID_T_TELEFONO, DESCRIPCION FROM TIPO_TELEFONO").executeQuery()) {
+                while (rs.next()) {
+                    String descripcion = rs.getString("DESCRIPCION");
+                    if (descripcion != null) {
+                        nuevos.put(descripcion.toLowerCase(), rs.getInt("ID_T_TELEFONO"));
+                    }
+                }
             }
+            tiposTelefono = Map.copyOf(nuevos);
+            tiposTelefonoCargados = ahora;
+            return nuevos.getOrDefault(clave, -1);
         } catch (SQLException e) {
-            System.err.println("Error al obtener ID_T_TELEFONO: " + e.getMessage());
+            Log.error("Error al obtener ID_T_TELEFONO: " + e.getMessage());
             return -1;
         }
     }
     
     public boolean insertarNuevaLineaProveedor(String numero, String identificadorTel, String identificadorTarjeta, String tipo, String estado) {
+        long inicio = System.nanoTime();
         try {
             int idTipoTelefono = obtenerIdTipoTelefono(tipo);
             if (idTipoTelefono == -1) return false;
@@ -265,7 +375,7 @@ public class ConexionSQLServer implements AutoCloseable {
             // Convertir estado a booleano (1 = disponible, 0 = no disponible)
             boolean estadoDisponible = estado.equalsIgnoreCase("disponible") || estado.equals("3");
 
-            PreparedStatement stmt = conexion.prepareStatement(
+            PreparedStatement stmt = preparar(
                 "INSERT INTO TELEFONOS (NUM_TELEFONO, IDENTIFICADOR_TELEFONO, IDENTIFICADOR_TARJETA, ID_CODIGO, ID_CLIENTE, TIPO_TELEFONO, SALDO, ID_ESTADO) " +
                 "VALUES (?, ?, ?, ?, NULL, ?, ?, 3)"
             );
@@ -279,37 +389,132 @@ public class ConexionSQLServer implements AutoCloseable {
             return stmt.executeUpdate() > 0;
 
         } catch (SQLException e) {
-            System.err.println("Error al insertar línea proveedor: " + e.getMessage());
+            Log.error("Error al insertar línea proveedor: " + e.getMessage());
             return false;
+        } finally {
+            Metricas.bd("insertarNuevaLineaProveedor", inicio);
+        }
+    }
+
+    // Todos los números de TELEFONOS, para validar un alta masiva sin consultar fila por fila
+    public Set<String> cargarNumerosTelefono() throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            Set<String> numeros = new HashSet<>();
+            PreparedStatement stmt = preparar("SELECT NUM_TELEFONO FROM TELEFONOS");
+            stmt.setFetchSize(10000);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String numero = rs.getString(1);
+                    if (numero != null) numeros.add(numero.trim());
+                }
+            }
+            return numeros;
+        } finally {
+            Metricas.bd("cargarNumerosTelefono", inicio);
+        }
+    }
+
+    // Inserta un lote de líneas disponibles (estado 3) en una sola transacción con JDBC batch
+    public void insertarLineasProveedor(List<AltaMasivaLineas.Linea> lote) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            PreparedStatement stmt = preparar(
+                "INSERT INTO TELEFONOS (NUM_TELEFONO, IDENTIFICADOR_TELEFONO, IDENTIFICADOR_TARJETA, ID_CODIGO, ID_CLIENTE, TIPO_TELEFONO, SALDO, ID_ESTADO) " +
+                "VALUES (?, ?, ?, ?, NULL, ?, ?, 3)"
+            );
+            enTransaccion(() -> {
+                // La sentencia es de la caché: un lote fallido anterior pudo dejar filas agregadas
+                stmt.clearBatch();
+                for (AltaMasivaLineas.Linea l : lote) {
+                    stmt.setString(1, l.telefono());
+                    stmt.setString(2, l.identificadorTel());
+                    stmt.setString(3, l.identificadorTarjeta());
+                    stmt.setInt(4, 1); // Código de país por defecto, igual que la transacción 3
+                    stmt.setInt(5, l.idTipo());
+                    stmt.setDouble(6, l.saldoInicial());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            });
+        } finally {
+            Metricas.bd("insertarLineasProveedor", inicio);
+        }
+    }
+
+    // Tipo de servicio, saldo, estado y dueño de la línea en una sola consulta
+    public PerfilSuscriptor obtenerPerfilSuscriptor(String numero) {
+        long inicio = System.nanoTime();
+        try {
+            Objects.requireNonNull(numero, "El número de teléfono no puede ser nulo");
+
+            PreparedStatement stmt = preparar(
+                "SELECT TT.DESCRIPCION, T.SALDO, T.ID_ESTADO, T.ID_CLIENTE " +
+                "FROM dbo.TELEFONOS T " +
+                "LEFT JOIN dbo.TIPO_TELEFONO TT ON T.TIPO_TELEFONO = TT.ID_T_TELEFONO " +
+                "WHERE T.NUM_TELEFONO = ?");
+
+            stmt.setString(1, numero);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) return PerfilSuscriptor.NO_ENCONTRADO;
+
+                String descripcion = rs.getString("DESCRIPCION");
+                double saldo = rs.getDouble("SALDO");
+                int estado = rs.getInt("ID_ESTADO");
+                int idCliente = rs.getInt("ID_CLIENTE");
+                Integer dueno = rs.wasNull() ? null : idCliente;
+
+                return new PerfilSuscriptor(
+                    descripcion != null ? descripcion.toLowerCase() : "no_encontrado",
+                    saldo, estado, dueno);
+            }
+        } catch (SQLException e) {
+            Log.error("Error al obtener perfil del suscriptor: " + e.getMessage());
+            return PerfilSuscriptor.ERROR;
+        } finally {
+            Metricas.bd("obtenerPerfilSuscriptor", inicio);
         }
     }
 
     public String obtenerTipoServicio(String numero) {
-        Objects.requireNonNull(numero, "El número de teléfono no puede ser nulo");
+        long inicio = System.nanoTime();
+        try {
+            Objects.requireNonNull(numero, "El número de teléfono no puede ser nulo");
 
-        try (PreparedStatement stmt = conexion.prepareStatement(
+            PreparedStatement stmt = preparar(
                 "SELECT TT.DESCRIPCION " +
                 "FROM dbo.TELEFONOS T " +
                 "JOIN dbo.TIPO_TELEFONO TT ON T.TIPO_TELEFONO = TT.ID_T_TELEFONO " +
-                "WHERE T.NUM_TELEFONO = ?")) {
+                "WHERE T.NUM_TELEFONO = ?");
 
             stmt.setString(1, numero);
             try (ResultSet rs = stmt.executeQuery()) {
                 return rs.next() ? rs.getString("DESCRIPCION").toLowerCase() : "no_encontrado";
             }
         } catch (SQLException e) {
-            System.err.println("Error al obtener tipo de servicio: " + e.getMessage());
+            Log.error("Error al obtener tipo de servicio: " + e.getMessage());
             return "error";
+        } finally {
+            Metricas.bd("obtenerTipoServicio", inicio);
         }
     }
 
     public boolean registrarLlamadaYTransaccion(String numeroOrigen, String numeroDestino,
                                                 String fecha, String hora, double costo,
                                                 String duracion, int tipoTransaccion) {
+        String tipoServicio = tipoTransaccion == 5 ? obtenerTipoServicio(numeroOrigen) : null;
+        return registrarLlamadaYTransaccion(numeroOrigen, numeroDestino, fecha, hora, costo, duracion, tipoTransaccion, tipoServicio);
+    }
+
+    // Variante para cuando el tipo de servicio ya se conoce (perfil del suscriptor) y no hace falta releerlo
+    public boolean registrarLlamadaYTransaccion(String numeroOrigen, String numeroDestino,
+                                                String fecha, String hora, double costo,
+                                                String duracion, int tipoTransaccion, String tipoServicio) {
+        long inicio = System.nanoTime();
         try {
-            PreparedStatement psLlamada = conexion.prepareStatement(
+            PreparedStatement psLlamada = conexionPool.prepararConClaves(
                 "INSERT INTO LLAMADAS (NUMTELEFONO_ORIGEN, NUMTELEFONO_DESTINO, COSTO, DURACION) " +
-                "VALUES (?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+                "VALUES (?, ?, ?, ?)");
             psLlamada.setString(1, numeroOrigen);
             psLlamada.setString(2, numeroDestino);
             psLlamada.setDouble(3, costo);
@@ -321,15 +526,15 @@ public class ConexionSQLServer implements AutoCloseable {
                 if (rs.next()) {
                     idLlamada = rs.getInt(1);
                 } else {
-                    System.err.println("No se pudo obtener el ID de la llamada.");
+                    Log.error("No se pudo obtener el ID de la llamada.");
                     return false;
                 }
             }
 
             if (!registrarTransaccion(tipoTransaccion, idLlamada)) return false;
 
-            if (tipoTransaccion == 5 && "prepago".equals(obtenerTipoServicio(numeroOrigen))) {
-                PreparedStatement psRebajo = conexion.prepareStatement(
+            if (tipoTransaccion == 5 && "prepago".equals(tipoServicio)) {
+                PreparedStatement psRebajo = preparar(
                     "UPDATE TELEFONOS SET SALDO = SALDO - ? WHERE NUM_TELEFONO = ?");
                 psRebajo.setDouble(1, costo);
                 psRebajo.setString(2, numeroOrigen);
@@ -338,78 +543,454 @@ public class ConexionSQLServer implements AutoCloseable {
 
             return true;
         } catch (SQLException e) {
-            System.err.println("Error al registrar llamada y transacción: " + e.getMessage());
+            Log.error("Error al registrar llamada y transacción: " + e.getMessage());
             return false;
+        } finally {
+            Metricas.bd("registrarLlamadaYTransaccion", inicio);
+        }
+    }
+
+    // Guarda un lote de CDR de fin de llamada en una sola transacción: LLAMADAS y TRANSACCIONES (tipo 5)
+    // en un solo viaje, y los rebajos de saldo prepago (sumados por línea) con un batch JDBC. Con
+    // origenWal deja además en CDR_APLICADOS la secuencia del último registro del lote
+    public void registrarLoteCDR(List<IngestaCDR.RegistroCDR> lote, String origenWal) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            StringBuilder sql = new StringBuilder(
+                "SET NOCOUNT ON; " +
+                "DECLARE @ids TABLE (ID_LLAMADA INT); " +
+                "INSERT INTO LLAMADAS (NUMTELEFONO_ORIGEN, NUMTELEFONO_DESTINO, COSTO, DURACION) " +
+                "OUTPUT INSERTED.ID_LLAMADA INTO @ids VALUES ");
+            for (int i = 0; i < lote.size(); i++) {
+                sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+            }
+            sql.append("; INSERT INTO TRANSACCIONES (ID_T_TRANS, ID_LLAMADA) SELECT 5, ID_LLAMADA FROM @ids;");
+
+            // Orden fijo de actualización para no provocar interbloqueos entre lotes
+            Map<String, Double> rebajos = new TreeMap<>();
+            for (IngestaCDR.RegistroCDR cdr : lote) {
+                if ("prepago".equals(cdr.tipoServicio())) {
+                    rebajos.merge(cdr.origen(), cdr.costo(), Double::sum);
+                }
+            }
+
+            enTransaccion(() -> {
+                // El texto depende del tamaño del lote, así que no pasa por la caché de sentencias
+                try (PreparedStatement ps = conexion.prepareStatement(sql.toString())) {
+                    int p = 1;
+                    for (IngestaCDR.RegistroCDR cdr : lote) {
+                        ps.setString(p++, cdr.origen());
+                        ps.setString(p++, cdr.destino());
+                        ps.setDouble(p++, cdr.costo());
+                        ps.setString(p++, cdr.duracion());
+                    }
+                    ps.execute();
+                }
+
+                if (!rebajos.isEmpty()) {
+                    PreparedStatement psRebajo = preparar("UPDATE TELEFONOS SET SALDO = SALDO - ? WHERE NUM_TELEFONO = ?");
+                    for (Map.Entry<String, Double> r : rebajos.entrySet()) {
+                        psRebajo.setDouble(1, r.getValue());
+                        psRebajo.setString(2, r.getKey());
+                        psRebajo.addBatch();
+                    }
+                    psRebajo.executeBatch();
+                }
+
+                if (origenWal != null) {
+                    PreparedStatement psSecuencia = preparar(
+                        "UPDATE dbo.CDR_APLICADOS SET ULTIMA_SECUENCIA = ?, ACTUALIZADO = SYSUTCDATETIME() WHERE ORIGEN = ?; " +
+                        "IF @@ROWCOUNT = 0 INSERT INTO dbo.CDR_APLICADOS (ORIGEN, ULTIMA_SECUENCIA) VALUES (?, ?)");
+                    long secuencia = lote.get(lote.size() - 1).secuencia();
+                    psSecuencia.setLong(1, secuencia);
+                    psSecuencia.setString(2, origenWal);
+                    psSecuencia.setString(3, origenWal);
+                    psSecuencia.setLong(4, secuencia);
+                    psSecuencia.execute();
+                }
+            });
+        } finally {
+            Metricas.bd("registrarLoteCDR", inicio);
+        }
+    }
+
+    public boolean existeCdrAplicados() {
+        try {
+            preparar("SELECT TOP 0 ORIGEN FROM dbo.CDR_APLICADOS").executeQuery().close();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Última secuencia de ese WAL guardada en la BD, 0 si todavía no hay
+    public long ultimaSecuenciaCDR(String origenWal) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            PreparedStatement ps = preparar("SELECT ULTIMA_SECUENCIA FROM dbo.CDR_APLICADOS WHERE ORIGEN = ?");
+            ps.setString(1, origenWal);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } finally {
+            Metricas.bd("ultimaSecuenciaCDR", inicio);
         }
     }
 
     public boolean registrarTransaccion(int tipoTransaccion, int idLlamada) {
-        try (PreparedStatement ps = conexion.prepareStatement(
-                "INSERT INTO TRANSACCIONES (ID_T_TRANS, ID_LLAMADA) VALUES (?, ?)")) {
+        long inicio = System.nanoTime();
+        try {
+            PreparedStatement ps = preparar("INSERT INTO TRANSACCIONES (ID_T_TRANS, ID_LLAMADA) VALUES (?, ?)");
             ps.setInt(1, tipoTransaccion);
             ps.setInt(2, idLlamada);
             return ps.executeUpdate() > 0;
         } catch (SQLException e) {
-            System.err.println("Error al registrar transacción: " + e.getMessage());
+            Log.error("Error al registrar transacción: " + e.getMessage());
             return false;
+        } finally {
+            Metricas.bd("registrarTransaccion", inicio);
         }
     }
 
     public double obtenerTarifaLocal(int tipoLlamada) {
-        try (PreparedStatement stmt = conexion.prepareStatement(
-                "SELECT COSTOS FROM TIPO_LLAMADA WHERE ID_T_LLAMADA = ?")) {
+        long inicio = System.nanoTime();
+        try {
+            PreparedStatement stmt = preparar("SELECT COSTOS FROM TIPO_LLAMADA WHERE ID_T_LLAMADA = ?");
             stmt.setInt(1, tipoLlamada);
             try (ResultSet rs = stmt.executeQuery()) {
                 return rs.next() ? rs.getDouble("COSTOS") : 9999;
             }
         } catch (SQLException e) {
-            System.err.println("Error al obtener tarifa local: " + e.getMessage());
+            Log.error("Error al obtener tarifa local: " + e.getMessage());
             return 9999;
+        } finally {
+            Metricas.bd("obtenerTarifaLocal", inicio);
         }
     }
 
     public String obtenerGrupoInternacional(String numeroDestino) {
+        long inicio = System.nanoTime();
         try {
             for (int i = 4; i >= 1; i--) {
                 if (numeroDestino.length() >= i) {
                     String prefijo = numeroDestino.substring(0, i);
-                    try (PreparedStatement stmt = conexion.prepareStatement(
-                            "SELECT GRUPO FROM PREFIJOS_INTERNACIONALES WHERE PREFIJO = ?")) {
-                        stmt.setString(1, prefijo);
-                        try (ResultSet rs = stmt.executeQuery()) {
-                            if (rs.next()) return rs.getString("GRUPO");
-                        }
+                    PreparedStatement stmt = preparar("SELECT GRUPO FROM PREFIJOS_INTERNACIONALES WHERE PREFIJO = ?");
+                    stmt.setString(1, prefijo);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) return rs.getString("GRUPO");
                     }
                 }
             }
+            return null;
         } catch (SQLException e) {
-            System.err.println("Error al obtener grupo internacional: " + e.getMessage());
+            Log.error("Error al obtener grupo internacional: " + e.getMessage());
+            return null;
+        } finally {
+            Metricas.bd("obtenerGrupoInternacional", inicio);
         }
-        return null;
     }
 
     public double obtenerTarifaInternacional(String grupo) {
-        if (grupo == null) return 9999;
-        int tipoLlamada;
+        int tipoLlamada = tipoLlamadaPorGrupo(grupo);
+        if (tipoLlamada == -1) return 9999;
+        return obtenerTarifaLocal(tipoLlamada);
+    }
+
+    // Tipo de llamada (TIPO_LLAMADA) que corresponde a cada grupo internacional, -1 si no aplica
+    static int tipoLlamadaPorGrupo(String grupo) {
+        if (grupo == null) return -1;
         switch (grupo) {
-            case "C1": tipoLlamada = 4; break;
-            case "B":  tipoLlamada = 5; break;
-            case "D":  tipoLlamada = 6; break;
-            case "E":  tipoLlamada = 7; break;
-            default:   return 9999;
+            case "C1": return 4;
+            case "B":  return 5;
+            case "D":  return 6;
+            case "E":  return 7;
+            default:   return -1;
         }
-        return obtenerTarifaLocal(tipoLlamada);
     }
 
-    @Override
-    public void close() {
+    // Carga completa de PREFIJOS_INTERNACIONALES (prefijo -> grupo) para la caché de tarifas
+    public Map<String, String> cargarPrefijosInternacionales() throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            Map<String, String> prefijos = new HashMap<>();
+            try (ResultSet rs = preparar("SELECT PREFIJO, GRUPO FROM PREFIJOS_INTERNACIONALES").executeQuery()) {
+                while (rs.next()) {
+                    String prefijo = rs.getString("PREFIJO");
+                    String grupo = rs.getString("GRUPO");
+                    if (prefijo != null && grupo != null) {
+                        prefijos.put(prefijo.trim(), grupo.trim());
+                    }
+                }
+            }
+            return prefijos;
+        } finally {
+            Metricas.bd("cargarPrefijosInternacionales", inicio);
+        }
+    }
+
+    // Carga completa de TIPO_LLAMADA (id -> costo por minuto) para la caché de tarifas
+    public Map<Integer, Double> cargarTarifas() throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            Map<Integer, Double> tarifas = new HashMap<>();
+            try (ResultSet rs = preparar("SELECT ID_T_LLAMADA, COSTOS FROM TIPO_LLAMADA").executeQuery()) {
+                while (rs.next()) {
+                    tarifas.put(rs.getInt("ID_T_LLAMADA"), rs.getDouble("COSTOS"));
+                }
+            }
+            return tarifas;
+        } finally {
+            Metricas.bd("cargarTarifas", inicio);
+        }
+    }
+
+    // Activación/desactivación con la notificación al Identificador en la misma transacción:
+    // si el cambio no se aplica tampoco queda la notificación, y viceversa
+    public int activarLineaConNotificacion(String numero, String idTel, String idChip, String tipo, String cedula,
+                                           String clave, String trama) {
+        return conNotificacion(() -> activarLinea(numero, idTel, idChip, tipo, cedula), numero, clave, trama);
+    }
+
+    public int desactivarLineaConNotificacion(String numero, String idTel, String idChip, String cedula,
+                                              String clave, String trama) {
+        return conNotificacion(() -> desactivarLinea(numero, idTel, idChip, cedula), numero, clave, trama);
+    }
+
+    private int conNotificacion(IntSupplier cambio, String numero, String clave, String trama) {
+        long inicio = System.nanoTime();
+        try {
+            int[] resultado = new int[1];
+            enTransaccion(() -> {
+                resultado[0] = cambio.getAsInt();
+                if (resultado[0] != 1) {
+                    // Lo que el cambio haya dejado a medias no se confirma
+                    conexion.rollback();
+                    return;
+                }
+
+                PreparedStatement ps = preparar(
+                    "INSERT INTO dbo.NOTIFICACIONES_PENDIENTES (CLAVE, TELEFONO, TRAMA) VALUES (?, ?, ?)");
+                ps.setString(1, clave);
+                ps.setString(2, numero.trim());
+                ps.setString(3, trama);
+                ps.executeUpdate();
+            });
+            return resultado[0];
+        } catch (SQLException e) {
+            Log.error("Error registrando notificación pendiente: " + e.getMessage());
+            return -99;
+        } finally {
+            Metricas.bd("conNotificacion", inicio);
+        }
+    }
+
+    // Comprueba que exista la tabla de notificaciones pendientes
+    public boolean existeOutboxNotificaciones() {
         try {
-            if (conexion != null && !conexion.isClosed()) {
-                conexion.close();
-                System.out.println("Conexión cerrada correctamente.");
+            preparar("SELECT TOP 0 ID FROM dbo.NOTIFICACIONES_PENDIENTES").executeQuery().close();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Toma hasta 'maximo' notificaciones vencidas, solo la más antigua de cada teléfono para
+    // entregarlas en orden, y las aparta por 'reservaMs' (si el proceso cae, vuelven a vencer).
+    // READPAST permite que varias instancias despachen a la vez sin tomar las mismas filas
+    public List<DespachadorNotificaciones.Pendiente> tomarNotificaciones(int maximo, int reservaMs) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            PreparedStatement ps = preparar(
+                "WITH lote AS ( " +
+                "  SELECT TOP (?) n.ID, n.CLAVE, n.TRAMA, n.INTENTOS, n.PROXIMO_INTENTO " +
+                "  FROM dbo.NOTIFICACIONES_PENDIENTES n WITH (ROWLOCK, UPDLOCK, READPAST) " +
+                "  WHERE n.FALLIDA = 0 AND n.PROXIMO_INTENTO <= SYSUTCDATETIME() " +
+                "    AND NOT EXISTS (SELECT 1 FROM dbo.NOTIFICACIONES_PENDIENTES p " +
+                "                    WHERE p.TELEFONO = n.TELEFONO AND p.FALLIDA = 0 AND p.ID < n.ID) " +
+                "  ORDER BY n.ID) " +
+                "UPDATE lote SET INTENTOS = INTENTOS + 1, PROXIMO_INTENTO = DATEADD(MILLISECOND, ?, SYSUTCDATETIME()) " +
+                "OUTPUT INSERTED.ID, INSERTED.CLAVE, INSERTED.TRAMA, INSERTED.INTENTOS");
+            ps.setInt(1, maximo);
+            ps.setInt(2, reservaMs);
+
+            List<DespachadorNotificaciones.Pendiente> lote = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    lote.add(new DespachadorNotificaciones.Pendiente(
+                        rs.getLong("ID"), rs.getString("CLAVE"), rs.getString("TRAMA"), rs.getInt("INTENTOS")));
+                }
             }
+            return lote;
+        } finally {
+            Metricas.bd("tomarNotificaciones", inicio);
+        }
+    }
+
+    // Cierra una ronda del despachador: borra las entregadas, reprograma las que fallaron
+    // (id -> espera en ms) y marca como fallidas las que agotaron los intentos
+    public void cerrarRondaNotificaciones(List<Long> entregadas, Map<Long, Integer> reintentos, List<Long> fallidas) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            enTransaccion(() -> {
+                if (!entregadas.isEmpty()) {
+                    PreparedStatement ps = preparar("DELETE FROM dbo.NOTIFICACIONES_PENDIENTES WHERE ID = ?");
+                    for (long id : entregadas) {
+                        ps.setLong(1, id);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+                if (!reintentos.isEmpty()) {
+                    PreparedStatement ps = preparar(
+                        "UPDATE dbo.NOTIFICACIONES_PENDIENTES SET PROXIMO_INTENTO = DATEADD(MILLISECOND, ?, SYSUTCDATETIME()) WHERE ID = ?");
+                    for (Map.Entry<Long, Integer> r : reintentos.entrySet()) {
+                        ps.setInt(1, r.getValue());
+                        ps.setLong(2, r.getKey());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+                if (!fallidas.isEmpty()) {
+                    PreparedStatement ps = preparar("UPDATE dbo.NOTIFICACIONES_PENDIENTES SET FALLIDA = 1 WHERE ID = ?");
+                    for (long id : fallidas) {
+                        ps.setLong(1, id);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            });
+        } finally {
+            Metricas.bd("cerrarRondaNotificaciones", inicio);
+        }
+    }
+
+    // Comprueba que exista la tabla de consumo postpago
+    public boolean existeConsumoPostpago() {
+        try {
+            preparar("SELECT TOP 0 NUM_TELEFONO FROM dbo.CONSUMO_POSTPAGO").executeQuery().close();
+            return true;
         } catch (SQLException e) {
-            System.err.println("Error al cerrar conexión: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Consumo guardado de un ciclo (AAAAMM), para reponer los acumulados al arrancar
+    public List<ConsumoPostpago.Fila> cargarConsumoPostpago(int ciclo) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            PreparedStatement ps = preparar(
+                "SELECT NUM_TELEFONO, TIPO_LLAMADA, LLAMADAS, SEGUNDOS, COSTO FROM dbo.CONSUMO_POSTPAGO WHERE CICLO = ?");
+            ps.setInt(1, ciclo);
+            ps.setFetchSize(10000);
+            List<ConsumoPostpago.Fila> filas = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int tipo = rs.getInt("TIPO_LLAMADA");
+                    if (tipo < 0 || tipo >= ConsumoPostpago.TIPOS) continue;
+                    filas.add(new ConsumoPostpago.Fila(rs.getString("NUM_TELEFONO").trim(), ciclo, tipo,
+                        rs.getInt("LLAMADAS"), rs.getLong("SEGUNDOS"),
+                        rs.getBigDecimal("COSTO").movePointRight(2).longValue()));
+                }
+            }
+            return filas;
+        } finally {
+            Metricas.bd("cargarConsumoPostpago", inicio);
+        }
+    }
+
+    // Totales absolutos del ciclo: repetir el guardado de una fila no duplica el consumo
+    public void guardarConsumoPostpago(List<ConsumoPostpago.Fila> filas) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            PreparedStatement ps = preparar(
+                "MERGE dbo.CONSUMO_POSTPAGO WITH (HOLDLOCK) AS d " +
+                "USING (SELECT ? AS NUM_TELEFONO, ? AS CICLO, ? AS TIPO_LLAMADA, ? AS LLAMADAS, ? AS SEGUNDOS, ? AS COSTO) AS o " +
+                "ON d.CICLO = o.CICLO AND d.NUM_TELEFONO = o.NUM_TELEFONO AND d.TIPO_LLAMADA = o.TIPO_LLAMADA " +
+                "WHEN MATCHED THEN UPDATE SET LLAMADAS = o.LLAMADAS, SEGUNDOS = o.SEGUNDOS, COSTO = o.COSTO, ACTUALIZADO = SYSUTCDATETIME() " +
+                "WHEN NOT MATCHED THEN INSERT (NUM_TELEFONO, CICLO, TIPO_LLAMADA, LLAMADAS, SEGUNDOS, COSTO) " +
+                "VALUES (o.NUM_TELEFONO, o.CICLO, o.TIPO_LLAMADA, o.LLAMADAS, o.SEGUNDOS, o.COSTO);");
+            enTransaccion(() -> {
+                ps.clearBatch();
+                for (ConsumoPostpago.Fila f : filas) {
+                    ps.setString(1, f.telefono());
+                    ps.setInt(2, f.ciclo());
+                    ps.setInt(3, f.tipoLlamada());
+                    ps.setInt(4, f.llamadas());
+                    ps.setLong(5, f.segundos());
+                    ps.setBigDecimal(6, BigDecimal.valueOf(f.centavos(), 2));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            });
+        } finally {
+            Metricas.bd("guardarConsumoPostpago", inicio);
+        }
+    }
+
+    // Comprueba que exista la tabla de auditoría de consultas de saldo
+    public boolean existeAuditoriaConsultas() {
+        try {
+            preparar("SELECT TOP 0 ID FROM dbo.CONSULTAS_SALDO").executeQuery().close();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Inserta un lote de consultas de saldo (transacción 2) con JDBC batch
+    public void registrarConsultasSaldo(List<AuditoriaConsultas.Consulta> lote) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            PreparedStatement ps = preparar("INSERT INTO dbo.CONSULTAS_SALDO (NUM_TELEFONO, CONSULTADA) VALUES (?, ?)");
+            enTransaccion(() -> {
+                ps.clearBatch();
+                for (AuditoriaConsultas.Consulta c : lote) {
+                    ps.setString(1, c.telefono());
+                    ps.setTimestamp(2, new Timestamp(c.instante()));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            });
+        } finally {
+            Metricas.bd("registrarConsultasSaldo", inicio);
+        }
+    }
+
+    private interface Transaccion {
+        void ejecutar() throws SQLException;
+    }
+
+    // Todo lo de la transacción se confirma junto o se deshace si algo falla; la conexión vuelve
+    // al pool en autocommit
+    private void enTransaccion(Transaccion t) throws SQLException {
+        conexion.setAutoCommit(false);
+        try {
+            t.ejecutar();
+            conexion.commit();
+        } catch (SQLException | RuntimeException e) {
+            conexion.rollback();
+            throw e;
+        } finally {
+            conexion.setAutoCommit(true);
+        }
+    }
+
+    // Sentencia cacheada en la conexión del pool; no debe cerrarse
+    private PreparedStatement preparar(String sql) throws SQLException {
+        return conexionPool.preparar(sql);
+    }
+
+    // Devuelve la conexión al pool
+    @Override
+    public void close() {
+        if (conexionPool != null) {
+            poolOrigen.liberar(conexionPool);
+            conexionPool = null;
+            conexion = null;
+        }
+        if (segundoPlano) {
+            segundoPlano = false;
+            ControlAdmision.salirSegundoPlano();
         }
     }
 }
\ No newline at end of file
@@ -1,8 +1,376 @@
 package proveedor;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Configuración del proveedor. Cada valor se toma, en orden, de la variable de entorno
+// PROVEEDOR_<NOMBRE>, del archivo de propiedades (NOMBRE=valor; por defecto proveedor.properties en
+// el directorio de trabajo, o el que indiquen -Dproveedor.config o PROVEEDOR_CONFIG) o del valor por
+// defecto de aquí. Los campos volatile se recargan en caliente cuando cambia el archivo (cada
+// RECARGA_CONFIG_S) y se leen en cada uso; los final solo se aplican al reiniciar, porque dimensionan
+// pools, colas, semáforos o puertos ya abiertos, y un cambio en ellos solo se avisa en el log
 public class Config {
-    public static final String HOST_IDENTIFICADOR = "localhost";
-    public static final int PUERTO_IDENTIFICADOR = 5000;
+    private static final Path ARCHIVO = Path.of(System.getProperty("proveedor.config",
+        Objects.requireNonNullElse(System.getenv("PROVEEDOR_CONFIG"), "proveedor.properties")));
+    private static final String PREFIJO_ENTORNO = "PROVEEDOR_";
+
+    // Valores por defecto de cada clave, para volver a ellos si se borra del archivo
+    private static final Map<String, Object> defectos = new HashMap<>();
+    // Problemas al leer la configuración inicial; se informan en iniciar(), cuando ya hay log
+    private static final List<String> avisos = new ArrayList<>();
+    private static Properties archivo = leerInicial();
+    private static long modificado = modificacion();
+    private static long vista = modificado;
+    private static ScheduledExecutorService recarga;
+
+    public static final String HOST_IDENTIFICADOR = texto("HOST_IDENTIFICADOR", "localhost");
+    public static final int PUERTO_IDENTIFICADOR = entero("PUERTO_IDENTIFICADOR", 5000);
+
+    public static final int PUERTO_PROVEEDOR = entero("PUERTO_PROVEEDOR", 6000);
+
+    // Modo de ejecución del servidor: "hilos" (un hilo de plataforma por conexión),
+    // "virtual" (un hilo virtual por conexión) o "nio" (selector no bloqueante)
+    public static final String MODO_SERVIDOR = texto("MODO_SERVIDOR", "virtual");
+
+    // Admisión acotada: conexiones atendidas a la vez y espera máxima por un cupo
+    public static final int MAX_CLIENTES_CONCURRENTES = entero("MAX_CLIENTES_CONCURRENTES", 2000);
+    public static volatile int ESPERA_ADMISION_MS = entero("ESPERA_ADMISION_MS", 200);
+
+    // Límite de tasa (ControlAdmision): tramas por segundo y ráfaga por dirección remota (0 sin
+    // límite) y tramas por segundo de todo el servidor por tipo de transacción, "tipo=tasa"
+    // separados por coma (los tipos que no aparecen no se limitan)
+    public static volatile int TASA_POR_DIRECCION = entero("TASA_POR_DIRECCION", 5000);
+    public static volatile int RAFAGA_POR_DIRECCION = entero("RAFAGA_POR_DIRECCION", 10000);
+    public static volatile String LIMITES_POR_TIPO = texto("LIMITES_POR_TIPO", "3=200,6=200,7=1,8=1,9=1");
+
+    // Tramas usando la BD a la vez (0 sin límite; lo que falta hasta TAMANO_POOL_BD queda para los
+    // motores en segundo plano), cuántas de ellas pueden ser de baja prioridad (todo menos 1, 2 y 5)
+    // y cuánto espera cada carril un cupo antes de responder ocupado
+    public static final int LIMITE_CONCURRENCIA_BD = entero("LIMITE_CONCURRENCIA_BD", 16);
+    public static final int MAX_BD_BAJA_PRIORIDAD = entero("MAX_BD_BAJA_PRIORIDAD", 4);
+    public static volatile int ESPERA_BD_PRIORITARIA_MS = entero("ESPERA_BD_PRIORITARIA_MS", 500);
+    public static volatile int ESPERA_BD_BAJA_MS = entero("ESPERA_BD_BAJA_MS", 0);
+
+    // Despliegue en varios nodos (Cluster): este nodo como "host:puerto" (vacío: localhost y
+    // PUERTO_PROVEEDOR) y los nodos conocidos al arrancar separados por coma (vacío: un solo nodo,
+    // sin reparto de líneas). Puntos de cada nodo en el anillo, conexiones persistentes por nodo para
+    // reenviar, espera de un reenvío, cada cuánto se revisa a los demás nodos y fallos seguidos para
+    // sacar a uno del anillo, y espera antes de cargar el consumo de las líneas recibidas en un rebalanceo
+    public static final String NODO_LOCAL = texto("NODO_LOCAL", "");
+    public static final String NODOS = texto("NODOS", "");
+    public static final int PUNTOS_POR_NODO = entero("PUNTOS_POR_NODO", 128);
+    public static volatile int CONEXIONES_POR_NODO = entero("CONEXIONES_POR_NODO", 8);
+    public static volatile int TIMEOUT_REENVIO_MS = entero("TIMEOUT_REENVIO_MS", 3000);
+    public static final int LATIDO_NODOS_MS = entero("LATIDO_NODOS_MS", 2000);
+    public static volatile int FALLOS_SACAR_NODO = entero("FALLOS_SACAR_NODO", 3);
+    public static volatile int ESPERA_REBALANCEO_MS = entero("ESPERA_REBALANCEO_MS", 2000);
+
+    // Longitud máxima de una trama JSON (modo nio)
+    public static final int MAX_LONGITUD_TRAMA = entero("MAX_LONGITUD_TRAMA", 8192);
+
+    // Conexiones persistentes (keep_alive): tiempo máximo de inactividad entre tramas
+    public static volatile int TIMEOUT_KEEP_ALIVE_MS = entero("TIMEOUT_KEEP_ALIVE_MS", 30000);
+
+    // Conexión a SQL Server: URL sin credenciales, usuario (vacío: las credenciales van en la URL) y
+    // clave (sin valor por defecto; va en el archivo, fuera del repositorio, o en PROVEEDOR_CLAVE_BD)
+    public static final String URL_BD = texto("URL_BD", "jdbc:sqlserver://localhost:1433;"
+        + "databaseName=COMPANIA_TELEFONICA;encrypt=false;trustServerCertificate=true;");
+    public static final String USUARIO_BD = texto("USUARIO_BD", "sa");
+    public static final String CLAVE_BD = texto("CLAVE_BD", "");
+
+    // Pool de conexiones a la BD: LIMITE_CONCURRENCIA_BD para tramas y el resto para los motores en
+    // segundo plano (los HILOS_COBRO y unos cinco de un solo hilo)
+    public static final int TAMANO_POOL_BD = entero("TAMANO_POOL_BD", 24);
+    public static final int TIMEOUT_ADQUIRIR_BD_MS = entero("TIMEOUT_ADQUIRIR_BD_MS", 2000);
+    public static volatile int VALIDAR_CONEXION_TRAS_MS = entero("VALIDAR_CONEXION_TRAS_MS", 30000);
+    public static volatile int TIMEOUT_VALIDACION_BD_S = entero("TIMEOUT_VALIDACION_BD_S", 2);
+    public static volatile int CACHE_SENTENCIAS_POR_CONEXION = entero("CACHE_SENTENCIAS_POR_CONEXION", 32);
+
+    // Caché de tarifas y prefijos internacionales: periodo de recarga
+    public static final int REFRESCO_TARIFAS_S = entero("REFRESCO_TARIFAS_S", 300);
+
+    // Caché de perfiles de suscriptor (0 = sin caché)
+    public static volatile int TTL_PERFIL_MS = entero("TTL_PERFIL_MS", 30000);
+    public static volatile int MAX_PERFILES_CACHE = entero("MAX_PERFILES_CACHE", 100000);
+
+    // Caché de cédula -> ID_CLIENTE para activaciones y desactivaciones (0 = sin caché)
+    public static volatile int TTL_CEDULA_MS = entero("TTL_CEDULA_MS", 3600000);
+    public static volatile int MAX_CEDULAS_CACHE = entero("MAX_CEDULAS_CACHE", 200000);
+
+    // Ingesta de CDR (transacción 5): directorio del WAL, tamaño de lote, espera para juntar
+    // un lote, pausa entre reintentos, si cada registro se sincroniza a disco antes de confirmar y
+    // tamaño a partir del cual el WAL pasa a un segmento nuevo en el siguiente checkpoint
+    public static final String DIRECTORIO_CDR = texto("DIRECTORIO_CDR", "cdr");
+    public static final int LOTE_CDR = entero("LOTE_CDR", 200);
+    public static volatile int ESPERA_LOTE_CDR_MS = entero("ESPERA_LOTE_CDR_MS", 5);
+    public static volatile int REINTENTO_CDR_MS = entero("REINTENTO_CDR_MS", 1000);
+    public static volatile boolean CDR_FSYNC = logico("CDR_FSYNC", true);
+    public static volatile int SEGMENTO_WAL_CDR_KB = entero("SEGMENTO_WAL_CDR_KB", 1024);
+
+    // Reservas de saldo prepago: candados por franja, margen sobre el tiempo concedido antes de
+    // vencer una reserva y tiempo sin uso tras el cual se descarga el saldo de una línea
+    public static final int FRANJAS_RESERVAS = entero("FRANJAS_RESERVAS", 64);
+    public static volatile int MARGEN_RESERVA_MS = entero("MARGEN_RESERVA_MS", 60000);
+    public static volatile int TTL_CUENTA_MS = entero("TTL_CUENTA_MS", 600000);
+
+    // Registro de llamadas en curso: tope global, tope por línea y vencimiento de las llamadas
+    // sin reserva (postpago) que nunca reciben la transacción 5
+    public static final int MAX_LLAMADAS_ACTIVAS = entero("MAX_LLAMADAS_ACTIVAS", 200000);
+    public static final int MAX_LLAMADAS_POR_LINEA = entero("MAX_LLAMADAS_POR_LINEA", 3);
+    public static volatile int TIMEOUT_LLAMADA_MS = entero("TIMEOUT_LLAMADA_MS", 4 * 3600 * 1000);
+
+    // Cliente del Identificador: timeouts de conexión y de respuesta, notificaciones en curso a la
+    // vez y circuito (fallos seguidos para abrirlo y pausa antes de volver a probar). Con conexiones
+    // persistentes se encadenan varias tramas por conexión; requiere que el Identificador atienda
+    // keep_alive, por eso viene apagado
+    public static volatile int TIMEOUT_CONEXION_IDENTIFICADOR_MS = entero("TIMEOUT_CONEXION_IDENTIFICADOR_MS", 2000);
+    public static volatile int TIMEOUT_RESPUESTA_IDENTIFICADOR_MS = entero("TIMEOUT_RESPUESTA_IDENTIFICADOR_MS", 5000);
+    public static final int MAX_NOTIFICACIONES_EN_CURSO = entero("MAX_NOTIFICACIONES_EN_CURSO", 256);
+    public static final int FALLOS_ABRIR_CIRCUITO = entero("FALLOS_ABRIR_CIRCUITO", 5);
+    public static final int PAUSA_CIRCUITO_MS = entero("PAUSA_CIRCUITO_MS", 10000);
+    public static final boolean IDENTIFICADOR_PERSISTENTE = logico("IDENTIFICADOR_PERSISTENTE", false);
+    public static final int CONEXIONES_IDENTIFICADOR = entero("CONEXIONES_IDENTIFICADOR", 4);
+
+    // Outbox de notificaciones al Identificador (tabla NOTIFICACIONES_PENDIENTES, ver sql/): la
+    // transacción 6 responde al confirmar el cambio de estado y un despachador entrega en segundo
+    // plano por lotes, con sondeo periódico y reintentos con espera exponencial
+    public static final boolean OUTBOX_NOTIFICACIONES = logico("OUTBOX_NOTIFICACIONES", true);
+    public static volatile int LOTE_NOTIFICACIONES = entero("LOTE_NOTIFICACIONES", 50);
+    public static volatile int ESPERA_NOTIFICACIONES_MS = entero("ESPERA_NOTIFICACIONES_MS", 1000);
+    public static volatile int REINTENTO_NOTIFICACION_MIN_MS = entero("REINTENTO_NOTIFICACION_MIN_MS", 1000);
+    public static volatile int REINTENTO_NOTIFICACION_MAX_MS = entero("REINTENTO_NOTIFICACION_MAX_MS", 300000);
+    public static volatile int MAX_INTENTOS_NOTIFICACION = entero("MAX_INTENTOS_NOTIFICACION", 100);
+
+    // Alta masiva de líneas (transacción 9): directorio de donde se leen los archivos pedidos por
+    // la red y filas por lote de inserción
+    public static final String DIRECTORIO_ALTAS = texto("DIRECTORIO_ALTAS", "altas");
+    public static volatile int LOTE_ALTAS = entero("LOTE_ALTAS", 1000);
+
+    // Cálculo de cobros postpago (transacciones 7 y 10): rangos de NUM_TELEFONO por trabajo (con 1 se
+    // ejecuta SP_COBROS_POSTPAGOS completo; con más, SP_COBROS_POSTPAGOS_RANGO de sql/05, que cobra
+    // desde CONSUMO_POSTPAGO y no concilia contra LLAMADAS), hilos que las corren a la vez, reintentos
+    // por partición y cuánto se guardan los trabajos terminados
+    public static final String DIRECTORIO_COBROS = texto("DIRECTORIO_COBROS", "cobros");
+    public static volatile int PARTICIONES_COBRO = entero("PARTICIONES_COBRO", 1);
+    public static final int HILOS_COBRO = entero("HILOS_COBRO", 4);
+    public static volatile int TIMEOUT_PARTICION_COBRO_S = entero("TIMEOUT_PARTICION_COBRO_S", 3600);
+    public static volatile int REINTENTOS_PARTICION_COBRO = entero("REINTENTOS_PARTICION_COBRO", 3);
+    public static volatile int RETENCION_TRABAJOS_COBRO_H = entero("RETENCION_TRABAJOS_COBRO_H", 72);
+
+    // Consumo postpago en memoria (transacciones 5 y 11): cada cuánto se guardan los totales en
+    // CONSUMO_POSTPAGO y tope de gasto por ciclo de una línea postpago (0 sin tope)
+    public static final int SNAPSHOT_CONSUMO_S = entero("SNAPSHOT_CONSUMO_S", 60);
+    public static volatile double TOPE_CONSUMO_POSTPAGO = decimal("TOPE_CONSUMO_POSTPAGO", 0);
+
+    // Auditoría de consultas de saldo (transacción 2, tabla CONSULTAS_SALDO): filas por lote, espera
+    // para juntar un lote y tope de registros en memoria antes de empezar a descartar
+    public static volatile int LOTE_AUDITORIA = entero("LOTE_AUDITORIA", 500);
+    public static volatile int ESPERA_AUDITORIA_MS = entero("ESPERA_AUDITORIA_MS", 200);
+    public static final int MAX_AUDITORIA_PENDIENTE = entero("MAX_AUDITORIA_PENDIENTE", 100000);
+
+    // Log asíncrono: nivel mínimo (DEBUG, INFO, AVISO, ERROR; en DEBUG se registran las tramas y
+    // respuestas completas) y mensajes en cola antes de descartar
+    public static volatile String NIVEL_LOG = texto("NIVEL_LOG", "INFO");
+    public static final int MAX_LOG_PENDIENTE = entero("MAX_LOG_PENDIENTE", 10000);
+
+    // Métricas: puerto HTTP local de /metricas (0 lo apaga) y cada cuánto se vuelca un resumen al
+    // log (0 nunca)
+    public static final String HOST_METRICAS = texto("HOST_METRICAS", "127.0.0.1");
+    public static final int PUERTO_METRICAS = entero("PUERTO_METRICAS", 9464);
+    public static final int VOLCADO_METRICAS_S = entero("VOLCADO_METRICAS_S", 0);
+
+    // Cada cuánto se revisa si cambió el archivo de configuración (0 sin recarga en caliente)
+    public static final int RECARGA_CONFIG_S = entero("RECARGA_CONFIG_S", 5);
+
+    static {
+        for (String clave : archivo.stringPropertyNames()) {
+            if (!defectos.containsKey(clave)) avisos.add("Clave desconocida en " + ARCHIVO + ", se ignora: " + clave);
+        }
+    }
+
+    // Informa lo leído y arranca la recarga en caliente; va antes que los demás motores
+    public static synchronized void iniciar() {
+        if (recarga != null) return;
+        Log.info(modificado != 0 ? "Configuración leída de " + ARCHIVO.toAbsolutePath()
+            : "Sin archivo de configuración (" + ARCHIVO.toAbsolutePath() + "), valores por defecto y de entorno");
+        avisos.forEach(Log::aviso);
+        if (LIMITE_CONCURRENCIA_BD > 0 && TAMANO_POOL_BD - LIMITE_CONCURRENCIA_BD <= HILOS_COBRO) {
+            Log.aviso("TAMANO_POOL_BD - LIMITE_CONCURRENCIA_BD no supera HILOS_COBRO: durante un cálculo de cobros "
+                + "la ingesta de CDR y los demás motores esperan conexión");
+        }
+
+        if (RECARGA_CONFIG_S <= 0) return;
+        recarga = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "config");
+            t.setDaemon(true);
+            return t;
+        });
+        recarga.scheduleWithFixedDelay(Config::revisar, RECARGA_CONFIG_S, RECARGA_CONFIG_S, TimeUnit.SECONDS);
+    }
+
+    // La clave ya no viene en el código: sin ella el pool por defecto no arranca. Los que configuran
+    // su propio pool (ServidorPrueba y los benchmarks sobre H2) no pasan por aquí
+    static void exigirClaveBd() {
+        if (CLAVE_BD.isEmpty() && !USUARIO_BD.isEmpty()) {
+            throw new IllegalStateException("Falta CLAVE_BD para el usuario " + USUARIO_BD + ": configurarla en "
+                + ARCHIVO.toAbsolutePath() + " o en la variable de entorno " + PREFIJO_ENTORNO + "CLAVE_BD (ver README.md)");
+        }
+    }
+
+    // Recarga cuando la fecha del archivo cambió y se mantuvo igual entre dos revisiones, para no
+    // leer un archivo a medio escribir
+    private static void revisar() {
+        try {
+            long actual = modificacion();
+            if (actual != vista) {
+                vista = actual;
+                return;
+            }
+            if (actual == modificado) return;
+            modificado = actual;
+            recargar();
+        } catch (RuntimeException e) {
+            Log.error("Error al recargar la configuración: " + e.getMessage());
+        }
+    }
+
+    static synchronized void recargar() {
+        Properties nuevo;
+        try {
+            nuevo = leer();
+        } catch (IOException | IllegalArgumentException e) {
+            Log.error("No se pudo leer " + ARCHIVO + ", se mantiene la configuración actual: " + e.getMessage());
+            return;
+        }
+        archivo = nuevo;
+
+        List<String> cambiadas = new ArrayList<>();
+        for (Field f : Config.class.getDeclaredFields()) {
+            int m = f.getModifiers();
+            if (!Modifier.isPublic(m) || !Modifier.isStatic(m)) continue;
+            String clave = f.getName();
+            String texto = crudo(clave);
+            try {
+                Object actual = f.get(null);
+                Object valor = texto != null ? convertir(texto, f.getType()) : defectos.get(clave);
+                if (Objects.equals(actual, valor)) continue;
+                if (Modifier.isFinal(m)) {
+                    Log.aviso("Configuración: " + clave + " cambió, se aplica al reiniciar");
+                    continue;
+                }
+                f.set(null, valor);
+                cambiadas.add(clave);
+                Log.info("Configuración: " + clave + " = " + mostrar(clave, valor) + " (antes " + mostrar(clave, actual) + ")");
+            } catch (IllegalArgumentException e) {
+                Log.aviso("Configuración: valor inválido para " + clave + " (" + texto + "), se mantiene el actual");
+            } catch (IllegalAccessException e) {
+                Log.error("Configuración: no se pudo aplicar " + clave + ": " + e.getMessage());
+            }
+        }
+        for (String clave : nuevo.stringPropertyNames()) {
+            if (!defectos.containsKey(clave)) Log.aviso("Clave desconocida en " + ARCHIVO + ", se ignora: " + clave);
+        }
+
+        // Lo que se armó con los valores anteriores
+        if (cambiadas.contains("NIVEL_LOG")) Log.recargar();
+        if (cambiadas.contains("LIMITES_POR_TIPO")) ControlAdmision.recargarLimitesPorTipo();
+        if (cambiadas.contains("TASA_POR_DIRECCION") || cambiadas.contains("RAFAGA_POR_DIRECCION")) {
+            ControlAdmision.recargarTasaPorDireccion();
+        }
+    }
+
+    private static int entero(String clave, int defecto) {
+        return (int) inicial(clave, int.class, defecto);
+    }
+
+    private static double decimal(String clave, double defecto) {
+        return (double) inicial(clave, double.class, defecto);
+    }
+
+    private static boolean logico(String clave, boolean defecto) {
+        return (boolean) inicial(clave, boolean.class, defecto);
+    }
+
+    private static String texto(String clave, String defecto) {
+        return (String) inicial(clave, String.class, defecto);
+    }
+
+    private static Object inicial(String clave, Class<?> tipo, Object defecto) {
+        defectos.put(clave, defecto);
+        String texto = crudo(clave);
+        if (texto == null) return defecto;
+        try {
+            return convertir(texto, tipo);
+        } catch (IllegalArgumentException e) {
+            avisos.add("Valor inválido para " + clave + " (" + texto + "), se usa " + mostrar(clave, defecto));
+            return defecto;
+        }
+    }
+
+    // La variable de entorno gana sobre el archivo
+    private static String crudo(String clave) {
+        String texto = System.getenv(PREFIJO_ENTORNO + clave);
+        if (texto == null) texto = archivo.getProperty(clave);
+        return texto != null ? texto.trim() : null;
+    }
+
+    private static Object convertir(String texto, Class<?> tipo) {
+        if (tipo == int.class) return Integer.parseInt(texto);
+        if (tipo == double.class) return Double.parseDouble(texto);
+        if (tipo == boolean.class) {
+            switch (texto.toLowerCase()) {
+                case "true": case "1": case "si": return true;
+                case "false": case "0": case "no": return false;
+                default: throw new IllegalArgumentException("No es sí/no: " + texto);
+            }
+        }
+        return texto;
+    }
+
+    private static String mostrar(String clave, Object valor) {
+        return clave.startsWith("CLAVE") ? "****" : String.valueOf(valor);
+    }
+
+    private static Properties leerInicial() {
+        try {
+            return leer();
+        } catch (IOException | IllegalArgumentException e) {
+            avisos.add("No se pudo leer " + ARCHIVO + ", se usan los valores por defecto y de entorno: " + e.getMessage());
+            return new Properties();
+        }
+    }
+
+    // Sin archivo no es error: valores por defecto y de entorno
+    private static Properties leer() throws IOException {
+        Properties p = new Properties();
+        try (Reader r = Files.newBufferedReader(ARCHIVO, StandardCharsets.UTF_8)) {
+            p.load(r);
+        } catch (NoSuchFileException e) {
+            // nada que leer
+        }
+        return p;
+    }
 
-    public static final int PUERTO_PROVEEDOR = 6000;
+    private static long modificacion() {
+        try {
+            return Files.getLastModifiedTime(ARCHIVO).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
 }
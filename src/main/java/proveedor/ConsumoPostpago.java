@@ -0,0 +1,252 @@
+package proveedor;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+// Consumo del ciclo en curso (mes calendario de la fecha del CDR) de cada línea postpago, por tipo
+// de llamada, acumulado en memoria a medida que llegan las transacciones 5. Sirve la consulta de
+// consumo (transacción 11) y el tope de gasto de la transacción 1 sin tocar LLAMADAS. Cada
+// Config.SNAPSHOT_CONSUMO_S se guardan en CONSUMO_POSTPAGO los totales de las líneas que cambiaron
+// y al arrancar se cargan los del ciclo actual; lo acumulado desde el último guardado se pierde si
+// el proceso cae, por eso el cálculo de cobros debe conciliar contra LLAMADAS
+public class ConsumoPostpago {
+
+    // Tipos de llamada 1 a 3; el 0 agrupa los fines de llamada sin inicio registrado
+    static final int TIPOS = 4;
+
+    public record Fila(String telefono, int ciclo, int tipoLlamada, int llamadas, long segundos, long centavos) {}
+
+    public record Resumen(int ciclo, int[] llamadas, long[] segundos, long[] centavos) {
+
+        public long centavosTotales() {
+            long total = 0;
+            for (long c : centavos) total += c;
+            return total;
+        }
+    }
+
+    private static final class Consumo {
+        int ciclo;
+        final int[] llamadas = new int[TIPOS];
+        final long[] segundos = new long[TIPOS];
+        final long[] centavos = new long[TIPOS];
+        boolean sucio;
+
+        Consumo(int ciclo) {
+            this.ciclo = ciclo;
+        }
+
+        void reiniciar(int nuevoCiclo) {
+            ciclo = nuevoCiclo;
+            Arrays.fill(llamadas, 0);
+            Arrays.fill(segundos, 0);
+            Arrays.fill(centavos, 0);
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Consumo> lineas = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService guardado;
+    private static volatile boolean persistente;
+
+    // Sin la tabla (script sql/ sin aplicar) se acumula igual, pero solo en memoria
+    public static synchronized void iniciar() {
+        if (guardado != null) return;
+
+        int ciclo = cicloActual();
+        try (ConexionSQLServer db = new ConexionSQLServer()) {
+            if (db.conectarSegundoPlano() && db.existeConsumoPostpago()) {
+                for (Fila f : db.cargarConsumoPostpago(ciclo)) {
+                    Consumo c = lineas.computeIfAbsent(f.telefono(), t -> new Consumo(ciclo));
+                    c.llamadas[f.tipoLlamada()] = f.llamadas();
+                    c.segundos[f.tipoLlamada()] = f.segundos();
+                    c.centavos[f.tipoLlamada()] = f.centavos();
+                }
+                persistente = true;
+                Log.info("Consumo postpago del ciclo " + ciclo + " cargado: " + lineas.size() + " líneas");
+            } else {
+                Log.aviso("Tabla CONSUMO_POSTPAGO no disponible, el consumo postpago se acumula solo en memoria");
+            }
+        } catch (Exception e) {
+            Log.error("No se pudo cargar el consumo postpago: " + e.getMessage());
+        }
+
+        guardado = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "consumo-postpago");
+            t.setDaemon(true);
+            return t;
+        });
+        guardado.scheduleWithFixedDelay(ConsumoPostpago::guardar,
+            Config.SNAPSHOT_CONSUMO_S, Config.SNAPSHOT_CONSUMO_S, TimeUnit.SECONDS);
+    }
+
+    // fecha del CDR en AAAAMMDD; un CDR atrasado de un ciclo ya cerrado no se acumula. La fecha la
+    // manda el cliente: una de un ciclo posterior al actual se cuenta en el actual, porque abrir ese
+    // ciclo borraría los acumulados de la línea y el tope de gasto quedaría en cero
+    public static void registrar(String telefono, String fecha, int tipoLlamada, long segundos, double costo) {
+        int ciclo = Math.min(ciclo(fecha), cicloActual());
+        int tipo = tipoLlamada >= 1 && tipoLlamada < TIPOS ? tipoLlamada : 0;
+        long centavos = Math.round(costo * 100);
+
+        lineas.compute(telefono, (tel, c) -> {
+            if (c == null) {
+                c = new Consumo(ciclo);
+            } else if (ciclo > c.ciclo) {
+                c.reiniciar(ciclo);
+            } else if (ciclo < c.ciclo) {
+                return c;
+            }
+            c.llamadas[tipo]++;
+            c.segundos[tipo] += segundos;
+            c.centavos[tipo] += centavos;
+            c.sucio = true;
+            return c;
+        });
+    }
+
+    // Consumo del ciclo actual; todo en cero si la línea no tiene llamadas en el ciclo
+    public static Resumen obtener(String telefono) {
+        int ciclo = cicloActual();
+        Resumen[] resumen = new Resumen[1];
+        lineas.computeIfPresent(telefono, (tel, c) -> {
+            if (c.ciclo == ciclo) {
+                resumen[0] = new Resumen(ciclo, c.llamadas.clone(), c.segundos.clone(), c.centavos.clone());
+            }
+            return c;
+        });
+        return resumen[0] != null ? resumen[0] : new Resumen(ciclo, new int[TIPOS], new long[TIPOS], new long[TIPOS]);
+    }
+
+    // Tope de gasto por ciclo (Config.TOPE_CONSUMO_POSTPAGO, 0 lo desactiva)
+    public static boolean superaTope(String telefono) {
+        return Config.TOPE_CONSUMO_POSTPAGO > 0
+            && obtener(telefono).centavosTotales() >= Math.round(Config.TOPE_CONSUMO_POSTPAGO * 100);
+    }
+
+    // Guarda las líneas que cambiaron desde el último guardado y suelta las de ciclos anteriores
+    static synchronized void guardar() {
+        int cicloActual = cicloActual();
+        List<Fila> filas = new ArrayList<>();
+        List<String> telefonos = new ArrayList<>();
+        for (String telefono : lineas.keySet()) {
+            lineas.computeIfPresent(telefono, (tel, c) -> {
+                if (c.sucio && persistente) {
+                    for (int tipo = 0; tipo < TIPOS; tipo++) {
+                        if (c.llamadas[tipo] > 0) {
+                            filas.add(new Fila(tel, c.ciclo, tipo, c.llamadas[tipo], c.segundos[tipo], c.centavos[tipo]));
+                        }
+                    }
+                    telefonos.add(tel);
+                    c.sucio = false;
+                    return c;
+                }
+                return c.ciclo < cicloActual && (!c.sucio || !persistente) ? null : c;
+            });
+        }
+        if (filas.isEmpty()) return;
+
+        long inicio = System.currentTimeMillis();
+        try (ConexionSQLServer db = new ConexionSQLServer()) {
+            if (!db.conectarSegundoPlano()) throw new SQLException("Sin conexión a la BD");
+            db.guardarConsumoPostpago(filas);
+            Log.info("Consumo postpago guardado: " + telefonos.size() + " líneas en "
+                + (System.currentTimeMillis() - inicio) + " ms");
+        } catch (Exception e) {
+            // Se vuelven a marcar para el próximo guardado; los totales son absolutos, no se duplica nada
+            for (String telefono : telefonos) {
+                lineas.computeIfPresent(telefono, (tel, c) -> {
+                    c.sucio = true;
+                    return c;
+                });
+            }
+            Log.error("No se pudo guardar el consumo postpago: " + e.getMessage());
+        }
+    }
+
+    // Rebalanceo entre nodos (Cluster): guarda y suelta las líneas que pasaron a otro nodo, para
+    // que el nuevo dueño las cargue con recibir (sincronizado con guardar, así un guardado periódico
+    // en curso no pisa después estos totales). Si el guardado falla se sueltan igual (sus totales
+    // son absolutos y guardarlos más tarde pisaría los del nuevo dueño); el cobro concilia contra LLAMADAS
+    static synchronized int entregar(Predicate<String> ajena) {
+        List<Fila> filas = new ArrayList<>();
+        int entregadas = 0;
+        for (String telefono : lineas.keySet()) {
+            if (!ajena.test(telefono)) continue;
+            boolean[] quitada = new boolean[1];
+            lineas.computeIfPresent(telefono, (tel, c) -> {
+                for (int tipo = 0; tipo < TIPOS; tipo++) {
+                    if (c.llamadas[tipo] > 0) {
+                        filas.add(new Fila(tel, c.ciclo, tipo, c.llamadas[tipo], c.segundos[tipo], c.centavos[tipo]));
+                    }
+                }
+                quitada[0] = true;
+                return null;
+            });
+            if (quitada[0]) entregadas++;
+        }
+        if (filas.isEmpty() || !persistente) return entregadas;
+
+        try (ConexionSQLServer db = new ConexionSQLServer()) {
+            if (!db.conectarSegundoPlano()) throw new SQLException("Sin conexión a la BD");
+            db.guardarConsumoPostpago(filas);
+        } catch (Exception e) {
+            Log.error("No se pudo guardar el consumo de " + entregadas + " líneas entregadas a otro nodo: " + e.getMessage());
+        }
+        return entregadas;
+    }
+
+    // Carga de CONSUMO_POSTPAGO las líneas recibidas de otro nodo y les suma lo que ya se acumuló
+    // aquí desde el cambio de dueño
+    static synchronized int recibir(Predicate<String> ganada) {
+        if (!persistente) return 0;
+        int ciclo = cicloActual();
+        Set<String> recibidas = new HashSet<>();
+        try (ConexionSQLServer db = new ConexionSQLServer()) {
+            if (!db.conectarSegundoPlano()) throw new SQLException("Sin conexión a la BD");
+            for (Fila f : db.cargarConsumoPostpago(ciclo)) {
+                if (!ganada.test(f.telefono())) continue;
+                recibidas.add(f.telefono());
+                lineas.compute(f.telefono(), (tel, c) -> {
+                    if (c == null) {
+                        c = new Consumo(ciclo);
+                    } else if (c.ciclo != ciclo) {
+                        return c;
+                    }
+                    c.llamadas[f.tipoLlamada()] += f.llamadas();
+                    c.segundos[f.tipoLlamada()] += f.segundos();
+                    c.centavos[f.tipoLlamada()] += f.centavos();
+                    c.sucio = true;
+                    return c;
+                });
+            }
+        } catch (Exception e) {
+            Log.error("No se pudo cargar el consumo de las líneas recibidas de otro nodo: " + e.getMessage());
+        }
+        return recibidas.size();
+    }
+
+    static int cicloActual() {
+        LocalDate hoy = LocalDate.now();
+        return hoy.getYear() * 100 + hoy.getMonthValue();
+    }
+
+    private static int ciclo(String fecha) {
+        if (fecha != null && fecha.length() >= 6) {
+            try {
+                return Integer.parseInt(fecha.substring(0, 6));
+            } catch (NumberFormatException e) {
+                // fecha inválida: se toma el ciclo actual
+            }
+        }
+        return cicloActual();
+    }
+}
@@ -0,0 +1,173 @@
+package proveedor;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Control de admisión delante del procesamiento de tramas, para que un cliente o un tipo de
+// transacción no acapare hilos ni conexiones a la BD:
+//  - un cubo de tokens por dirección remota (Config.TASA_POR_DIRECCION), revisado al aceptar la
+//    conexión y en cada trama;
+//  - un cubo global por tipo de transacción (Config.LIMITES_POR_TIPO);
+//  - un tope de tramas usando la BD a la vez (Config.LIMITE_CONCURRENCIA_BD) con dos carriles: las
+//    transacciones 1, 2 y 5 pueden ocupar todos los cupos y el resto solo Config.MAX_BD_BAJA_PRIORIDAD,
+//    así un alta masiva o un cálculo de cobros nunca deja sin BD al establecimiento y fin de llamadas;
+//  - los motores en segundo plano (cobros, ingesta de CDR, outbox, consumo postpago, auditoría,
+//    tarifas) solo toman conexiones del resto del pool (TAMANO_POOL_BD - LIMITE_CONCURRENCIA_BD) y
+//    esperan si no hay, así las tramas con cupo de BD siempre encuentran conexión libre.
+// Todo rechazo se responde de inmediato con Respuestas.OCUPADO
+public class ControlAdmision {
+
+    public enum Motivo { CONEXIONES, DIRECCION, TIPO, BD }
+
+    // Direcciones con cubo propio antes de soltar las que están inactivas (cubo lleno)
+    private static final int MAX_DIRECCIONES = 10000;
+
+    private static final ConcurrentHashMap<InetAddress, CuboTokens> direcciones = new ConcurrentHashMap<>();
+    private static final AtomicLong ultimaPurga = new AtomicLong();
+    private static volatile CuboTokens[] porTipo = leerLimitesPorTipo(Config.LIMITES_POR_TIPO);
+    private static final Semaphore cuposBd = new Semaphore(Config.LIMITE_CONCURRENCIA_BD);
+    private static final Semaphore cuposBdBaja = new Semaphore(Config.MAX_BD_BAJA_PRIORIDAD);
+    private static final Semaphore cuposSegundoPlano =
+        new Semaphore(Math.max(1, Config.TAMANO_POOL_BD - Config.LIMITE_CONCURRENCIA_BD), true);
+    private static final LongAdder[] rechazos = new LongAdder[Motivo.values().length];
+
+    static {
+        for (int i = 0; i < rechazos.length; i++) {
+            rechazos[i] = new LongAdder();
+        }
+    }
+
+    // En el accept: sin token disponible la conexión se rechaza antes de darle un hilo. No consume
+    // el token, lo hace la trama
+    public static boolean admitirConexion(InetAddress direccion) {
+        CuboTokens cubo = cubo(direccion);
+        if (cubo == null || cubo.hayToken()) return true;
+        rechazar(Motivo.DIRECCION);
+        return false;
+    }
+
+    public static boolean admitirTrama(InetAddress direccion) {
+        CuboTokens cubo = cubo(direccion);
+        if (cubo == null || cubo.tomar()) return true;
+        rechazar(Motivo.DIRECCION);
+        return false;
+    }
+
+    public static boolean admitirTipo(int tipo) {
+        CuboTokens[] cubos = porTipo;
+        CuboTokens cubo = tipo >= 0 && tipo < cubos.length ? cubos[tipo] : null;
+        if (cubo == null || cubo.tomar()) return true;
+        rechazar(Motivo.TIPO);
+        return false;
+    }
+
+    // Establecimiento de llamada, consulta de saldo y fin de llamada
+    static boolean esPrioritaria(Solicitud s) {
+        return s instanceof Solicitud.Llamada || s instanceof Solicitud.Consulta || s instanceof Solicitud.FinLlamada;
+    }
+
+    // Cada entrarBD exitoso debe cerrarse con salirBD del mismo carril
+    public static boolean entrarBD(boolean prioritaria) {
+        if (Config.LIMITE_CONCURRENCIA_BD <= 0) return true;
+        try {
+            if (prioritaria) {
+                if (cuposBd.tryAcquire(Config.ESPERA_BD_PRIORITARIA_MS, TimeUnit.MILLISECONDS)) return true;
+            } else if (cuposBdBaja.tryAcquire()) {
+                if (cuposBd.tryAcquire(Config.ESPERA_BD_BAJA_MS, TimeUnit.MILLISECONDS)) return true;
+                cuposBdBaja.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rechazar(Motivo.BD);
+        return false;
+    }
+
+    public static void salirBD(boolean prioritaria) {
+        if (Config.LIMITE_CONCURRENCIA_BD <= 0) return;
+        cuposBd.release();
+        if (!prioritaria) cuposBdBaja.release();
+    }
+
+    // Motores en segundo plano: espera sin límite (solo la interrupción la corta) y cada entrada
+    // exitosa debe cerrarse con salirSegundoPlano
+    public static boolean entrarSegundoPlano() {
+        if (Config.LIMITE_CONCURRENCIA_BD <= 0) return true;
+        try {
+            cuposSegundoPlano.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public static void salirSegundoPlano() {
+        if (Config.LIMITE_CONCURRENCIA_BD <= 0) return;
+        cuposSegundoPlano.release();
+    }
+
+    public static void rechazar(Motivo motivo) {
+        rechazos[motivo.ordinal()].increment();
+    }
+
+    public static long getRechazos(Motivo motivo) {
+        return rechazos[motivo.ordinal()].sum();
+    }
+
+    public static int getCuposBdLibres() {
+        return cuposBd.availablePermits();
+    }
+
+    // Cambió la configuración (los cupos de BD solo cambian al reiniciar)
+    static void recargarLimitesPorTipo() {
+        porTipo = leerLimitesPorTipo(Config.LIMITES_POR_TIPO);
+    }
+
+    // Las direcciones arrancan de nuevo con el cubo lleno a la tasa nueva
+    static void recargarTasaPorDireccion() {
+        direcciones.clear();
+    }
+
+    private static CuboTokens cubo(InetAddress direccion) {
+        if (Config.TASA_POR_DIRECCION <= 0 || direccion == null) return null;
+        CuboTokens cubo = direcciones.get(direccion);
+        if (cubo != null) return cubo;
+
+        if (direcciones.size() >= MAX_DIRECCIONES) purgar();
+        return direcciones.computeIfAbsent(direccion,
+            d -> new CuboTokens(Config.TASA_POR_DIRECCION, Config.RAFAGA_POR_DIRECCION));
+    }
+
+    // Como mucho una vez por segundo; una dirección que vuelve tras la purga arranca con el cubo lleno,
+    // que es lo mismo que tenía
+    private static void purgar() {
+        long ahora = System.currentTimeMillis();
+        long anterior = ultimaPurga.get();
+        if (ahora - anterior < 1000 || !ultimaPurga.compareAndSet(anterior, ahora)) return;
+        direcciones.values().removeIf(CuboTokens::estaLleno);
+    }
+
+    // "tipo=tramas/s" separados por coma; la ráfaga es un segundo de tasa
+    private static CuboTokens[] leerLimitesPorTipo(String texto) {
+        CuboTokens[] cubos = new CuboTokens[16];
+        for (String par : texto.split(",")) {
+            if (par.isBlank()) continue;
+            try {
+                String[] kv = par.split("=");
+                int tipo = Integer.parseInt(kv[0].trim());
+                double tasa = Double.parseDouble(kv[1].trim());
+                if (tipo >= 0 && tipo < cubos.length && tasa > 0) {
+                    cubos[tipo] = new CuboTokens(tasa, tasa);
+                }
+            } catch (RuntimeException e) {
+                Log.aviso("Límite por tipo inválido, se ignora: " + par);
+            }
+        }
+        return cubos;
+    }
+}
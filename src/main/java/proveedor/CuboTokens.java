@@ -0,0 +1,42 @@
+package proveedor;
+
+// Cubo de tokens: se rellena a una tasa fija hasta su capacidad (la ráfaga admitida) y cada trama
+// consume uno. El relleno se calcula al consultar, sin hilos aparte
+final class CuboTokens {
+    private final double tasaPorNano;
+    private final double capacidad;
+    private double tokens;
+    private long ultimo;
+
+    CuboTokens(double tasaPorSegundo, double capacidad) {
+        this.tasaPorNano = tasaPorSegundo / 1_000_000_000.0;
+        this.capacidad = Math.max(1, capacidad);
+        this.tokens = this.capacidad;
+        this.ultimo = System.nanoTime();
+    }
+
+    synchronized boolean tomar() {
+        rellenar();
+        if (tokens < 1) return false;
+        tokens -= 1;
+        return true;
+    }
+
+    // Sin consumir: para rechazar en el accept sin gastar el token de la trama
+    synchronized boolean hayToken() {
+        rellenar();
+        return tokens >= 1;
+    }
+
+    // Lleno: la dirección no mandó nada en el último tiempo de relleno
+    synchronized boolean estaLleno() {
+        rellenar();
+        return tokens >= capacidad;
+    }
+
+    private void rellenar() {
+        long ahora = System.nanoTime();
+        tokens = Math.min(capacidad, tokens + (ahora - ultimo) * tasaPorNano);
+        ultimo = ahora;
+    }
+}
@@ -0,0 +1,120 @@
+package proveedor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Entrega en segundo plano las notificaciones de estado de línea guardadas en
+// NOTIFICACIONES_PENDIENTES (outbox). La transacción 6 deja la fila junto con el cambio de estado
+// y responde al confirmar; aquí se envían por lotes, se reintentan con espera exponencial y se
+// borran al recibir el OK. Cada trama lleva su clave de idempotencia (id_notificacion) porque
+// una caída entre el envío y el borrado hace que se reenvíe
+public class DespachadorNotificaciones {
+
+    public record Pendiente(long id, String clave, String trama, int intentos) {}
+
+    private static final Semaphore aviso = new Semaphore(0);
+    private static volatile boolean activo;
+
+    // Si la tabla no existe (script sql/ sin aplicar) se sigue notificando en línea como antes
+    public static synchronized void iniciar() {
+        if (activo || !Config.OUTBOX_NOTIFICACIONES) return;
+
+        try (ConexionSQLServer db = new ConexionSQLServer()) {
+            if (!db.conectarSegundoPlano() || !db.existeOutboxNotificaciones()) {
+                Log.aviso("Outbox de notificaciones no disponible, se notifica al Identificador en línea");
+                return;
+            }
+        }
+
+        activo = true;
+        Thread hilo = new Thread(DespachadorNotificaciones::ejecutar, "despachador-notificaciones");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    public static boolean estaActivo() {
+        return activo;
+    }
+
+    // Despierta al despachador tras registrar una notificación, sin esperar al siguiente sondeo
+    public static void avisar() {
+        if (aviso.availablePermits() == 0) {
+            aviso.release();
+        }
+    }
+
+    private static void ejecutar() {
+        while (true) {
+            try {
+                aviso.tryAcquire(Config.ESPERA_NOTIFICACIONES_MS, TimeUnit.MILLISECONDS);
+                aviso.drainPermits();
+
+                // Con el lote lleno probablemente quedan más vencidas
+                while (despacharLote() == Config.LOTE_NOTIFICACIONES) {
+                    // sigue
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                Log.error("Error despachando notificaciones: " + e.getMessage());
+            }
+        }
+    }
+
+    private static int despacharLote() throws SQLException {
+        // La reserva cubre el peor caso de un envío; si el proceso cae, la fila vuelve a vencer
+        int reservaMs = 2 * (Config.TIMEOUT_CONEXION_IDENTIFICADOR_MS + Config.TIMEOUT_RESPUESTA_IDENTIFICADOR_MS);
+
+        List<Pendiente> lote;
+        try (ConexionSQLServer db = new ConexionSQLServer()) {
+            if (!db.conectarSegundoPlano()) return 0;
+            lote = db.tomarNotificaciones(Config.LOTE_NOTIFICACIONES, reservaMs);
+        }
+        if (lote.isEmpty()) return 0;
+
+        // Todo el lote sale en paralelo; no se retiene la conexión a la BD mientras tanto
+        List<CompletableFuture<Boolean>> envios = new ArrayList<>(lote.size());
+        for (Pendiente p : lote) {
+            envios.add(NotificadorIdentificador.enviarTrama(p.trama()));
+        }
+
+        List<Long> entregadas = new ArrayList<>();
+        Map<Long, Integer> reintentos = new HashMap<>();
+        List<Long> fallidas = new ArrayList<>();
+        for (int i = 0; i < lote.size(); i++) {
+            Pendiente p = lote.get(i);
+            if (envios.get(i).join()) {
+                entregadas.add(p.id());
+            } else if (p.intentos() >= Config.MAX_INTENTOS_NOTIFICACION) {
+                Log.aviso("Notificación " + p.clave() + " marcada como fallida tras " + p.intentos() + " intentos");
+                fallidas.add(p.id());
+            } else {
+                reintentos.put(p.id(), esperaReintento(p.intentos()));
+            }
+        }
+
+        try (ConexionSQLServer db = new ConexionSQLServer()) {
+            if (!db.conectarSegundoPlano()) {
+                // Las filas vencen solas al terminar la reserva y se reintentan
+                return 0;
+            }
+            db.cerrarRondaNotificaciones(entregadas, reintentos, fallidas);
+        }
+        return lote.size();
+    }
+
+    // Espera exponencial acotada con +-20% de variación para no reintentar todas juntas
+    private static int esperaReintento(int intentos) {
+        long base = (long) Config.REINTENTO_NOTIFICACION_MIN_MS << Math.min(intentos - 1, 20);
+        long espera = Math.min(base, Config.REINTENTO_NOTIFICACION_MAX_MS);
+        return (int) (espera * ThreadLocalRandom.current().nextDouble(0.8, 1.2));
+    }
+}
@@ -0,0 +1,120 @@
+package proveedor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Buffer de salida de una conexión: guarda la respuesta de la trama en curso ya codificada.
+// Las respuestas fijas se copian desde Respuestas y las de llamada y saldo escriben sus campos
+// numéricos de ancho fijo directo en bytes, sin String.format ni cadenas intermedias
+final class EscritorRespuesta {
+    private static final byte[] LLAMADA_INICIO = ascii("{\"status\":\"OK\",\"costo\":\"");
+    private static final byte[] LLAMADA_TIEMPO = ascii("\",\"tiempo\":\"");
+    private static final byte[] SALDO_INICIO = ascii("{\"status\":\"OK\",\"saldo\":\"");
+    private static final byte[] CIERRE = ascii("\"}");
+
+    private byte[] buffer = new byte[128];
+    private int largo;
+
+    void escribir(byte[] plantilla) {
+        largo = 0;
+        agregar(plantilla);
+    }
+
+    // {"status":"OK","costo":"%010d","tiempo":"%02d%02d%02d"}
+    void llamada(long costoCentavos, int segundos) {
+        largo = 0;
+        agregar(LLAMADA_INICIO);
+        numero(costoCentavos, 10);
+        agregar(LLAMADA_TIEMPO);
+        numero(segundos / 3600, 2);
+        numero((segundos % 3600) / 60, 2);
+        numero(segundos % 60, 2);
+        agregar(CIERRE);
+        agregar(Respuestas.FIN_LINEA);
+    }
+
+    // {"status":"OK","saldo":"%.2f"} siempre con punto decimal, sin depender del locale. Formatter
+    // redondea HALF_UP sobre los dígitos de Double.toString (1.005 da "1.01") y conserva el signo de
+    // -0.00; Math.round(saldo * 100) redondea el binario y no da lo mismo
+    void saldo(double saldo) {
+        largo = 0;
+        agregar(SALDO_INICIO);
+        if (Double.isFinite(saldo)) {
+            if (Math.copySign(1.0, saldo) < 0) agregar((byte) '-');
+            agregar(ascii(BigDecimal.valueOf(Math.abs(saldo)).setScale(2, RoundingMode.HALF_UP).toPlainString()));
+        } else {
+            agregar(ascii(Double.toString(saldo)));
+        }
+        agregar(CIERRE);
+        agregar(Respuestas.FIN_LINEA);
+    }
+
+    // Respuestas poco frecuentes que no justifican una plantilla propia
+    void json(String json) {
+        largo = 0;
+        agregar(json.getBytes(StandardCharsets.UTF_8));
+        agregar(Respuestas.FIN_LINEA);
+    }
+
+    void escribirEn(OutputStream salida) throws IOException {
+        salida.write(buffer, 0, largo);
+    }
+
+    // Vista sobre el buffer, válida hasta la siguiente respuesta de la misma conexión
+    ByteBuffer comoByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, largo);
+    }
+
+    // Para los logs: el JSON sin el fin de línea
+    @Override
+    public String toString() {
+        int fin = largo - Respuestas.FIN_LINEA.length;
+        return new String(buffer, 0, Math.max(fin, 0), StandardCharsets.UTF_8);
+    }
+
+    // Igual que %0<ancho>d: rellena con ceros y, si el número no cabe, usa los dígitos que hagan falta
+    private void numero(long valor, int ancho) {
+        if (valor < 0) {
+            agregar((byte) '-');
+            valor = -valor;
+            ancho--;
+        }
+        int digitos = 1;
+        for (long v = valor / 10; v > 0; v /= 10) {
+            digitos++;
+        }
+        int total = Math.max(digitos, ancho);
+        asegurar(total);
+        for (int i = largo + total - 1; i >= largo; i--) {
+            buffer[i] = (byte) ('0' + valor % 10);
+            valor /= 10;
+        }
+        largo += total;
+    }
+
+    private void agregar(byte[] datos) {
+        asegurar(datos.length);
+        System.arraycopy(datos, 0, buffer, largo, datos.length);
+        largo += datos.length;
+    }
+
+    private void agregar(byte b) {
+        asegurar(1);
+        buffer[largo++] = b;
+    }
+
+    private void asegurar(int extra) {
+        if (largo + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, largo + extra));
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,84 @@
+package proveedor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histograma de latencias en microsegundos con cubetas log-lineales (al estilo HdrHistogram):
+// cada potencia de dos se parte en 16 cubetas iguales, así el error relativo de un percentil
+// queda por debajo del 6,25% en todo el rango. Registrar es un par de operaciones atómicas,
+// sin candados ni reservas de memoria
+final class Histograma {
+    private static final int BITS_SUB = 4;
+    private static final int SUB = 1 << BITS_SUB;
+    // Hasta 2^40 us (unos 12 días), de sobra para cualquier latencia
+    private static final int EXPONENTE_MAX = 40;
+    private static final int CUBETAS = (EXPONENTE_MAX - BITS_SUB + 2) * SUB;
+
+    private final AtomicLongArray cuentas = new AtomicLongArray(CUBETAS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder suma = new LongAdder();
+    private final AtomicLong maximo = new AtomicLong();
+
+    void registrar(long micros) {
+        if (micros < 0) micros = 0;
+        cuentas.incrementAndGet(cubeta(micros));
+        total.increment();
+        suma.add(micros);
+        if (micros > maximo.get()) {
+            maximo.accumulateAndGet(micros, Math::max);
+        }
+    }
+
+    void registrarDesde(long inicioNanos) {
+        registrar((System.nanoTime() - inicioNanos) / 1000);
+    }
+
+    long getTotal() {
+        return total.sum();
+    }
+
+    long getSumaMicros() {
+        return suma.sum();
+    }
+
+    long getMaximoMicros() {
+        return maximo.get();
+    }
+
+    // Límite superior de la cubeta que contiene el percentil p (0..1)
+    long percentilMicros(double p) {
+        long n = 0;
+        long[] copia = new long[CUBETAS];
+        for (int i = 0; i < CUBETAS; i++) {
+            copia[i] = cuentas.get(i);
+            n += copia[i];
+        }
+        if (n == 0) return 0;
+
+        long objetivo = Math.max(1, (long) Math.ceil(p * n));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += copia[i];
+            if (acumulado >= objetivo) {
+                return Math.min(limiteSuperior(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    private static int cubeta(long valor) {
+        if (valor < SUB) return (int) valor;
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        if (exponente > EXPONENTE_MAX) return CUBETAS - 1;
+        int sub = (int) (valor >>> (exponente - BITS_SUB)) & (SUB - 1);
+        return (exponente - BITS_SUB + 1) * SUB + sub;
+    }
+
+    private static long limiteSuperior(int cubeta) {
+        if (cubeta < SUB) return cubeta;
+        int exponente = cubeta / SUB + BITS_SUB - 1;
+        long sub = cubeta % SUB;
+        return ((SUB + sub + 1) << (exponente - BITS_SUB)) - 1;
+    }
+}
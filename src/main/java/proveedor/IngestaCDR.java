@@ -0,0 +1,445 @@
+package proveedor;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Ingesta de CDR de fin de llamada (transacción 5). El registro se confirma al cliente en cuanto
+// queda escrito (y sincronizado) en un WAL local; un hilo aparte los guarda en la BD por lotes,
+// en una sola transacción por lote junto con los rebajos de saldo prepago y la secuencia aplicada
+// (CDR_APLICADOS). Al arrancar se reenvían los registros del WAL que no llegaron a la BD.
+//
+// El WAL son segmentos cdr-<primera secuencia>.wal; solo se escribe en el último. Tras un checkpoint
+// el segmento activo pasa a uno nuevo si superó Config.SEGMENTO_WAL_CDR_KB, y se borran los segmentos
+// cuyos registros ya están todos confirmados, así el WAL no crece con tráfico constante
+public class IngestaCDR {
+
+    public record RegistroCDR(long secuencia, String origen, String destino, String fecha, String hora,
+                              double costo, String duracion, String tipoServicio) {
+    }
+
+    // 4 parámetros por fila y SQL Server admite hasta 2100 por sentencia
+    private static final int MAX_LOTE = 500;
+
+    private static final Object candado = new Object();
+    private static final Object candadoSync = new Object();
+    private static final LinkedBlockingQueue<RegistroCDR> cola = new LinkedBlockingQueue<>();
+
+    private static FileChannel wal;                   // segmento activo, protegido por candado
+    private static Path directorio;
+    private static final TreeMap<Long, Path> segmentos = new TreeMap<>();   // por primera secuencia, protegido por candado
+    private static Path rutaCheckpoint;
+    private static Path rutaRechazados;
+    private static String origenWal;                  // null sin la tabla CDR_APLICADOS
+    private static long ultimaSecuencia;              // protegido por candado
+    private static long aplicada;                     // solo el hilo escritor, tras iniciar
+    private static final AtomicInteger sinAplicar = new AtomicInteger();
+    private static final ConcurrentHashMap<String, Integer> prepagoSinAplicar = new ConcurrentHashMap<>();
+    private static volatile long secuenciaSincronizada;
+    private static volatile boolean activa;
+
+    public static synchronized void iniciar() throws IOException {
+        if (activa) return;
+
+        Path dir = Paths.get(Config.DIRECTORIO_CDR);
+        Files.createDirectories(dir);
+        directorio = dir;
+        rutaCheckpoint = dir.resolve("cdr.checkpoint");
+        rutaRechazados = dir.resolve("cdr.rechazados");
+
+        // El checkpoint local puede quedar atrás de la BD si el proceso cae entre el commit y su escritura
+        long checkpoint = Math.max(leerCheckpoint(), leerAplicada(dir));
+        aplicada = checkpoint;
+        ultimaSecuencia = checkpoint;
+
+        // El WAL de un solo archivo de versiones anteriores se reenvía como el primer segmento
+        Path anterior = dir.resolve("cdr.wal");
+        if (Files.exists(anterior)) {
+            Files.move(anterior, rutaSegmento(0), StandardCopyOption.ATOMIC_MOVE);
+        }
+        try (DirectoryStream<Path> archivos = Files.newDirectoryStream(dir, "cdr-*.wal")) {
+            for (Path archivo : archivos) {
+                String nombre = archivo.getFileName().toString();
+                try {
+                    segmentos.put(Long.parseLong(nombre.substring(4, nombre.length() - 4)), archivo);
+                } catch (NumberFormatException e) {
+                    Log.aviso("Archivo desconocido en el directorio del WAL de CDR, se ignora: " + archivo);
+                }
+            }
+        }
+
+        // Reenvío de lo pendiente, leyendo los segmentos en orden y sin cargarlos enteros
+        int pendientes = 0;
+        for (Path segmento : segmentos.values()) {
+            pendientes += reenviar(segmento, checkpoint);
+        }
+
+        // Siempre se escribe en un segmento nuevo: una línea incompleta al final del último (caída a
+        // mitad de escritura) queda atrás y nunca se le agrega nada a continuación
+        abrirSegmento(ultimaSecuencia + 1);
+        secuenciaSincronizada = ultimaSecuencia;
+        borrarConfirmados(checkpoint);
+
+        Thread escritor = new Thread(IngestaCDR::escribirLotes, "ingesta-cdr");
+        escritor.setDaemon(true);
+        escritor.start();
+        activa = true;
+
+        Log.info("Ingesta de CDR iniciada (" + pendientes + " registros pendientes del WAL)");
+    }
+
+    public static boolean estaActiva() {
+        return activa;
+    }
+
+    public static int getPendientes() {
+        return cola.size();
+    }
+
+    // Encolados más el lote que se está guardando: hasta que llega a 0 la BD no refleja todos los CDR
+    public static int getSinAplicar() {
+        return sinAplicar.get();
+    }
+
+    // Rebajos prepago de la línea que todavía no llegaron a la BD: mientras no sea 0 el saldo de la
+    // BD no es el real y MotorReservas no debe descargar la cuenta
+    public static int getSinAplicar(String numero) {
+        return prepagoSinAplicar.getOrDefault(numero, 0);
+    }
+
+    // Devuelve true cuando el CDR ya es durable en el WAL
+    public static boolean registrar(String origen, String destino, String fecha, String hora,
+                                    double costo, String duracion, String tipoServicio) {
+        long secuencia;
+        try {
+            synchronized (candado) {
+                secuencia = ultimaSecuencia + 1;
+                RegistroCDR cdr = new RegistroCDR(secuencia, origen, destino, fecha, hora, costo, duracion, tipoServicio);
+
+                long tamano = wal.size();
+                ByteBuffer buf = ByteBuffer.wrap(codificar(cdr).getBytes(StandardCharsets.UTF_8));
+                try {
+                    while (buf.hasRemaining()) {
+                        wal.write(buf);
+                    }
+                } catch (IOException e) {
+                    wal.truncate(tamano);
+                    throw e;
+                }
+
+                ultimaSecuencia = secuencia;
+                contarPendiente(cdr);
+                // Se encola dentro del candado para que la cola respete el orden de secuencia
+                cola.add(cdr);
+            }
+            sincronizar(secuencia);
+            return true;
+        } catch (IOException e) {
+            Log.error("Error escribiendo CDR en el WAL: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // fsync agrupado: quien sincroniza cubre también lo que otros hilos escribieron antes
+    private static void sincronizar(long secuencia) throws IOException {
+        if (!Config.CDR_FSYNC) return;
+        synchronized (candadoSync) {
+            if (secuenciaSincronizada >= secuencia) return;
+            long hasta;
+            synchronized (candado) {
+                hasta = ultimaSecuencia;
+            }
+            wal.force(false);
+            secuenciaSincronizada = hasta;
+        }
+    }
+
+    private static void escribirLotes() {
+        int maxLote = Math.max(1, Math.min(Config.LOTE_CDR, MAX_LOTE));
+        List<RegistroCDR> lote = new ArrayList<>(maxLote);
+        while (true) {
+            try {
+                if (lote.isEmpty()) {
+                    lote.add(cola.take());
+                    if (Config.ESPERA_LOTE_CDR_MS > 0 && cola.size() < maxLote - 1) {
+                        Thread.sleep(Config.ESPERA_LOTE_CDR_MS);
+                    }
+                }
+                cola.drainTo(lote, maxLote - lote.size());
+
+                // Una vez guardado el lote no se vuelve a intentar aunque falle el checkpoint local.
+                // guardarLote quita de la lista lo ya aplicado, por eso se descuenta sobre una copia
+                List<RegistroCDR> tomados = List.copyOf(lote);
+                long ultima = lote.get(lote.size() - 1).secuencia();
+                guardarLote(lote);
+                lote.clear();
+                tomados.forEach(IngestaCDR::descontarAplicado);
+                marcarConfirmado(ultima);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                Log.error("Error en la ingesta de CDR: " + e.getMessage());
+            }
+        }
+    }
+
+    // Reintenta hasta poder guardar; si un lote falla por sus datos se guarda registro por registro
+    // y los que la BD rechaza van a cdr.rechazados para no frenar al resto. Lo ya aplicado en un
+    // intento anterior no se vuelve a insertar
+    private static void guardarLote(List<RegistroCDR> lote) throws InterruptedException {
+        while (true) {
+            lote.removeIf(cdr -> cdr.secuencia() <= aplicada);
+            if (lote.isEmpty()) return;
+
+            try (ConexionSQLServer db = new ConexionSQLServer()) {
+                if (db.conectarSegundoPlano()) {
+                    try {
+                        db.registrarLoteCDR(lote, origenWal);
+                        aplicada = lote.get(lote.size() - 1).secuencia();
+                        break;
+                    } catch (SQLException e) {
+                        if (esTransitorio(e)) throw e;
+                        Log.aviso("Lote de CDR rechazado (" + e.getMessage() + "), se guarda uno por uno");
+                        guardarUnoPorUno(db, lote);
+                        break;
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                Log.aviso("Error guardando lote de CDR, se reintenta: " + e.getMessage());
+            }
+            Thread.sleep(Config.REINTENTO_CDR_MS);
+        }
+
+        for (RegistroCDR cdr : lote) {
+            if ("prepago".equals(cdr.tipoServicio())) {
+                CachePerfiles.invalidar(cdr.origen());
+            }
+        }
+    }
+
+    private static void guardarUnoPorUno(ConexionSQLServer db, List<RegistroCDR> lote) throws SQLException {
+        for (RegistroCDR cdr : lote) {
+            try {
+                db.registrarLoteCDR(List.of(cdr), origenWal);
+            } catch (SQLException e) {
+                if (esTransitorio(e)) throw e;
+                Log.error("CDR " + cdr.secuencia() + " rechazado por la BD: " + e.getMessage());
+                try {
+                    Files.writeString(rutaRechazados, codificar(cdr), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                } catch (IOException ex) {
+                    Log.error("No se pudo escribir en cdr.rechazados (" + ex.getMessage() + "): " + codificar(cdr).trim());
+                }
+            }
+            aplicada = cdr.secuencia();
+        }
+    }
+
+    private static void contarPendiente(RegistroCDR cdr) {
+        sinAplicar.incrementAndGet();
+        if ("prepago".equals(cdr.tipoServicio())) {
+            prepagoSinAplicar.merge(cdr.origen(), 1, Integer::sum);
+        }
+    }
+
+    // En 0 la línea sale del mapa, que solo guarda las que tienen algo pendiente
+    private static void descontarAplicado(RegistroCDR cdr) {
+        sinAplicar.decrementAndGet();
+        if ("prepago".equals(cdr.tipoServicio())) {
+            prepagoSinAplicar.computeIfPresent(cdr.origen(), (numero, n) -> n > 1 ? n - 1 : null);
+        }
+    }
+
+    // Conexión caída, timeout o deadlock: vale la pena reintentar el lote completo
+    static boolean esTransitorio(SQLException e) {
+        String estado = e.getSQLState();
+        return e instanceof SQLTransientException
+            || e.getErrorCode() == 1205
+            || (estado != null && (estado.startsWith("08") || estado.equals("40001")));
+    }
+
+    // Encola los registros del segmento posteriores al checkpoint y devuelve cuántos
+    private static int reenviar(Path segmento, long checkpoint) throws IOException {
+        int pendientes = 0;
+        try (InputStream entrada = new BufferedInputStream(Files.newInputStream(segmento), 64 * 1024)) {
+            ByteArrayOutputStream linea = new ByteArrayOutputStream(256);
+            int b;
+            while ((b = entrada.read()) >= 0) {
+                if (b != '\n') {
+                    linea.write(b);
+                    continue;
+                }
+
+                RegistroCDR cdr = decodificar(linea.toString(StandardCharsets.UTF_8));
+                linea.reset();
+                if (cdr == null) {
+                    Log.aviso("Registro ilegible en el WAL de CDR, se ignora");
+                    continue;
+                }
+                if (cdr.secuencia() > checkpoint) {
+                    cola.add(cdr);
+                    contarPendiente(cdr);
+                    pendientes++;
+                }
+                ultimaSecuencia = Math.max(ultimaSecuencia, cdr.secuencia());
+            }
+        }
+        return pendientes;
+    }
+
+    private static Path rutaSegmento(long primera) {
+        return directorio.resolve(String.format("cdr-%020d.wal", primera));
+    }
+
+    // Con el candado tomado (o antes de arrancar el escritor)
+    private static void abrirSegmento(long primera) throws IOException {
+        Path ruta = rutaSegmento(primera);
+        wal = FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        segmentos.put(primera, ruta);
+    }
+
+    // Un segmento que no es el activo termina donde empieza el siguiente; si todo lo suyo está
+    // confirmado se borra
+    private static void borrarConfirmados(long confirmada) {
+        List<Path> borrar = new ArrayList<>();
+        synchronized (candado) {
+            Map.Entry<Long, Path> activo = segmentos.lastEntry();
+            for (Long primera : new ArrayList<>(segmentos.headMap(activo.getKey()).keySet())) {
+                long hasta = segmentos.higherKey(primera) - 1;
+                if (hasta > confirmada) break;
+                borrar.add(segmentos.remove(primera));
+            }
+        }
+        for (Path segmento : borrar) {
+            try {
+                Files.deleteIfExists(segmento);
+            } catch (IOException e) {
+                Log.aviso("No se pudo borrar el segmento de WAL " + segmento + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void marcarConfirmado(long secuencia) throws IOException {
+        Path temporal = rutaCheckpoint.resolveSibling("cdr.checkpoint.tmp");
+        try (FileChannel c = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            c.write(ByteBuffer.wrap(Long.toString(secuencia).getBytes(StandardCharsets.US_ASCII)));
+            c.force(true);
+        }
+        Files.move(temporal, rutaCheckpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Si ya no queda nada pendiente el segmento activo se vacía; si no, pasado el tamaño se sigue
+        // en uno nuevo. Se cierra con candadoSync tomado para que ningún fsync quede sobre el anterior
+        synchronized (candadoSync) {
+            synchronized (candado) {
+                if (ultimaSecuencia == secuencia) {
+                    wal.truncate(0);
+                } else if (wal.size() >= Config.SEGMENTO_WAL_CDR_KB * 1024L) {
+                    if (Config.CDR_FSYNC) wal.force(false);
+                    secuenciaSincronizada = ultimaSecuencia;
+                    wal.close();
+                    abrirSegmento(ultimaSecuencia + 1);
+                }
+            }
+        }
+        borrarConfirmados(secuencia);
+    }
+
+    // Sin la tabla (script sql/ sin aplicar) o sin BD al arrancar solo cuenta el checkpoint local
+    private static long leerAplicada(Path dir) {
+        try (ConexionSQLServer db = new ConexionSQLServer()) {
+            if (db.conectarSegundoPlano() && db.existeCdrAplicados()) {
+                String equipo;
+                try {
+                    equipo = InetAddress.getLocalHost().getHostName();
+                } catch (IOException e) {
+                    equipo = "localhost";
+                }
+                String origen = equipo + ":" + dir.toAbsolutePath().normalize();
+                long secuencia = db.ultimaSecuenciaCDR(origen);
+                origenWal = origen;
+                return secuencia;
+            }
+            Log.aviso("Tabla CDR_APLICADOS no disponible, el reenvío del WAL depende solo del checkpoint local");
+        } catch (Exception e) {
+            Log.aviso("No se pudo leer la secuencia aplicada de CDR: " + e.getMessage());
+        }
+        return 0;
+    }
+
+    private static long leerCheckpoint() throws IOException {
+        if (!Files.exists(rutaCheckpoint)) return 0;
+        String texto = Files.readString(rutaCheckpoint, StandardCharsets.US_ASCII).trim();
+        return texto.isEmpty() ? 0 : Long.parseLong(texto);
+    }
+
+    // Una línea por registro, campos separados por tabulador
+    private static String codificar(RegistroCDR c) {
+        return c.secuencia() + "\t" + escapar(c.origen()) + "\t" + escapar(c.destino()) + "\t"
+            + escapar(c.fecha()) + "\t" + escapar(c.hora()) + "\t" + c.costo() + "\t"
+            + escapar(c.duracion()) + "\t" + escapar(c.tipoServicio()) + "\n";
+    }
+
+    private static RegistroCDR decodificar(String linea) {
+        String[] campos = linea.split("\t", -1);
+        if (campos.length != 8) return null;
+        try {
+            return new RegistroCDR(Long.parseLong(campos[0]), desescapar(campos[1]), desescapar(campos[2]),
+                desescapar(campos[3]), desescapar(campos[4]), Double.parseDouble(campos[5]),
+                desescapar(campos[6]), desescapar(campos[7]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String escapar(String s) {
+        if (s == null) return "\\0";
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default:   sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String desescapar(String s) {
+        if (s.equals("\\0")) return null;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 == s.length()) {
+                sb.append(c);
+                continue;
+            }
+            char sig = s.charAt(++i);
+            switch (sig) {
+                case 't': sb.append('\t'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                default:  sb.append(sig);
+            }
+        }
+        return sb.toString();
+    }
+}
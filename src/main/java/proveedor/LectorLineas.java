@@ -0,0 +1,87 @@
+package proveedor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Lector de tramas por línea para los modos bloqueantes (hilos y virtual), con el mismo límite que
+// ServidorNio: una trama (con su fin de línea) debe entrar en Config.MAX_LONGITUD_TRAMA bytes. Un
+// cliente que manda una línea sin fin no hace crecer nada más allá de ese buffer
+final class LectorLineas {
+
+    // La línea superó el máximo; lo leído hasta ahí queda en el buffer y la conexión debe cerrarse
+    static final class TramaLarga extends IOException {
+        TramaLarga() {
+            super("Trama demasiado larga");
+        }
+    }
+
+    private final InputStream entrada;
+    private final byte[] datos;
+    private int inicio;
+    private int fin;
+    private int revisado;       // hasta dónde se buscó el fin de línea sin encontrarlo
+
+    LectorLineas(InputStream entrada, int maximo) {
+        this.entrada = entrada;
+        this.datos = new byte[maximo];
+    }
+
+    // Devuelve la siguiente línea (sin \r\n); al llegar el fin de flujo, lo que quede, o null si no
+    // queda nada
+    String leerLinea() throws IOException {
+        while (true) {
+            int finLinea = buscarFinLinea();
+            if (finLinea >= 0) {
+                return extraer(finLinea, finLinea + 1);
+            }
+
+            compactar();
+            if (fin == datos.length) throw new TramaLarga();
+
+            int n = entrada.read(datos, fin, datos.length - fin);
+            if (n < 0) {
+                return fin > inicio ? extraer(fin, fin) : null;
+            }
+            fin += n;
+        }
+    }
+
+    // Hay una trama completa lista para leerLinea sin bloquear: en el buffer o entre lo que ya
+    // llegó al socket. Un trozo de la trama siguiente no cuenta, porque esperarlo bloquearía
+    boolean hayLineaCompleta() throws IOException {
+        while (buscarFinLinea() < 0) {
+            compactar();
+            int disponibles = Math.min(entrada.available(), datos.length - fin);
+            if (disponibles <= 0) return false;
+            int n = entrada.read(datos, fin, disponibles);
+            if (n <= 0) return false;
+            fin += n;
+        }
+        return true;
+    }
+
+    private void compactar() {
+        if (inicio == 0) return;
+        System.arraycopy(datos, inicio, datos, 0, fin - inicio);
+        fin -= inicio;
+        revisado -= inicio;
+        inicio = 0;
+    }
+
+    private int buscarFinLinea() {
+        for (int i = Math.max(inicio, revisado); i < fin; i++) {
+            if (datos[i] == '\n') return i;
+        }
+        revisado = fin;
+        return -1;
+    }
+
+    private String extraer(int largo, int consumido) {
+        int hasta = largo > inicio && datos[largo - 1] == '\r' ? largo - 1 : largo;
+        String linea = new String(datos, inicio, hasta - inicio, StandardCharsets.UTF_8);
+        inicio = consumido;
+        revisado = consumido;
+        return linea;
+    }
+}
@@ -0,0 +1,254 @@
+package proveedor;
+
+import java.util.Arrays;
+
+// Lector de tramas del protocolo: un objeto JSON plano con valores cadena, número, booleano o null.
+// Recorre el texto una sola vez, guarda solo los campos conocidos y rechaza lo que no sea JSON
+// válido (objetos o arreglos anidados, claves repetidas, basura al final). Cada conexión usa su
+// propio lector, así el buffer de escapes y el arreglo de valores se reutilizan entre tramas
+final class LectorTrama {
+
+    enum Campo {
+        TIPO_TRANSACCION("tipo_transaccion"),
+        TELEFONO("telefono"),
+        DESTINO("destino"),
+        TIPO_LLAMADA("tipo_llamada"),
+        FECHA("fecha"),
+        HORA("hora"),
+        DURACION("duracion"),
+        COSTO("costo"),
+        IDENTIFICADOR_TEL("identificadorTel"),
+        IDENTIFICADOR_TARJETA("identificador_tarjeta"),
+        TIPO("tipo"),
+        ESTADO("estado"),
+        DUENIO("duenio"),
+        FECHA_CALCULO("fecha_calculo"),
+        FECHA_MAX_PAGO("fecha_max_pago"),
+        KEEP_ALIVE("keep_alive"),
+        ARCHIVO("archivo"),
+        TRABAJO("trabajo"),
+        REENVIADO("reenviado"),
+        ACCION("accion"),
+        NODO("nodo");
+
+        final String nombre;
+
+        Campo(String nombre) {
+            this.nombre = nombre;
+        }
+    }
+
+    private static final Campo[] CAMPOS = Campo.values();
+    private static final int DESCONOCIDO = -1;
+    private static final int INVALIDO = -2;
+
+    // Marca de error: se compara por identidad
+    private static final String ERROR = new String("ERROR");
+
+    private final String[] valores = new String[CAMPOS.length];
+    private final boolean[] presentes = new boolean[CAMPOS.length];
+    private final StringBuilder buffer = new StringBuilder(64);
+    private String s;
+    private int pos;
+
+    boolean leer(String trama) {
+        Arrays.fill(valores, null);
+        Arrays.fill(presentes, false);
+        s = trama;
+        pos = 0;
+        try {
+            saltarEspacios();
+            if (!consumir('{')) return false;
+            saltarEspacios();
+            if (consumir('}')) return finDocumento();
+
+            while (true) {
+                saltarEspacios();
+                int campo = leerClave();
+                if (campo == INVALIDO) return false;
+                saltarEspacios();
+                if (!consumir(':')) return false;
+                saltarEspacios();
+
+                String valor = leerValor();
+                if (valor == ERROR) return false;
+                if (campo != DESCONOCIDO) {
+                    if (presentes[campo]) return false;
+                    presentes[campo] = true;
+                    valores[campo] = valor;
+                }
+
+                saltarEspacios();
+                if (consumir(',')) continue;
+                if (consumir('}')) return finDocumento();
+                return false;
+            }
+        } finally {
+            s = null;
+        }
+    }
+
+    String get(Campo campo) {
+        return valores[campo.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (Campo c : CAMPOS) {
+            if (!presentes[c.ordinal()]) continue;
+            if (sb.length() > 1) sb.append(", ");
+            sb.append(c.nombre).append('=').append(valores[c.ordinal()]);
+        }
+        return sb.append('}').toString();
+    }
+
+    private boolean finDocumento() {
+        saltarEspacios();
+        return pos == s.length();
+    }
+
+    private void saltarEspacios() {
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') return;
+            pos++;
+        }
+    }
+
+    private boolean consumir(char esperado) {
+        if (pos < s.length() && s.charAt(pos) == esperado) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    // Las claves sin escapes se comparan directo sobre el texto, sin crear cadenas
+    private int leerClave() {
+        if (!consumir('"')) return INVALIDO;
+        int inicio = pos;
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if (c == '"') {
+                int largo = pos - inicio;
+                pos++;
+                for (Campo campo : CAMPOS) {
+                    if (campo.nombre.length() == largo && s.regionMatches(inicio, campo.nombre, 0, largo)) {
+                        return campo.ordinal();
+                    }
+                }
+                return DESCONOCIDO;
+            }
+            if (c == '\\' || c < 0x20) break;
+            pos++;
+        }
+
+        pos = inicio - 1;
+        String clave = leerCadena();
+        if (clave == ERROR) return INVALIDO;
+        for (Campo campo : CAMPOS) {
+            if (campo.nombre.equals(clave)) return campo.ordinal();
+        }
+        return DESCONOCIDO;
+    }
+
+    private String leerValor() {
+        if (pos >= s.length()) return ERROR;
+        char c = s.charAt(pos);
+        switch (c) {
+            case '"': return leerCadena();
+            case 't': return leerLiteral("true") ? "true" : ERROR;
+            case 'f': return leerLiteral("false") ? "false" : ERROR;
+            case 'n': return leerLiteral("null") ? null : ERROR;
+            default:
+                return (c == '-' || (c >= '0' && c <= '9')) ? leerNumero() : ERROR;
+        }
+    }
+
+    private boolean leerLiteral(String literal) {
+        if (!s.startsWith(literal, pos)) return false;
+        pos += literal.length();
+        return true;
+    }
+
+    // Número JSON; se devuelve tal como viene escrito
+    private String leerNumero() {
+        int inicio = pos;
+        consumir('-');
+        if (consumir('0')) {
+            // sin ceros a la izquierda
+        } else if (!digitos()) {
+            return ERROR;
+        }
+        if (consumir('.') && !digitos()) return ERROR;
+        if (consumir('e') || consumir('E')) {
+            if (!consumir('+')) consumir('-');
+            if (!digitos()) return ERROR;
+        }
+        return s.substring(inicio, pos);
+    }
+
+    private boolean digitos() {
+        int inicio = pos;
+        while (pos < s.length() && s.charAt(pos) >= '0' && s.charAt(pos) <= '9') {
+            pos++;
+        }
+        return pos > inicio;
+    }
+
+    private String leerCadena() {
+        if (!consumir('"')) return ERROR;
+        int inicio = pos;
+
+        // Camino rápido: sin escapes la cadena es un substring del texto
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if (c == '"') {
+                return s.substring(inicio, pos++);
+            }
+            if (c == '\\') break;
+            if (c < 0x20) return ERROR;
+            pos++;
+        }
+        if (pos >= s.length()) return ERROR;
+
+        buffer.setLength(0);
+        buffer.append(s, inicio, pos);
+        while (pos < s.length()) {
+            char c = s.charAt(pos++);
+            if (c == '"') return buffer.toString();
+            if (c < 0x20) return ERROR;
+            if (c != '\\') {
+                buffer.append(c);
+                continue;
+            }
+            if (pos >= s.length()) return ERROR;
+            char e = s.charAt(pos++);
+            switch (e) {
+                case '"':  buffer.append('"'); break;
+                case '\\': buffer.append('\\'); break;
+                case '/':  buffer.append('/'); break;
+                case 'b':  buffer.append('\b'); break;
+                case 'f':  buffer.append('\f'); break;
+                case 'n':  buffer.append('\n'); break;
+                case 'r':  buffer.append('\r'); break;
+                case 't':  buffer.append('\t'); break;
+                case 'u': {
+                    if (pos + 4 > s.length()) return ERROR;
+                    int codigo = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int d = Character.digit(s.charAt(pos++), 16);
+                        if (d < 0) return ERROR;
+                        codigo = codigo * 16 + d;
+                    }
+                    buffer.append((char) codigo);
+                    break;
+                }
+                default:
+                    return ERROR;
+            }
+        }
+        return ERROR;
+    }
+}
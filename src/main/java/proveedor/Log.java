@@ -0,0 +1,154 @@
+package proveedor;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Log asíncrono por niveles. Quien registra solo arma el mensaje y lo encola; un hilo aparte le
+// pone hora, nivel e hilo y lo escribe en la consola con un búfer propio (INFO y DEBUG a la
+// salida estándar, AVISO y ERROR a la de errores). Los mensajes por debajo de Config.NIVEL_LOG
+// no se encolan, y los de DEBUG conviene armarlos solo si debugActivo(). Con la cola llena se
+// descartan y se informa cuántos al escribir el siguiente
+public final class Log {
+
+    public enum Nivel { DEBUG, INFO, AVISO, ERROR }
+
+    private record Entrada(long instante, Nivel nivel, String hilo, String mensaje) {}
+
+    private static final DateTimeFormatter FORMATO =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static volatile Nivel nivel = leerNivel(Config.NIVEL_LOG);
+    private static final ArrayBlockingQueue<Entrada> cola = new ArrayBlockingQueue<>(Config.MAX_LOG_PENDIENTE);
+    private static final AtomicLong descartados = new AtomicLong();      // desde el último aviso
+    private static final AtomicLong descartadosTotal = new AtomicLong();
+    private static Writer salida;
+    private static Writer errores;
+
+    static {
+        Thread escritor = new Thread(Log::escribir, "log");
+        escritor.setDaemon(true);
+        escritor.start();
+        // Lo que quede en la cola al terminar el proceso se escribe antes de salir
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::vaciar, "log-cierre"));
+    }
+
+    private Log() {
+    }
+
+    public static boolean debugActivo() {
+        return nivel == Nivel.DEBUG;
+    }
+
+    public static void debug(String mensaje) {
+        registrar(Nivel.DEBUG, mensaje);
+    }
+
+    public static void info(String mensaje) {
+        registrar(Nivel.INFO, mensaje);
+    }
+
+    public static void aviso(String mensaje) {
+        registrar(Nivel.AVISO, mensaje);
+    }
+
+    public static void error(String mensaje) {
+        registrar(Nivel.ERROR, mensaje);
+    }
+
+    public static void error(String mensaje, Throwable causa) {
+        if (Nivel.ERROR.compareTo(nivel) < 0) return;
+        StringWriter traza = new StringWriter();
+        causa.printStackTrace(new PrintWriter(traza));
+        registrar(Nivel.ERROR, mensaje + System.lineSeparator() + traza.toString().stripTrailing());
+    }
+
+    // Config.NIVEL_LOG cambió en caliente
+    static void recargar() {
+        nivel = leerNivel(Config.NIVEL_LOG);
+    }
+
+    public static long getDescartados() {
+        return descartadosTotal.get();
+    }
+
+    private static void registrar(Nivel n, String mensaje) {
+        if (n.compareTo(nivel) < 0) return;
+        if (!cola.offer(new Entrada(System.currentTimeMillis(), n, Thread.currentThread().getName(), mensaje))) {
+            descartados.incrementAndGet();
+            descartadosTotal.incrementAndGet();
+        }
+    }
+
+    private static void escribir() {
+        List<Entrada> lote = new ArrayList<>(256);
+        while (true) {
+            try {
+                lote.add(cola.take());
+                cola.drainTo(lote, 255);
+                escribirLote(lote);
+                lote.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static synchronized void vaciar() {
+        List<Entrada> lote = new ArrayList<>();
+        cola.drainTo(lote);
+        escribirLote(lote);
+    }
+
+    private static synchronized void escribirLote(List<Entrada> lote) {
+        if (salida == null) {
+            salida = new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8);
+            errores = new OutputStreamWriter(new FileOutputStream(FileDescriptor.err), StandardCharsets.UTF_8);
+        }
+        try {
+            long perdidos = descartados.getAndSet(0);
+            if (perdidos > 0) {
+                errores.write(linea(System.currentTimeMillis(), Nivel.AVISO, "log",
+                    "Cola de log llena, " + perdidos + " mensajes descartados"));
+            }
+            boolean hayErrores = perdidos > 0;
+            for (Entrada e : lote) {
+                String texto = linea(e.instante(), e.nivel(), e.hilo(), e.mensaje());
+                if (e.nivel().compareTo(Nivel.AVISO) >= 0) {
+                    errores.write(texto);
+                    hayErrores = true;
+                } else {
+                    salida.write(texto);
+                }
+            }
+            salida.flush();
+            if (hayErrores) errores.flush();
+        } catch (IOException e) {
+            // Sin consola no hay dónde informar
+        }
+    }
+
+    private static String linea(long instante, Nivel n, String hilo, String mensaje) {
+        return FORMATO.format(Instant.ofEpochMilli(instante)) + " " + n + " [" + hilo + "] " + mensaje + System.lineSeparator();
+    }
+
+    private static Nivel leerNivel(String texto) {
+        try {
+            return Nivel.valueOf(texto.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Nivel.INFO;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package proveedor;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Métricas en memoria: por tipo de transacción, latencia (Histograma) y respuestas por código (el
+// nombre de la plantilla de Respuestas, p. ej. SALDO_INSUFICIENTE); latencia de cada método de
+// ConexionSQLServer y del viaje al Identificador. Se publican en formato de texto de Prometheus
+// en http://Config.HOST_METRICAS:Config.PUERTO_METRICAS/metricas y, si se configura, se vuelca un
+// resumen al log cada Config.VOLCADO_METRICAS_S
+public class Metricas {
+
+    private static final double[] CUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    // Las plantillas son constantes: se reconocen por identidad, sin comparar bytes
+    private static final Map<byte[], String> CODIGOS = codigosRespuesta();
+
+    private static final ConcurrentHashMap<String, Histograma> transacciones = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, LongAdder>> respuestas = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histograma> bd = new ConcurrentHashMap<>();
+    private static final Histograma identificador = new Histograma();
+    private static final LongAdder erroresIdentificador = new LongAdder();
+
+    private static HttpServer servidor;
+    private static ScheduledExecutorService volcado;
+
+    public static synchronized void iniciar() {
+        if (Config.PUERTO_METRICAS > 0 && servidor == null) {
+            try {
+                servidor = HttpServer.create(new InetSocketAddress(Config.HOST_METRICAS, Config.PUERTO_METRICAS), 0);
+                servidor.createContext("/metricas", intercambio -> {
+                    byte[] cuerpo = texto().getBytes(StandardCharsets.UTF_8);
+                    intercambio.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    intercambio.sendResponseHeaders(200, cuerpo.length);
+                    try (OutputStream salida = intercambio.getResponseBody()) {
+                        salida.write(cuerpo);
+                    }
+                });
+                servidor.start();
+                Log.info("Métricas en http://" + Config.HOST_METRICAS + ":" + Config.PUERTO_METRICAS + "/metricas");
+            } catch (IOException e) {
+                Log.error("No se pudo abrir el puerto de métricas: " + e.getMessage());
+            }
+        }
+
+        if (Config.VOLCADO_METRICAS_S > 0 && volcado == null) {
+            volcado = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metricas");
+                t.setDaemon(true);
+                return t;
+            });
+            volcado.scheduleAtFixedRate(Metricas::volcar, Config.VOLCADO_METRICAS_S, Config.VOLCADO_METRICAS_S, TimeUnit.SECONDS);
+        }
+    }
+
+    // respuesta: la plantilla enviada, o null si se escribió una respuesta variable (siempre OK)
+    public static void transaccion(String tipo, byte[] respuesta, long inicioNanos) {
+        registrar(tipo, respuesta == null ? "OK" : CODIGOS.getOrDefault(respuesta, "OTRO"), inicioNanos);
+    }
+
+    // La trama no se pudo procesar y la conexión se cierra sin respuesta
+    public static void transaccionFallida(String tipo, long inicioNanos) {
+        registrar(tipo, "EXCEPCION", inicioNanos);
+    }
+
+    private static void registrar(String tipo, String codigo, long inicioNanos) {
+        String etiqueta = etiquetaTipo(tipo);
+        transacciones.computeIfAbsent(etiqueta, t -> new Histograma()).registrarDesde(inicioNanos);
+        respuestas.computeIfAbsent(etiqueta, t -> new ConcurrentHashMap<>())
+            .computeIfAbsent(codigo, c -> new LongAdder()).increment();
+    }
+
+    public static void bd(String metodo, long inicioNanos) {
+        bd.computeIfAbsent(metodo, m -> new Histograma()).registrarDesde(inicioNanos);
+    }
+
+    public static void identificador(long inicioNanos, boolean exito) {
+        identificador.registrarDesde(inicioNanos);
+        if (!exito) erroresIdentificador.increment();
+    }
+
+    public static String texto() {
+        StringBuilder sb = new StringBuilder(4096);
+
+        sb.append("# TYPE proveedor_transaccion_ms summary\n");
+        for (Map.Entry<String, Histograma> e : new TreeMap<>(transacciones).entrySet()) {
+            resumen(sb, "proveedor_transaccion_ms", "tipo=\"" + e.getKey() + "\"", e.getValue());
+        }
+
+        sb.append("# TYPE proveedor_respuestas_total counter\n");
+        for (Map.Entry<String, ConcurrentHashMap<String, LongAdder>> e : new TreeMap<>(respuestas).entrySet()) {
+            for (Map.Entry<String, LongAdder> c : new TreeMap<>(e.getValue()).entrySet()) {
+                sb.append("proveedor_respuestas_total{tipo=\"").append(e.getKey())
+                  .append("\",codigo=\"").append(c.getKey()).append("\"} ").append(c.getValue().sum()).append('\n');
+            }
+        }
+
+        sb.append("# TYPE proveedor_bd_ms summary\n");
+        for (Map.Entry<String, Histograma> e : new TreeMap<>(bd).entrySet()) {
+            resumen(sb, "proveedor_bd_ms", "metodo=\"" + e.getKey() + "\"", e.getValue());
+        }
+
+        sb.append("# TYPE proveedor_identificador_ms summary\n");
+        resumen(sb, "proveedor_identificador_ms", "", identificador);
+        contador(sb, "proveedor_identificador_errores_total", erroresIdentificador.sum());
+
+        sb.append("# TYPE proveedor_rechazos_total counter\n");
+        for (ControlAdmision.Motivo m : ControlAdmision.Motivo.values()) {
+            sb.append("proveedor_rechazos_total{motivo=\"").append(m.name().toLowerCase())
+              .append("\"} ").append(ControlAdmision.getRechazos(m)).append('\n');
+        }
+        medidor(sb, "proveedor_cupos_bd_libres", ControlAdmision.getCuposBdLibres());
+
+        medidor(sb, "proveedor_nodos", Math.max(1, Cluster.getNodos().size()));
+        contador(sb, "proveedor_reenvios_total", Cluster.getReenvios());
+        contador(sb, "proveedor_reenvios_fallidos_total", Cluster.getReenviosFallidos());
+
+        PoolConexiones pool = ConexionSQLServer.getPool();
+        medidor(sb, "proveedor_pool_activas", pool.getActivas());
+        medidor(sb, "proveedor_pool_libres", pool.getLibres());
+        medidor(sb, "proveedor_pool_abiertas", pool.getAbiertas());
+        contador(sb, "proveedor_pool_timeouts_total", pool.getTimeouts());
+        medidor(sb, "proveedor_pool_espera_max_ms", pool.getEsperaMaximaMs());
+        medidor(sb, "proveedor_cdr_pendientes", IngestaCDR.getPendientes());
+        contador(sb, "proveedor_auditoria_descartadas_total", AuditoriaConsultas.getDescartadas());
+        contador(sb, "proveedor_log_descartados_total", Log.getDescartados());
+        return sb.toString();
+    }
+
+    private static void volcar() {
+        StringBuilder sb = new StringBuilder("Métricas:");
+        for (Map.Entry<String, Histograma> e : new TreeMap<>(transacciones).entrySet()) {
+            Histograma h = e.getValue();
+            sb.append(String.format(Locale.ROOT, " [tipo %s n=%d p50=%.3fms p99=%.3fms max=%.3fms]", e.getKey(), h.getTotal(),
+                h.percentilMicros(0.5) / 1000.0, h.percentilMicros(0.99) / 1000.0, h.getMaximoMicros() / 1000.0));
+        }
+        sb.append(' ').append(ConexionSQLServer.getPool());
+        Log.info(sb.toString());
+    }
+
+    private static void resumen(StringBuilder sb, String nombre, String etiquetas, Histograma h) {
+        String separador = etiquetas.isEmpty() ? "" : ",";
+        for (double q : CUANTILES) {
+            sb.append(nombre).append('{').append(etiquetas).append(separador).append("quantile=\"").append(q).append("\"} ")
+              .append(ms(h.percentilMicros(q))).append('\n');
+        }
+        // El máximo como cuantil 1
+        sb.append(nombre).append('{').append(etiquetas).append(separador).append("quantile=\"1\"} ")
+          .append(ms(h.getMaximoMicros())).append('\n');
+        String llaves = etiquetas.isEmpty() ? "" : "{" + etiquetas + "}";
+        sb.append(nombre).append("_sum").append(llaves).append(' ').append(ms(h.getSumaMicros())).append('\n');
+        sb.append(nombre).append("_count").append(llaves).append(' ').append(h.getTotal()).append('\n');
+    }
+
+    private static void contador(StringBuilder sb, String nombre, long valor) {
+        sb.append("# TYPE ").append(nombre).append(" counter\n").append(nombre).append(' ').append(valor).append('\n');
+    }
+
+    private static void medidor(StringBuilder sb, String nombre, double valor) {
+        sb.append("# TYPE ").append(nombre).append(" gauge\n").append(nombre).append(' ')
+          .append(String.format(Locale.ROOT, "%.3f", valor)).append('\n');
+    }
+
+    private static String ms(long micros) {
+        return String.format(Locale.ROOT, "%.3f", micros / 1000.0);
+    }
+
+    // El tipo viene del cliente: solo se aceptan números cortos para no crear series sin límite
+    private static String etiquetaTipo(String tipo) {
+        if (tipo == null) return "ninguno";
+        tipo = tipo.trim();
+        if (tipo.isEmpty() || tipo.length() > 2) return "otro";
+        for (int i = 0; i < tipo.length(); i++) {
+            if (!Character.isDigit(tipo.charAt(i))) return "otro";
+        }
+        return tipo;
+    }
+
+    private static Map<byte[], String> codigosRespuesta() {
+        Map<byte[], String> codigos = new IdentityHashMap<>();
+        for (Field f : Respuestas.class.getDeclaredFields()) {
+            if (f.getType() == byte[].class && Modifier.isStatic(f.getModifiers())) {
+                try {
+                    f.setAccessible(true);
+                    codigos.put((byte[]) f.get(null), f.getName());
+                } catch (IllegalAccessException e) {
+                    // no debería pasar: mismo paquete
+                }
+            }
+        }
+        return codigos;
+    }
+}
@@ -0,0 +1,264 @@
+package proveedor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+// Cálculo de cobros postpago (transacción 7) como trabajo en segundo plano. La transacción devuelve
+// el id del trabajo enseguida y la 10 consulta su avance. Con una sola partición (el valor por
+// defecto de Config.PARTICIONES_COBRO) se ejecuta SP_COBROS_POSTPAGOS tal cual; con más, el trabajo
+// se parte por rangos de NUM_TELEFONO de líneas postpago (SP_COBROS_POSTPAGOS_RANGO) que corren en
+// un pool acotado. Cada cambio de estado se guarda en Config.DIRECTORIO_COBROS/<id>.trabajo, así al
+// reiniciar se retoman las particiones sin terminar. Los trabajos terminados se descartan pasadas
+// Config.RETENCION_TRABAJOS_COBRO_H horas
+public class MotorCobros {
+
+    enum Estado { PENDIENTE, EN_CURSO, TERMINADA, FALLIDA }
+
+    // desde/hasta null: sin partir, todas las líneas
+    static final class Particion {
+        final int indice;
+        final String desde;
+        final String hasta;
+        volatile Estado estado = Estado.PENDIENTE;
+        volatile int intentos;
+        volatile String error;
+
+        Particion(int indice, String desde, String hasta) {
+            this.indice = indice;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+    }
+
+    static final class Trabajo {
+        final String id;
+        final String fechaCalculo;
+        final String fechaMaxPago;
+        final long creado;
+        final List<Particion> particiones;
+
+        Trabajo(String id, String fechaCalculo, String fechaMaxPago, long creado, List<Particion> particiones) {
+            this.id = id;
+            this.fechaCalculo = fechaCalculo;
+            this.fechaMaxPago = fechaMaxPago;
+            this.creado = creado;
+            this.particiones = particiones;
+        }
+
+        int contar(Estado estado) {
+            int n = 0;
+            for (Particion p : particiones) {
+                if (p.estado == estado) n++;
+            }
+            return n;
+        }
+
+        // EN_CURSO mientras quede alguna partición por correr; luego TERMINADO o FALLIDO
+        String estado() {
+            int terminadas = contar(Estado.TERMINADA);
+            int fallidas = contar(Estado.FALLIDA);
+            if (terminadas + fallidas < particiones.size()) return "EN_CURSO";
+            return fallidas > 0 ? "FALLIDO" : "TERMINADO";
+        }
+    }
+
+    private static final Map<String, Trabajo> trabajos = new ConcurrentHashMap<>();
+    private static ExecutorService trabajadores;
+    private static ScheduledExecutorService reintentos;
+    private static Path directorio;
+
+    public static synchronized void iniciar() throws IOException {
+        if (trabajadores != null) return;
+
+        directorio = Paths.get(Config.DIRECTORIO_COBROS);
+        Files.createDirectories(directorio);
+        trabajadores = Executors.newFixedThreadPool(Config.HILOS_COBRO, r -> {
+            Thread t = new Thread(r, "cobros-postpago");
+            t.setDaemon(true);
+            return t;
+        });
+        reintentos = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cobros-reintentos");
+            t.setDaemon(true);
+            return t;
+        });
+        reintentos.scheduleWithFixedDelay(MotorCobros::purgar, 1, 1, TimeUnit.HOURS);
+
+        long limite = System.currentTimeMillis() - Config.RETENCION_TRABAJOS_COBRO_H * 3600_000L;
+        try (DirectoryStream<Path> archivos = Files.newDirectoryStream(directorio, "*.trabajo")) {
+            for (Path archivo : archivos) {
+                Trabajo t = leer(archivo);
+                if (t == null) {
+                    Log.aviso("Checkpoint de cobros ilegible, se ignora: " + archivo);
+                    continue;
+                }
+                if (!"EN_CURSO".equals(t.estado()) && t.creado < limite) {
+                    Files.deleteIfExists(archivo);
+                    continue;
+                }
+                trabajos.put(t.id, t);
+
+                // Lo que estaba corriendo al caer se vuelve a lanzar: el procedimiento debe ser idempotente por rango
+                int retomadas = 0;
+                for (Particion p : t.particiones) {
+                    if (p.estado == Estado.PENDIENTE || p.estado == Estado.EN_CURSO) {
+                        p.estado = Estado.PENDIENTE;
+                        programar(t, p);
+                        retomadas++;
+                    }
+                }
+                if (retomadas > 0) {
+                    Log.info("Trabajo de cobros " + t.id + " retomado: " + retomadas + " particiones pendientes");
+                }
+            }
+        }
+    }
+
+    // Si ya hay un trabajo en curso para las mismas fechas devuelve ese, para no cobrar dos veces
+    public static String iniciarTrabajo(ConexionSQLServer db, String fechaCalculo, String fechaMaxPago) throws IOException, SQLException {
+        if (trabajadores == null) iniciar();
+
+        synchronized (MotorCobros.class) {
+            for (Trabajo t : trabajos.values()) {
+                if (t.fechaCalculo.equals(fechaCalculo) && t.fechaMaxPago.equals(fechaMaxPago) && "EN_CURSO".equals(t.estado())) {
+                    return t.id;
+                }
+            }
+
+            List<Particion> particiones = new ArrayList<>();
+            if (Config.PARTICIONES_COBRO <= 1) {
+                particiones.add(new Particion(0, null, null));
+            } else {
+                for (String[] rango : db.rangosLineasPostpago(Config.PARTICIONES_COBRO)) {
+                    particiones.add(new Particion(particiones.size(), rango[0], rango[1]));
+                }
+                if (particiones.isEmpty()) {
+                    particiones.add(new Particion(0, null, null));
+                }
+            }
+
+            Trabajo t = new Trabajo(UUID.randomUUID().toString(), fechaCalculo, fechaMaxPago,
+                System.currentTimeMillis(), particiones);
+            guardar(t);
+            trabajos.put(t.id, t);
+            for (Particion p : particiones) {
+                programar(t, p);
+            }
+            Log.info("Trabajo de cobros " + t.id + " creado con " + particiones.size() + " particiones");
+            return t.id;
+        }
+    }
+
+    // Quita de memoria y de disco los trabajos terminados más viejos que la retención
+    private static void purgar() {
+        long limite = System.currentTimeMillis() - Config.RETENCION_TRABAJOS_COBRO_H * 3600_000L;
+        for (Trabajo t : trabajos.values()) {
+            if (t.creado >= limite || "EN_CURSO".equals(t.estado())) continue;
+            trabajos.remove(t.id);
+            try {
+                Files.deleteIfExists(directorio.resolve(t.id + ".trabajo"));
+            } catch (IOException e) {
+                Log.aviso("No se pudo borrar el checkpoint del trabajo " + t.id + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public static Trabajo obtener(String id) {
+        return trabajos.get(id);
+    }
+
+    private static void programar(Trabajo t, Particion p) {
+        trabajadores.execute(() -> ejecutar(t, p));
+    }
+
+    private static void ejecutar(Trabajo t, Particion p) {
+        p.estado = Estado.EN_CURSO;
+        p.intentos++;
+        guardarSinFallar(t);
+
+        long inicio = System.currentTimeMillis();
+        try (ConexionSQLServer db = new ConexionSQLServer()) {
+            if (!db.conectarSegundoPlano()) throw new SQLException("Sin conexión a la BD");
+            db.ejecutarCalculoCobroPostpago(t.fechaCalculo, t.fechaMaxPago, p.desde, p.hasta);
+            p.estado = Estado.TERMINADA;
+            p.error = null;
+            Log.info("Cobros " + t.id + " partición " + p.indice + " terminada en "
+                + (System.currentTimeMillis() - inicio) + " ms");
+        } catch (SQLException e) {
+            p.error = e.getMessage();
+            if (p.intentos <= Config.REINTENTOS_PARTICION_COBRO) {
+                p.estado = Estado.PENDIENTE;
+                long espera = 1000L << Math.min(p.intentos, 10);
+                reintentos.schedule(() -> programar(t, p), espera, TimeUnit.MILLISECONDS);
+            } else {
+                p.estado = Estado.FALLIDA;
+            }
+            Log.aviso("Cobros " + t.id + " partición " + p.indice + " falló (intento " + p.intentos + "): " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Un error del propio proveedor no se arregla reintentando; sin esto quedaría EN_CURSO para siempre
+            p.error = e.toString();
+            p.estado = Estado.FALLIDA;
+            Log.error("Cobros " + t.id + " partición " + p.indice + " falló: " + e);
+        }
+        guardarSinFallar(t);
+    }
+
+    private static void guardarSinFallar(Trabajo t) {
+        try {
+            guardar(t);
+        } catch (IOException e) {
+            Log.error("No se pudo guardar el checkpoint del trabajo " + t.id + ": " + e.getMessage());
+        }
+    }
+
+    // Formato: una línea de cabecera (fechas y creación) y una por partición, separadas por tabulador
+    private static void guardar(Trabajo t) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(t.fechaCalculo).append('\t').append(t.fechaMaxPago).append('\t').append(t.creado).append('\n');
+        synchronized (t) {
+            for (Particion p : t.particiones) {
+                sb.append(p.indice).append('\t')
+                  .append(p.desde == null ? "-" : p.desde).append('\t')
+                  .append(p.hasta == null ? "-" : p.hasta).append('\t')
+                  .append(p.estado).append('\t')
+                  .append(p.intentos).append('\t')
+                  .append(p.error == null ? "" : p.error.replaceAll("[\\t\\r\\n]", " "))
+                  .append('\n');
+            }
+
+            Path archivo = directorio.resolve(t.id + ".trabajo");
+            Path temporal = directorio.resolve(t.id + ".trabajo.tmp");
+            Files.writeString(temporal, sb, StandardCharsets.UTF_8);
+            Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static Trabajo leer(Path archivo) {
+        try {
+            List<String> lineas = Files.readAllLines(archivo, StandardCharsets.UTF_8);
+            String[] cabecera = lineas.get(0).split("\t", -1);
+            List<Particion> particiones = new ArrayList<>();
+            for (String linea : lineas.subList(1, lineas.size())) {
+                if (linea.isEmpty()) continue;
+                String[] c = linea.split("\t", -1);
+                Particion p = new Particion(Integer.parseInt(c[0]), "-".equals(c[1]) ? null : c[1], "-".equals(c[2]) ? null : c[2]);
+                p.estado = Estado.valueOf(c[3]);
+                p.intentos = Integer.parseInt(c[4]);
+                p.error = c[5].isEmpty() ? null : c[5];
+                particiones.add(p);
+            }
+            String nombre = archivo.getFileName().toString();
+            String id = nombre.substring(0, nombre.length() - ".trabajo".length());
+            return new Trabajo(id, cabecera[0], cabecera[1], Long.parseLong(cabecera[2]), particiones);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package proveedor;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+// Reservas de saldo prepago en memoria. Al iniciar una llamada se reserva el costo del tiempo
+// concedido, al terminar se cobra el costo real y se libera el resto; las reservas de llamadas
+// que nunca terminan vencen solas. El saldo de cada línea se lee de la BD la primera vez y luego
+// se mantiene aquí (la ingesta de CDR aplica los rebajos a la BD por lotes); una cuenta sin uso
+// por Config.TTL_CUENTA_MS y sin CDR pendientes se descarga y se vuelve a leer en el próximo uso
+public class MotorReservas {
+
+    public record Reserva(long id, int segundos, double monto, long expira) {
+    }
+
+    private static final class Cuenta {
+        double saldo;
+        double reservado;
+        long ultimoUso;
+        final ArrayDeque<Reserva> reservas = new ArrayDeque<>(2);
+
+        Cuenta(double saldo) {
+            this.saldo = saldo;
+            this.ultimoUso = System.currentTimeMillis();
+        }
+
+        void vencerReservas(long ahora) {
+            Iterator<Reserva> it = reservas.iterator();
+            while (it.hasNext()) {
+                Reserva r = it.next();
+                if (r.expira() <= ahora) {
+                    reservado -= r.monto();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Cuenta> cuentas = new ConcurrentHashMap<>();
+    private static final ReentrantLock[] franjas = new ReentrantLock[Config.FRANJAS_RESERVAS];
+    private static final AtomicLong secuencia = new AtomicLong();
+    private static ScheduledExecutorService limpieza;
+
+    static {
+        for (int i = 0; i < franjas.length; i++) {
+            franjas[i] = new ReentrantLock();
+        }
+    }
+
+    public static synchronized void iniciar() {
+        if (limpieza != null) return;
+        limpieza = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "reservas-saldo");
+            t.setDaemon(true);
+            return t;
+        });
+        limpieza.scheduleWithFixedDelay(MotorReservas::limpiar, 5, 5, TimeUnit.SECONDS);
+    }
+
+    private static ReentrantLock franja(String numero) {
+        return franjas[(numero.hashCode() & 0x7fffffff) % franjas.length];
+    }
+
+    // Reserva el saldo disponible para una llamada a la tarifa dada; null si no alcanza para un minuto.
+    // Si no se puede leer el saldo la reserva falla y la cuenta no se carga: la próxima vuelve a leer
+    public static Reserva reservar(ConexionSQLServer db, String numero, double tarifa) throws SQLException {
+        Cuenta cuenta = cuentas.get(numero);
+        if (cuenta == null) {
+            // La lectura de la BD se hace fuera del candado; si otro hilo cargó antes, gana esa
+            cuentas.putIfAbsent(numero, new Cuenta(db.consultarSaldo(numero)));
+        }
+
+        ReentrantLock candado = franja(numero);
+        candado.lock();
+        try {
+            cuenta = cuentas.get(numero);
+            if (cuenta == null) {
+                // Descargada por la limpieza entre la lectura y el candado
+                Cuenta nueva = new Cuenta(db.consultarSaldo(numero));
+                Cuenta previa = cuentas.putIfAbsent(numero, nueva);
+                cuenta = previa != null ? previa : nueva;
+            }
+            long ahora = System.currentTimeMillis();
+            cuenta.ultimoUso = ahora;
+            cuenta.vencerReservas(ahora);
+
+            double disponible = cuenta.saldo - cuenta.reservado;
+            if (disponible < tarifa) return null;
+
+            // Mismo cálculo que antes: todo el saldo disponible convertido en tiempo a la tarifa
+            int segundos = (int) ((disponible / tarifa) * 60);
+            double monto = (tarifa / 60) * segundos;
+            Reserva reserva = new Reserva(secuencia.incrementAndGet(), segundos, monto,
+                ahora + segundos * 1000L + Config.MARGEN_RESERVA_MS);
+
+            cuenta.reservas.addLast(reserva);
+            cuenta.reservado += monto;
+            return reserva;
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    // Fin de llamada: cobra el costo real y libera la reserva de esa llamada (o, si no se conoce,
+    // la más antigua de la línea)
+    public static void confirmar(String numero, double costoReal, Reserva reserva) {
+        ReentrantLock candado = franja(numero);
+        candado.lock();
+        try {
+            Cuenta cuenta = cuentas.get(numero);
+            if (cuenta == null) return; // se cargará de la BD, que ya recibirá el rebajo
+            if (reserva != null && cuenta.reservas.remove(reserva)) {
+                cuenta.reservado -= reserva.monto();
+            } else if (reserva == null) {
+                quitarReservaMasAntigua(cuenta);
+            }
+            cuenta.saldo -= costoReal;
+            cuenta.ultimoUso = System.currentTimeMillis();
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    // Devuelve la reserva sin cobrar nada (la llamada no llegó a establecerse)
+    public static void liberar(String numero, Reserva reserva) {
+        ReentrantLock candado = franja(numero);
+        candado.lock();
+        try {
+            Cuenta cuenta = cuentas.get(numero);
+            if (cuenta != null && cuenta.reservas.remove(reserva)) {
+                cuenta.reservado -= reserva.monto();
+            }
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    // Saldo conocido en memoria (sin descontar reservas), o null si la línea no está cargada
+    public static Double saldoConocido(String numero) {
+        ReentrantLock candado = franja(numero);
+        candado.lock();
+        try {
+            Cuenta cuenta = cuentas.get(numero);
+            return cuenta != null ? cuenta.saldo : null;
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    // Activación o desactivación: el saldo cambia en la BD y se vuelve a leer en el próximo uso
+    public static void invalidar(String numero) {
+        ReentrantLock candado = franja(numero);
+        candado.lock();
+        try {
+            cuentas.remove(numero);
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    // Rebalanceo entre nodos (Cluster): suelta las cuentas de las líneas que pasaron a otro nodo,
+    // con sus reservas; el fin de esas llamadas llega al nuevo dueño, que cobra sin reserva sobre el
+    // saldo que lee de la BD
+    public static int soltar(Predicate<String> ajena) {
+        int soltadas = 0;
+        for (String numero : cuentas.keySet()) {
+            if (!ajena.test(numero)) continue;
+            ReentrantLock candado = franja(numero);
+            candado.lock();
+            try {
+                if (cuentas.remove(numero) != null) soltadas++;
+            } finally {
+                candado.unlock();
+            }
+        }
+        return soltadas;
+    }
+
+    public static int getCuentasCargadas() {
+        return cuentas.size();
+    }
+
+    private static void quitarReservaMasAntigua(Cuenta cuenta) {
+        Reserva r = cuenta.reservas.pollFirst();
+        if (r != null) {
+            cuenta.reservado -= r.monto();
+        }
+    }
+
+    // Vence reservas abandonadas y descarga las cuentas sin uso reciente; no se descarga una cuenta
+    // con CDR propios sin llegar a la BD, porque al recargar se leería un saldo sin sus rebajos
+    private static void limpiar() {
+        long ahora = System.currentTimeMillis();
+        for (String numero : cuentas.keySet()) {
+            ReentrantLock candado = franja(numero);
+            candado.lock();
+            try {
+                Cuenta cuenta = cuentas.get(numero);
+                if (cuenta == null) continue;
+                cuenta.vencerReservas(ahora);
+                if (cuenta.reservas.isEmpty() && ahora - cuenta.ultimoUso > Config.TTL_CUENTA_MS
+                        && IngestaCDR.getSinAplicar(numero) == 0) {
+                    cuentas.remove(numero);
+                }
+            } finally {
+                candado.unlock();
+            }
+        }
+    }
+}
@@ -1,32 +1,48 @@
 package proveedor;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class NotificadorIdentificador {
 
-    public static boolean notificarEstadoLinea(String telefono, String idTel, String idChip, String tipo, String cedula, String estado) {
-
-        try (Socket socket = new Socket(Config.HOST_IDENTIFICADOR, Config.PUERTO_IDENTIFICADOR);
-             PrintWriter salida = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+    private static final ClienteIdentificador cliente =
+        new ClienteIdentificador(Config.HOST_IDENTIFICADOR, Config.PUERTO_IDENTIFICADOR, Config.IDENTIFICADOR_PERSISTENTE);
 
-            // Construir JSON de la trama a enviar, incluyendo tipo_transaccion = 6
-            String trama = String.format(
-                "{\"tipo_transaccion\":\"6\",\"telefono\":\"%s\",\"identificadorTel\":\"%s\",\"identificador_tarjeta\":\"%s\",\"tipo\":\"%s\",\"identificacion_cliente\":\"%s\",\"estado\":\"%s\"}",
-                telefono, idTel, idChip, tipo, cedula, estado
-            );
-
-            salida.println(trama); // Enviar al Identificador
+    public static boolean notificarEstadoLinea(String telefono, String idTel, String idChip, String tipo, String cedula, String estado) {
+        return notificarEstadoLineaAsync(telefono, idTel, idChip, tipo, cedula, estado).join();
+    }
 
-            String respuesta = entrada.readLine();
-            System.out.println("Respuesta del Identificador: " + respuesta);
+    // Nunca completa con excepción: ante timeout, circuito abierto o error de red devuelve false
+    public static CompletableFuture<Boolean> notificarEstadoLineaAsync(String telefono, String idTel, String idChip, String tipo, String cedula, String estado) {
+        return enviarTrama(tramaEstadoLinea(telefono, idTel, idChip, tipo, cedula, estado, null));
+    }
 
-            return respuesta != null && respuesta.contains("OK");
+    // Construir JSON de la trama a enviar, incluyendo tipo_transaccion = 6 y, si viene, la clave
+    // de idempotencia con la que el Identificador reconoce un reenvío
+    public static String tramaEstadoLinea(String telefono, String idTel, String idChip, String tipo, String cedula, String estado, String clave) {
+        return String.format(
+            "{\"tipo_transaccion\":\"6\",\"telefono\":\"%s\",\"identificadorTel\":\"%s\",\"identificador_tarjeta\":\"%s\",\"tipo\":\"%s\",\"identificacion_cliente\":\"%s\",\"estado\":\"%s\"%s}",
+            telefono, idTel, idChip, tipo, cedula, estado, clave != null ? ",\"id_notificacion\":\"" + clave + "\"" : ""
+        );
+    }
 
-        } catch (IOException e) {
-            System.err.println("Error comunicándose con el Identificador: " + e.getMessage());
-            return false;
+    public static CompletableFuture<Boolean> enviarTrama(String trama) {
+        if (cliente.esPersistente()) {
+            trama = trama.substring(0, trama.length() - 1) + ",\"keep_alive\":\"true\"}";
         }
+
+        return cliente.enviar(trama).handle((respuesta, error) -> {
+            if (error != null) {
+                Throwable causa = error;
+                while ((causa instanceof CompletionException || causa instanceof UncheckedIOException) && causa.getCause() != null) {
+                    causa = causa.getCause();
+                }
+                Log.error("Error comunicándose con el Identificador: " + causa);
+                return false;
+            }
+            Log.debug("Respuesta del Identificador: " + respuesta);
+            return respuesta.contains("OK");
+        });
     }
 }
@@ -0,0 +1,9 @@
+package proveedor;
+
+// Datos de una línea que se usan al autorizar y registrar llamadas (fila de TELEFONOS)
+public record PerfilSuscriptor(String tipoServicio, double saldo, int estado, Integer idCliente) {
+
+    // Mismos valores que devolvía obtenerTipoServicio cuando la línea no existe o falla la consulta
+    public static final PerfilSuscriptor NO_ENCONTRADO = new PerfilSuscriptor("no_encontrado", 0.0, 0, null);
+    public static final PerfilSuscriptor ERROR = new PerfilSuscriptor("error", 0.0, 0, null);
+}
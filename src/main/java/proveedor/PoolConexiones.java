@@ -0,0 +1,212 @@
+package proveedor;
+
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Pool acotado de conexiones JDBC. Cada conexión guarda sus PreparedStatement ya preparados,
+// así las consultas frecuentes no se vuelven a preparar en cada transacción
+public class PoolConexiones {
+    private final String url;
+    private final String usuario;
+    private final String clave;
+    private final int maximo;
+    private final long timeoutAdquirirMs;
+    private final Semaphore cupos;
+    private final LinkedBlockingDeque<ConexionPool> libres = new LinkedBlockingDeque<>();
+
+    // Métricas
+    private final AtomicInteger activas = new AtomicInteger();
+    private final AtomicInteger abiertas = new AtomicInteger();
+    private final LongAdder adquisiciones = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder esperaTotalNanos = new LongAdder();
+    private final AtomicLong esperaMaximaNanos = new AtomicLong();
+
+    public PoolConexiones(String url, int maximo, long timeoutAdquirirMs) {
+        this(url, null, null, maximo, timeoutAdquirirMs);
+    }
+
+    // Con usuario null las credenciales van en la URL (o no hacen falta)
+    public PoolConexiones(String url, String usuario, String clave, int maximo, long timeoutAdquirirMs) {
+        this.url = url;
+        this.usuario = usuario;
+        this.clave = clave;
+        this.maximo = maximo;
+        this.timeoutAdquirirMs = timeoutAdquirirMs;
+        this.cupos = new Semaphore(maximo, true);
+    }
+
+    public ConexionPool adquirir() throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            if (!cupos.tryAcquire(timeoutAdquirirMs, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTimeoutException("Tiempo de espera agotado al obtener conexion del pool (" + timeoutAdquirirMs + " ms)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido esperando conexion del pool", e);
+        }
+
+        long espera = System.nanoTime() - inicio;
+        esperaTotalNanos.add(espera);
+        esperaMaximaNanos.accumulateAndGet(espera, Math::max);
+        adquisiciones.increment();
+
+        try {
+            ConexionPool c;
+            while ((c = libres.pollFirst()) != null) {
+                if (c.esValida()) break;
+                descartar(c);
+            }
+            if (c == null) {
+                c = new ConexionPool(usuario != null
+                    ? DriverManager.getConnection(url, usuario, clave)
+                    : DriverManager.getConnection(url));
+                abiertas.incrementAndGet();
+            }
+            activas.incrementAndGet();
+            return c;
+        } catch (SQLException | RuntimeException e) {
+            cupos.release();
+            throw e;
+        }
+    }
+
+    public void liberar(ConexionPool c) {
+        activas.decrementAndGet();
+        try {
+            Connection conexion = c.getConexion();
+            if (conexion.isClosed()) {
+                descartar(c);
+            } else {
+                if (!conexion.getAutoCommit()) {
+                    conexion.rollback();
+                    conexion.setAutoCommit(true);
+                }
+                c.ultimoUso = System.currentTimeMillis();
+                libres.offerFirst(c); // LIFO: se reusan primero las conexiones más recientes
+            }
+        } catch (SQLException e) {
+            Log.aviso("Conexion descartada al devolverla al pool: " + e.getMessage());
+            descartar(c);
+        } finally {
+            cupos.release();
+        }
+    }
+
+    public void cerrar() {
+        ConexionPool c;
+        while ((c = libres.pollFirst()) != null) {
+            descartar(c);
+        }
+    }
+
+    private void descartar(ConexionPool c) {
+        abiertas.decrementAndGet();
+        c.cerrar();
+    }
+
+    public int getMaximo() { return maximo; }
+    public int getActivas() { return activas.get(); }
+    public int getLibres() { return libres.size(); }
+    public int getAbiertas() { return abiertas.get(); }
+    public long getAdquisiciones() { return adquisiciones.sum(); }
+    public long getTimeouts() { return timeouts.sum(); }
+
+    public double getEsperaPromedioMs() {
+        long n = adquisiciones.sum();
+        return n == 0 ? 0.0 : esperaTotalNanos.sum() / (n * 1_000_000.0);
+    }
+
+    public double getEsperaMaximaMs() {
+        return esperaMaximaNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pool BD: activas=%d libres=%d max=%d adquisiciones=%d timeouts=%d espera_prom=%.3fms espera_max=%.3fms",
+            getActivas(), getLibres(), maximo, getAdquisiciones(), getTimeouts(), getEsperaPromedioMs(), getEsperaMaximaMs());
+    }
+
+    // Conexión física del pool con su caché LRU de sentencias preparadas
+    public static class ConexionPool {
+        private final Connection conexion;
+        private final Map<String, PreparedStatement> sentencias =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> mayor) {
+                    if (size() <= Config.CACHE_SENTENCIAS_POR_CONEXION) return false;
+                    cerrarSentencia(mayor.getValue());
+                    return true;
+                }
+            };
+        private long ultimoUso = System.currentTimeMillis();
+
+        ConexionPool(Connection conexion) {
+            this.conexion = conexion;
+        }
+
+        public Connection getConexion() {
+            return conexion;
+        }
+
+        // Las sentencias devueltas pertenecen a la caché: no se deben cerrar
+        public PreparedStatement preparar(String sql) throws SQLException {
+            PreparedStatement ps = sentencias.get(sql);
+            if (ps == null || ps.isClosed()) {
+                ps = conexion.prepareStatement(sql);
+                sentencias.put(sql, ps);
+            }
+            return ps;
+        }
+
+        public PreparedStatement prepararConClaves(String sql) throws SQLException {
+            String clave = "#claves#" + sql;
+            PreparedStatement ps = sentencias.get(clave);
+            if (ps == null || ps.isClosed()) {
+                ps = conexion.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                sentencias.put(clave, ps);
+            }
+            return ps;
+        }
+
+        // Solo se valida contra la BD si la conexión estuvo ociosa un buen rato
+        boolean esValida() {
+            try {
+                if (conexion.isClosed()) return false;
+                if (System.currentTimeMillis() - ultimoUso < Config.VALIDAR_CONEXION_TRAS_MS) return true;
+                return conexion.isValid(Config.TIMEOUT_VALIDACION_BD_S);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void cerrar() {
+            for (PreparedStatement ps : sentencias.values()) {
+                cerrarSentencia(ps);
+            }
+            sentencias.clear();
+            try {
+                conexion.close();
+            } catch (SQLException e) {
+                Log.error("Error al cerrar conexión: " + e.getMessage());
+            }
+        }
+
+        private static void cerrarSentencia(PreparedStatement ps) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                Log.error("Error al cerrar sentencia: " + e.getMessage());
+            }
+        }
+    }
+}
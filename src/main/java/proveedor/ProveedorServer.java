@@ -1,251 +1,484 @@
 package proveedor;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
 import java.io.*;
-import java.lang.reflect.Type;
+import java.math.BigDecimal;
 import java.net.*;
-import java.time.LocalDateTime;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class ProveedorServer {
+    // Estado de una conexión de cliente entre tramas
+    static class SesionCliente {
+        final LectorTrama lector = new LectorTrama();
+        final EscritorRespuesta respuesta = new EscritorRespuesta();
+        volatile boolean persistente;
+        // Para el límite de tasa por dirección; null si no se conoce (no se limita)
+        volatile InetAddress direccion;
+    }
+
     private final int puerto;
-    private final Map<String, LocalDateTime> llamadasEnCurso = new HashMap<>();
+    private final RegistroLlamadas llamadasEnCurso =
+        new RegistroLlamadas(Config.MAX_LLAMADAS_ACTIVAS, Config.MAX_LLAMADAS_POR_LINEA);
+    private final Semaphore admision = new Semaphore(Config.MAX_CLIENTES_CONCURRENTES);
 
     public ProveedorServer(int puerto) {
         this.puerto = puerto;
     }
 
     public void iniciar() {
+        llamadasEnCurso.iniciar();
+
+        switch (Config.MODO_SERVIDOR) {
+            case "nio":
+                new ServidorNio(this, puerto).iniciar();
+                break;
+            case "virtual":
+                try (ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+                    aceptarConexiones(ejecutor);
+                }
+                break;
+            default:
+                aceptarConexiones(tarea -> new Thread(tarea).start());
+        }
+    }
+
+    private void aceptarConexiones(Executor ejecutor) {
         try (ServerSocket servidor = new ServerSocket(puerto)) {
-            System.out.println("Servidor escuchando en puerto " + puerto + "...");
+            Log.info("Servidor escuchando en puerto " + puerto + " (modo " + Config.MODO_SERVIDOR + ")...");
 
             while (true) {
                 Socket cliente = servidor.accept();
-                new Thread(() -> manejarCliente(cliente)).start();
+
+                // Una dirección sin tokens se rechaza sin ocupar un hilo ni un cupo de admisión
+                if (!ControlAdmision.admitirConexion(cliente.getInetAddress())) {
+                    rechazarCliente(cliente);
+                    continue;
+                }
+
+                // Si no hay cupo en el tiempo de espera se rechaza de inmediato; mientras
+                // tanto el backlog del kernel frena al resto de clientes
+                if (!admision.tryAcquire(Config.ESPERA_ADMISION_MS, TimeUnit.MILLISECONDS)) {
+                    ControlAdmision.rechazar(ControlAdmision.Motivo.CONEXIONES);
+                    rechazarCliente(cliente);
+                    continue;
+                }
+
+                try {
+                    ejecutor.execute(() -> {
+                        try {
+                            manejarCliente(cliente);
+                        } finally {
+                            admision.release();
+                        }
+                    });
+                } catch (RuntimeException | OutOfMemoryError e) {
+                    admision.release();
+                    Log.error("No se pudo despachar cliente: " + e.getMessage());
+                    rechazarCliente(cliente);
+                }
             }
         } catch (Exception e) {
-            System.err.println("Error general: " + e.getMessage());
+            Log.error("Error general: " + e.getMessage());
+        }
+    }
+
+    private void rechazarCliente(Socket cliente) {
+        try (Socket s = cliente; OutputStream salida = s.getOutputStream()) {
+            salida.write(Respuestas.OCUPADO);
+            cerrarOrdenadamente(s);
+        } catch (IOException e) {
+            Log.error("Error al rechazar cliente: " + e.getMessage());
         }
     }
 
     private void manejarCliente(Socket cliente) {
-        try (
-            BufferedReader entrada = new BufferedReader(new InputStreamReader(cliente.getInputStream()));
-            PrintWriter salida = new PrintWriter(cliente.getOutputStream(), true)
-        ) {
-            String jsonStr = entrada.readLine();
-            if (jsonStr == null || jsonStr.trim().isEmpty()) {
-                salida.println("{\"status\":\"ERROR\",\"mensaje\":\"JSON vacio\"}");
+        try (BufferedOutputStream salida = new BufferedOutputStream(cliente.getOutputStream())) {
+            SesionCliente sesion = new SesionCliente();
+            sesion.direccion = cliente.getInetAddress();
+            // Un cliente que no manda nada, o manda una línea sin fin, no retiene el cupo de admisión
+            // más que el keep_alive ni ocupa más memoria que una trama
+            cliente.setSoTimeout(Config.TIMEOUT_KEEP_ALIVE_MS);
+            LectorLineas entrada = new LectorLineas(cliente.getInputStream(), Config.MAX_LONGITUD_TRAMA);
+            String jsonStr;
+            try {
+                jsonStr = entrada.leerLinea();
+            } catch (LectorLineas.TramaLarga e) {
+                responderTramaLarga(cliente, salida);
                 return;
             }
 
-            Map<String, String> datos = parsearJsonConGson(jsonStr);
-            if (datos == null) {
-                salida.println("{\"status\":\"ERROR\",\"mensaje\":\"Formato JSON invalido\"}");
-                return;
-            }
+            // Modo de una sola trama por defecto; si el cliente pide keep_alive se siguen
+            // leyendo tramas en la misma conexión y se responden en el mismo orden
+            do {
+                procesarTrama(jsonStr, sesion);
+                sesion.respuesta.escribirEn(salida);
+
+                // Con tramas encadenadas ya completas se agrupan las respuestas en un solo envío; con
+                // solo parte de la siguiente se envía ya, porque el cliente puede esperar esta respuesta
+                // antes de terminarla
+                if (!sesion.persistente || !entrada.hayLineaCompleta()) {
+                    salida.flush();
+                }
+                if (Log.debugActivo()) Log.debug("Respuesta enviada al cliente: " + sesion.respuesta);
 
-            System.out.println("DEBUG JSON recibido: " + datos);
+                if (!sesion.persistente) break;
+                try {
+                    jsonStr = entrada.leerLinea();
+                } catch (LectorLineas.TramaLarga e) {
+                    responderTramaLarga(cliente, salida);
+                    return;
+                }
+            } while (jsonStr != null);
 
-            String tipoStr = datos.get("tipo_transaccion");
+            salida.flush();
+            cerrarOrdenadamente(cliente);
 
-            if (tipoStr == null) {
-                salida.println("{\"status\":\"ERROR\",\"mensaje\":\"Tipo de transacción faltante\"}");
-                return;
+        } catch (SocketTimeoutException e) {
+            Log.debug("Conexion inactiva, se cierra");
+        } catch (Exception e) {
+            Log.error("Error con cliente: " + e.getMessage());
+        } finally {
+            try {
+                cliente.close();
+            } catch (IOException ex) {
+                Log.error("Error al cerrar socket: " + ex.getMessage());
             }
+        }
+    }
 
-            int tipoTransaccion = Integer.parseInt(tipoStr.trim());
-            String respuesta = "";
-            String telefono = datos.get("telefono"); // se usa solo si aplica
+    // Como ServidorNio: se responde el error y se cierra, porque no se sabe dónde empieza la trama siguiente
+    private static void responderTramaLarga(Socket cliente, BufferedOutputStream salida) throws IOException {
+        salida.write(Respuestas.TRAMA_LARGA);
+        salida.flush();
+        cerrarOrdenadamente(cliente);
+    }
 
-            try (ConexionSQLServer db = new ConexionSQLServer()) {
-                if (!db.conectar()) {
-                    salida.println("{\"status\":\"ERROR\",\"mensaje\":\"Fallo de conexion a BD\"}");
-                    return;
-                }
+    // Cierre ordenado sin esperas: half-close para que el FIN viaje detrás de la respuesta y
+    // descarte de lo que el cliente dejó sin leer, porque cerrar con datos pendientes envía
+    // un RST que puede hacer que el cliente pierda la respuesta
+    private static void cerrarOrdenadamente(Socket cliente) throws IOException {
+        cliente.shutdownOutput();
+        InputStream in = cliente.getInputStream();
+        int pendientes;
+        while ((pendientes = in.available()) > 0 && in.skip(pendientes) > 0) {
+            // se descarta
+        }
+    }
 
-                switch (tipoTransaccion) {
-                    case 1: {
-                        if (telefono == null || datos.get("destino") == null || datos.get("tipo_llamada") == null) {
-                            respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Datos incompletos\"}";
-                            break;
-                        }
+    // Procesa una trama JSON y deja la respuesta codificada en sesion.respuesta; lo usan todos
+    // los modos de servidor
+    void procesarTrama(String jsonStr, SesionCliente sesion) throws Exception {
+        long inicio = System.nanoTime();
+        byte[] fija;
+        try {
+            fija = procesar(jsonStr, sesion);
+        } catch (Exception e) {
+            Metricas.transaccionFallida(sesion.lector.get(LectorTrama.Campo.TIPO_TRANSACCION), inicio);
+            throw e;
+        }
+        if (fija != null) {
+            sesion.respuesta.escribir(fija);
+        }
 
-                        String tipoServicio = db.obtenerTipoServicio(telefono);
-                        String destino = datos.get("destino");
-                        int tipoLlamada = Integer.parseInt(datos.get("tipo_llamada"));
+        // Con la trama vacía o inválida el lector conserva datos de otra trama: no hay tipo
+        boolean sinTipo = fija == Respuestas.JSON_VACIO || fija == Respuestas.JSON_INVALIDO;
+        Metricas.transaccion(sinTipo ? null : sesion.lector.get(LectorTrama.Campo.TIPO_TRANSACCION), fija, inicio);
+    }
 
-                        respuesta = procesarLlamada(db, tipoServicio, telefono, destino, tipoLlamada);
-                        llamadasEnCurso.put(telefono, LocalDateTime.now());
-                        break;
-                    }
+    // Devuelve la respuesta fija a enviar, o null si ya se escribió una variable en sesion.respuesta
+    private byte[] procesar(String jsonStr, SesionCliente sesion) throws Exception {
+        if (jsonStr == null || jsonStr.trim().isEmpty()) {
+            return Respuestas.JSON_VACIO;
+        }
 
-                    case 2: {
-                        if (telefono == null) {
-                            respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Datos incompletos\"}";
-                            break;
-                        }
+        LectorTrama lector = sesion.lector;
+        if (!lector.leer(jsonStr)) {
+            return Respuestas.JSON_INVALIDO;
+        }
 
-                        String tipoServicio = db.obtenerTipoServicio(telefono);
-                        respuesta = procesarConsulta(db, tipoServicio, telefono);
-                        break;
-                    }
+        if (Log.debugActivo()) Log.debug("Trama recibida: " + lector);
 
-                    case 3: {
-                        String telefonoo = datos.get("telefono");
-                        String identificadorTel = datos.get("identificadorTel");
-                        String identificadorTarjeta = datos.get("identificador_tarjeta");
-                        String tipo = datos.get("tipo");
-                        String estado = datos.get("estado");
+        if (esVerdadero(lector.get(LectorTrama.Campo.KEEP_ALIVE))) {
+            sesion.persistente = true;
+        }
 
-                        if (telefonoo == null || identificadorTel == null || identificadorTarjeta == null || tipo == null || estado == null) {
-                            respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Datos Incompletos\"}";
-                            break;
-                        }
+        // Lo reenviado por otro nodo ya pasó el límite de su dirección de origen en ese nodo
+        boolean reenviada = lector.get(LectorTrama.Campo.REENVIADO) != null && Cluster.esNodo(sesion.direccion);
+        if (!reenviada && !ControlAdmision.admitirTrama(sesion.direccion)) {
+            return Respuestas.OCUPADO;
+        }
 
-                        if (db.telefonoExiste(telefonoo)) {
-                            respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Telefono en uso\"}";
-                            break;
-                        }
+        // Las tramas incompletas se rechazan aquí, antes de pedir una conexión a la BD
+        Solicitud solicitud = Solicitud.decodificar(lector);
+        if (solicitud instanceof Solicitud.Rechazo rechazo) {
+            return rechazo.respuesta();
+        }
 
-                        boolean exito = db.insertarNuevaLineaProveedor(telefonoo, identificadorTel, identificadorTarjeta, tipo, estado);
-                        respuesta = exito
-                            ? "{\"status\":\"OK\"}"
-                            : "{\"status\":\"ERROR\",\"mensaje\":\"No se pudo registrar la linea\"}";
-                        break;
-                    }
+        // Con varios nodos, la trama de una línea de otro nodo se reenvía a su dueño y se devuelve
+        // su respuesta tal cual
+        if (!reenviada && solicitud.telefono() != null) {
+            String duenio = Cluster.duenioRemoto(solicitud.telefono());
+            if (duenio != null) {
+                String linea = Cluster.reenviar(duenio, jsonStr, lector.get(LectorTrama.Campo.KEEP_ALIVE));
+                if (linea == null) return Respuestas.NODO_NO_DISPONIBLE;
+                sesion.respuesta.json(linea);
+                return null;
+            }
+        }
 
-                    case 5: {
-                        if (telefono == null || datos.get("destino") == null || datos.get("fecha") == null ||
-                            datos.get("hora") == null || datos.get("duracion") == null || datos.get("costo") == null) {
-                            respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Datos incompletos\"}";
-                            break;
-                        }
+        // La membresía no usa la BD ni se limita: debe responder aunque el nodo esté saturado. Cambiar
+        // el anillo solo lo puede pedir otro nodo; un cliente solo lista
+        if (solicitud instanceof Solicitud.Membresia m) {
+            if (!m.accion().equals("listar") && !Cluster.esNodo(sesion.direccion)) {
+                return Respuestas.MEMBRESIA_NO_PERMITIDA;
+            }
+            sesion.respuesta.json(Cluster.membresia(m, reenviada));
+            return null;
+        }
 
-                        String destino = datos.get("destino");
-                        String duracionStr = datos.get("duracion");
-                        String fecha = datos.get("fecha");
-                        String hora = datos.get("hora");
+        if (!ControlAdmision.admitirTipo(Integer.parseInt(lector.get(LectorTrama.Campo.TIPO_TRANSACCION).trim()))) {
+            return Respuestas.OCUPADO;
+        }
 
-                        int h = Integer.parseInt(duracionStr.substring(0, 2));
-                        int m = Integer.parseInt(duracionStr.substring(2, 4));
-                        int s = Integer.parseInt(duracionStr.substring(4, 6));
-                        long segundos = h * 3600 + m * 60 + s;
+        // Cupo de BD por carril: 1, 2 y 5 no esperan detrás de altas, cobros ni recargas
+        boolean prioritaria = ControlAdmision.esPrioritaria(solicitud);
+        if (!ControlAdmision.entrarBD(prioritaria)) {
+            return Respuestas.OCUPADO;
+        }
 
-                        double costo;
-                        try {
-                            costo = Double.parseDouble(datos.get("costo"));
-                        } catch (Exception e) {
-                            respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Costo invalido\"}";
-                            break;
-                        }
+        byte[] respuesta = null;
+
+        try (ConexionSQLServer db = new ConexionSQLServer()) {
+            if (!db.conectar()) {
+                return Respuestas.FALLO_BD;
+            }
+
+            switch (solicitud) {
+                case Solicitud.Llamada s: {
+                    PerfilSuscriptor perfil = CachePerfiles.obtener(db, s.telefono());
+                    respuesta = procesarLlamada(db, perfil, s.telefono(), s.destino(), s.tipoLlamada(), sesion.respuesta);
+                    break;
+                }
 
-                        boolean exito = db.registrarLlamadaYTransaccion(telefono, destino, fecha, hora, costo, duracionStr, 5);
-                        llamadasEnCurso.remove(telefono);
+                case Solicitud.Consulta s: {
+                    PerfilSuscriptor perfil = CachePerfiles.obtener(db, s.telefono());
+                    respuesta = procesarConsulta(db, perfil, s.telefono(), sesion.respuesta);
+                    break;
+                }
 
-                        respuesta = exito
-                            ? "{\"status\":\"OK\"}"
-                            : "{\"status\":\"ERROR\",\"mensaje\":\"No se pudo guardar\"}";
+                case Solicitud.AltaLinea s: {
+                    if (db.telefonoExiste(s.telefono())) {
+                        respuesta = Respuestas.TELEFONO_EN_USO;
                         break;
                     }
 
-                    case 6: {
-                            String tel    = datos.get("telefono");
-                            String idTel  = datos.get("identificadorTel");
-                            String idChip = datos.get("identificador_tarjeta");
-                            String tipo   = datos.get("tipo");
-                            String cedula = datos.get("duenio");
-                            String estadoOperacion = datos.get("estado"); // puede venir "2"
+                    boolean exito = db.insertarNuevaLineaProveedor(s.telefono(), s.identificadorTel(), s.identificadorTarjeta(), s.tipo(), s.estado());
+                    respuesta = exito
+                        ? Respuestas.OK
+                        : Respuestas.LINEA_NO_REGISTRADA;
+                    break;
+                }
 
-                            if (tel == null || idTel == null || idChip == null || tipo == null || cedula == null || estadoOperacion == null) {
-                                respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Datos Incompletos\"}";
-                                break;
-                            }
-
-                            String estadoN = normalizarEstadoStr(estadoOperacion);
-                            String tipoN   = normalizarTipoStr(tipo);
-
-                            if ("activar".equals(estadoN)) {
-                                int resultado = db.activarLinea(tel, idTel, idChip, tipoN, cedula);
-                                switch (resultado) {
-                                    case 1:
-                                        boolean notA = NotificadorIdentificador.notificarEstadoLinea(tel, idTel, idChip, tipoN, cedula, "activo");
-                                        respuesta = notA ? "{\"status\":\"OK\"}" : "{\"status\":\"ERROR\",\"mensaje\":\"Activación fallida (no notificado)\"}";
-                                        break;
-                                    case -2: respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Teléfono ya está en uso\"}"; break;
-                                    case -3: respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Tipo de teléfono inválido\"}"; break;
-                                    case -4: respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Cliente no encontrado por cédula\"}"; break;
-                                    case -5: respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Teléfono y tarjetas no encontrados\"}"; break;
-                                    case -6: respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"No se pudo actualizar el estado\"}"; break;
-                                    case -99:respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Excepción SQL al activar línea\"}"; break;
-                                    default: respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Error desconocido al activar\"}";
+                case Solicitud.FinLlamada s: {
+                    String telefono = s.telefono();
+                    PerfilSuscriptor perfil = CachePerfiles.obtener(db, telefono);
+                    boolean exito;
+                    if (IngestaCDR.estaActiva()) {
+                        // Se confirma al quedar en el WAL; la BD se actualiza en el próximo lote
+                        exito = IngestaCDR.registrar(telefono, s.destino(), s.fecha(), s.hora(), s.costo(), s.duracion(), perfil.tipoServicio());
+                    } else {
+                        exito = db.registrarLlamadaYTransaccion(telefono, s.destino(), s.fecha(), s.hora(), s.costo(), s.duracion(), 5, perfil.tipoServicio());
+                        CachePerfiles.invalidar(telefono);
+                    }
+                    RegistroLlamadas.LlamadaActiva llamada = llamadasEnCurso.finalizar(telefono);
+                    if (exito && "prepago".equals(perfil.tipoServicio())) {
+                        MotorReservas.confirmar(telefono, s.costo(), llamada != null ? llamada.reserva() : null);
+                    } else if (exito && "postpago".equals(perfil.tipoServicio())) {
+                        ConsumoPostpago.registrar(telefono, s.fecha(), llamada != null ? llamada.tipoLlamada() : 0, s.segundos(), s.costo());
+                    }
+
+                    respuesta = exito
+                        ? Respuestas.OK
+                        : Respuestas.CDR_NO_GUARDADO;
+                    break;
+                }
+
+                case Solicitud.EstadoLinea s: {
+                    String tel    = s.telefono();
+                    String idTel  = s.identificadorTel();
+                    String idChip = s.identificadorTarjeta();
+                    String cedula = s.cedula();
+
+                    String estadoN = normalizarEstadoStr(s.estado());
+                    String tipoN   = normalizarTipoStr(s.tipo());
+
+                    // Con outbox la notificación se guarda en la misma transacción y se responde al confirmar
+                    boolean outbox = DespachadorNotificaciones.estaActivo();
+                    String clave = outbox ? UUID.randomUUID().toString() : null;
+
+                    if ("activar".equals(estadoN)) {
+                        int resultado = outbox
+                            ? db.activarLineaConNotificacion(tel, idTel, idChip, tipoN, cedula, clave,
+                                  NotificadorIdentificador.tramaEstadoLinea(tel, idTel, idChip, tipoN, cedula, "activo", clave))
+                            : db.activarLinea(tel, idTel, idChip, tipoN, cedula);
+                        if (resultado == 1) {
+                            CachePerfiles.invalidar(tel);
+                            MotorReservas.invalidar(tel);
+                        }
+                        switch (resultado) {
+                            case 1:
+                                if (outbox) {
+                                    DespachadorNotificaciones.avisar();
+                                    respuesta = Respuestas.OK;
+                                    break;
                                 }
-                            } else if ("desactivar".equals(estadoN)) {
-                                int resultado = db.desactivarLinea(tel, idTel, idChip, cedula);
-                                switch (resultado) {
-                                    case 1:
-                                        boolean notD = NotificadorIdentificador.notificarEstadoLinea(tel, idTel, idChip, tipoN, cedula, "inactivo");
-                                        respuesta = notD ? "{\"status\":\"OK\"}" : "{\"status\":\"ERROR\",\"mensaje\":\"Desactivación fallida (no notificado)\"}";
-                                        break;
-                                    case -2: respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"El cliente no coincide con el dueño actual del teléfono\"}"; break;
-                                    case -4: respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Cliente no encontrado por cédula\"}"; break;
-                                    case -5: respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Línea activa no encontrada\"}"; break;
-                                    case -6: respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"No se pudo desactivar la línea\"}"; break;
-                                    case -99:respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Excepción SQL al desactivar línea\"}"; break;
-                                    default: respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Error desconocido al desactivar\"}";
+                                boolean notA = NotificadorIdentificador.notificarEstadoLinea(tel, idTel, idChip, tipoN, cedula, "activo");
+                                respuesta = notA ? Respuestas.OK : Respuestas.ACTIVACION_NO_NOTIFICADA;
+                                break;
+                            case -2: respuesta = Respuestas.ACTIVAR_TELEFONO_EN_USO; break;
+                            case -3: respuesta = Respuestas.ACTIVAR_TIPO_INVALIDO; break;
+                            case -4: respuesta = Respuestas.CLIENTE_NO_ENCONTRADO; break;
+                            case -5: respuesta = Respuestas.ACTIVAR_NO_ENCONTRADOS; break;
+                            case -6: respuesta = Respuestas.ACTIVAR_NO_ACTUALIZADO; break;
+                            case -99:respuesta = Respuestas.ACTIVAR_EXCEPCION; break;
+                            default: respuesta = Respuestas.ACTIVAR_DESCONOCIDO;
+                        }
+                    } else if ("desactivar".equals(estadoN)) {
+                        int resultado = outbox
+                            ? db.desactivarLineaConNotificacion(tel, idTel, idChip, cedula, clave,
+                                  NotificadorIdentificador.tramaEstadoLinea(tel, idTel, idChip, tipoN, cedula, "inactivo", clave))
+                            : db.desactivarLinea(tel, idTel, idChip, cedula);
+                        if (resultado == 1) {
+                            CachePerfiles.invalidar(tel);
+                            MotorReservas.invalidar(tel);
+                        }
+                        switch (resultado) {
+                            case 1:
+                                if (outbox) {
+                                    DespachadorNotificaciones.avisar();
+                                    respuesta = Respuestas.OK;
+                                    break;
                                 }
-                            } else {
-                                respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Estado no válido (1/2 o activar/desactivar)\"}";
-                            }
-                            break;
+                                boolean notD = NotificadorIdentificador.notificarEstadoLinea(tel, idTel, idChip, tipoN, cedula, "inactivo");
+                                respuesta = notD ? Respuestas.OK : Respuestas.DESACTIVACION_NO_NOTIFICADA;
+                                break;
+                            case -2: respuesta = Respuestas.DESACTIVAR_OTRO_DUENIO; break;
+                            case -4: respuesta = Respuestas.CLIENTE_NO_ENCONTRADO; break;
+                            case -5: respuesta = Respuestas.DESACTIVAR_NO_ENCONTRADA; break;
+                            case -6: respuesta = Respuestas.DESACTIVAR_NO_ACTUALIZADO; break;
+                            case -99:respuesta = Respuestas.DESACTIVAR_EXCEPCION; break;
+                            default: respuesta = Respuestas.DESACTIVAR_DESCONOCIDO;
                         }
+                    } else {
+                        respuesta = Respuestas.ESTADO_INVALIDO;
+                    }
+                    break;
+                }
 
-                    case 7: {
-                        String fechaCalculo = datos.get("fecha_calculo");
-                        String fechaMaxPago = datos.get("fecha_max_pago");
+                case Solicitud.CobroPostpago s: {
+                    // Responde con el id del trabajo; el avance se consulta con la transacción 10
+                    try {
+                        String trabajo = MotorCobros.iniciarTrabajo(db, s.fechaCalculo(), s.fechaMaxPago());
+                        sesion.respuesta.json("{\"status\":\"OK\",\"trabajo\":\"" + trabajo + "\"}");
+                    } catch (IOException | SQLException e) {
+                        Log.error("Error al iniciar el cálculo de cobros: " + e.getMessage());
+                        respuesta = Respuestas.ERROR_COBRO;
+                    }
+                    break;
+                }
 
-                        if (fechaCalculo == null || fechaMaxPago == null) {
-                            respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Datos incompletos\"}";
-                            break;
-                        }
+                case Solicitud.EstadoCobro s: {
+                    MotorCobros.Trabajo t = MotorCobros.obtener(s.trabajo());
+                    if (t == null) {
+                        respuesta = Respuestas.TRABAJO_NO_ENCONTRADO;
+                        break;
+                    }
+                    sesion.respuesta.json("{\"status\":\"OK\",\"trabajo\":\"" + t.id
+                        + "\",\"estado\":\"" + t.estado()
+                        + "\",\"particiones\":\"" + t.particiones.size()
+                        + "\",\"terminadas\":\"" + t.contar(MotorCobros.Estado.TERMINADA)
+                        + "\",\"fallidas\":\"" + t.contar(MotorCobros.Estado.FALLIDA) + "\"}");
+                    break;
+                }
 
-                        boolean exito = db.ejecutarCalculoCobroPostpago(fechaCalculo, fechaMaxPago);
-                        respuesta = exito
-                            ? "{\"status\":\"OK\"}"
-                            : "{\"status\":\"ERROR\",\"mensaje\":\"Error al ejecutar cálculo de cobros\"}";
+                case Solicitud.ConsumoLinea s: {
+                    PerfilSuscriptor perfil = CachePerfiles.obtener(db, s.telefono());
+                    if (!"postpago".equals(perfil.tipoServicio())) {
+                        respuesta = Respuestas.CONSUMO_SOLO_POSTPAGO;
                         break;
                     }
-                    default:
-                        respuesta = "{\"status\":\"ERROR\",\"mensaje\":\"Transaccion no soportada\"}";
+                    ConsumoPostpago.Resumen r = ConsumoPostpago.obtener(s.telefono());
+                    StringBuilder json = new StringBuilder("{\"status\":\"OK\",\"ciclo\":\"").append(r.ciclo()).append('"');
+                    int llamadas = 0;
+                    long segundos = 0;
+                    for (int tipo = 0; tipo < ConsumoPostpago.TIPOS; tipo++) {
+                        llamadas += r.llamadas()[tipo];
+                        segundos += r.segundos()[tipo];
+                    }
+                    json.append(",\"llamadas\":\"").append(llamadas)
+                        .append("\",\"segundos\":\"").append(segundos)
+                        .append("\",\"costo\":\"").append(monto(r.centavosTotales())).append('"');
+                    for (int tipo = 1; tipo < ConsumoPostpago.TIPOS; tipo++) {
+                        json.append(",\"segundos_").append(tipo).append("\":\"").append(r.segundos()[tipo])
+                            .append("\",\"costo_").append(tipo).append("\":\"").append(monto(r.centavos()[tipo])).append('"');
+                    }
+                    sesion.respuesta.json(json.append('}').toString());
+                    break;
                 }
-                salida.println(respuesta);
-                salida.flush();
-
-                try 
-                {
-                  Thread.sleep(100);
-                }catch (InterruptedException ie)
-                {
-                  System.err.println("Error en espera antes de cerrar socket: " + ie.getMessage());
+
+                case Solicitud.RecargaTarifas s: {
+                    // Recarga a pedido de tarifas y prefijos internacionales
+                    respuesta = CacheTarifas.refrescar(db)
+                        ? Respuestas.OK
+                        : Respuestas.TARIFAS_NO_RECARGADAS;
+                    break;
                 }
 
-                System.out.println("Respuesta enviada al cliente: " + respuesta);
-            }
+                case Solicitud.AltaMasiva s: {
+                    Path archivo = AltaMasivaLineas.archivoEnDirectorioAltas(s.archivo());
+                    if (archivo == null) {
+                        respuesta = Respuestas.ARCHIVO_INVALIDO;
+                        break;
+                    }
+                    if (!Files.isRegularFile(archivo)) {
+                        respuesta = Respuestas.ARCHIVO_NO_ENCONTRADO;
+                        break;
+                    }
+                    try {
+                        AltaMasivaLineas.Resultado r = AltaMasivaLineas.importar(db, archivo);
+                        sesion.respuesta.json("{\"status\":\"OK\",\"procesadas\":\"" + r.procesadas()
+                            + "\",\"insertadas\":\"" + r.insertadas() + "\",\"rechazadas\":\"" + r.rechazadas() + "\"}");
+                    } catch (IOException | SQLException e) {
+                        Log.error("Error en alta masiva de " + archivo + ": " + e.getMessage());
+                        respuesta = Respuestas.ERROR_ALTA_MASIVA;
+                    }
+                    break;
+                }
 
-        } catch (Exception e) {
-            System.err.println("Error con cliente: " + e.getMessage());
-        } finally {
-            try {
-                cliente.close();
-            } catch (IOException ex) {
-                System.err.println("Error al cerrar socket: " + ex.getMessage());
+                default:
+                    respuesta = Respuestas.NO_SOPORTADA;
             }
+        } finally {
+            ControlAdmision.salirBD(prioritaria);
         }
+        return respuesta;
     }
     
-    private static String normalizarEstadoStr(String s) {
+    // Centavos a "0.00", sin depender del locale; los centavos ya son enteros, no hay redondeo
+    private static String monto(long centavos) {
+        return BigDecimal.valueOf(centavos, 2).toPlainString();
+    }
+
+    private static boolean esVerdadero(String s) {
+        if (s == null) return false;
+        s = s.trim().toLowerCase();
+        return s.equals("1") || s.equals("true") || s.equals("si");
+    }
+
+    static String normalizarEstadoStr(String s) {
     if (s == null) return "";
     s = s.trim().toLowerCase();
     if (s.equals("1") || s.equals("activar") || s.equals("activo") || s.equals("on") || s.equals("true"))
@@ -255,7 +488,7 @@ public class ProveedorServer {
     return "";
     }
 
-    private static String normalizarTipoStr(String s) {
+    static String normalizarTipoStr(String s) {
         if (s == null) return "";
         s = s.trim().toLowerCase();
         if (s.equals("1") || s.equals("postpago") || s.equals("pago") || s.equals("post-pago") || s.equals("pospago"))
@@ -266,58 +499,87 @@ public class ProveedorServer {
     }
 
 
-    private Map<String, String> parsearJsonConGson(String jsonStr) {
-        try {
-            Type tipo = new TypeToken<Map<String, String>>() {}.getType();
-            return new Gson().fromJson(jsonStr, tipo);
-        } catch (Exception e) {
-            System.err.println("Error parseando JSON con Gson: " + e.getMessage());
-            return null;
-        }
-    }
-    private String procesarLlamada(ConexionSQLServer db, String tipoServicio, String telefono, String destino, int tipoLlamada) {
+    private byte[] procesarLlamada(ConexionSQLServer db, PerfilSuscriptor perfil, String telefono, String destino, int tipoLlamada,
+                                   EscritorRespuesta salida) {
+        String tipoServicio = perfil.tipoServicio();
         try {
             if ("postpago".equals(tipoServicio)) {
-                return "{\"status\":\"OK\",\"costo\":\"0000000000\",\"tiempo\":\"245959\"}";
+                if (ConsumoPostpago.superaTope(telefono)) return Respuestas.TOPE_CONSUMO;
+
+                byte[] sinCupo = registrarLlamada(new RegistroLlamadas.LlamadaActiva(telefono, destino, tipoLlamada, null));
+                if (sinCupo != null) return sinCupo;
+
+                return Respuestas.LLAMADA_POSTPAGO;
             } else if ("prepago".equals(tipoServicio)) {
-                double saldo = db.obtenerSaldo(telefono);
                 double tarifa = calcularTarifa(db, destino, tipoLlamada);
 
-                if (saldo >= tarifa) {
-                    int segundos = (int) ((saldo / tarifa) * 60);
-                    String tiempo = String.format("%02d%02d%02d", segundos / 3600, (segundos % 3600) / 60, segundos % 60);
-                    double costo = (tarifa / 60) * segundos;
-                    String costoFormateado = String.format("%010d", (int) (costo * 100));
+                // La reserva descuenta lo ya reservado por otras llamadas en curso de la misma línea
+                MotorReservas.Reserva reserva = MotorReservas.reservar(db, telefono, tarifa);
+                if (reserva != null) {
+                    byte[] sinCupo = registrarLlamada(new RegistroLlamadas.LlamadaActiva(telefono, destino, tipoLlamada, reserva));
+                    if (sinCupo != null) {
+                        MotorReservas.liberar(telefono, reserva);
+                        return sinCupo;
+                    }
 
-                    return "{\"status\":\"OK\",\"costo\":\"" + costoFormateado + "\",\"tiempo\":\"" + tiempo + "\"}";
+                    salida.llamada((int) (reserva.monto() * 100), reserva.segundos());
+                    return null;
                 } else {
-                    return "{\"status\":\"ERROR\",\"mensaje\":\"Saldo insuficiente\"}";
+                    return Respuestas.SALDO_INSUFICIENTE;
                 }
             }
+        } catch (SQLException e) {
+            Log.error("Error al leer el saldo para la llamada: " + e.getMessage());
+            return Respuestas.FALLO_BD;
         } catch (Exception e) {
-            return "{\"status\":\"ERROR\",\"mensaje\":\"Error procesando llamada\"}";
+            return Respuestas.ERROR_LLAMADA;
+        }
+        return Respuestas.SERVICIO_DESCONOCIDO;
+    }
+
+    // Devuelve la respuesta de error si la llamada no entra en el registro, o null si quedó registrada
+    private byte[] registrarLlamada(RegistroLlamadas.LlamadaActiva llamada) {
+        switch (llamadasEnCurso.registrar(llamada)) {
+            case RegistroLlamadas.REGISTRADA:
+                return null;
+            case RegistroLlamadas.LIMITE_LINEA:
+                return Respuestas.LIMITE_LINEA;
+            default:
+                return Respuestas.OCUPADO;
         }
-        return "{\"status\":\"ERROR\",\"mensaje\":\"Tipo de servicio desconocido\"}";
     }
 
-    private String procesarConsulta(ConexionSQLServer db, String tipoServicio, String telefono) {
+    private byte[] procesarConsulta(ConexionSQLServer db, PerfilSuscriptor perfil, String telefono, EscritorRespuesta salida) {
+        String tipoServicio = perfil.tipoServicio();
         try {
-            db.registrarLlamadaYTransaccion(telefono, telefono, "20250627", "000000", 0.0, "000000", 2);
+            // La consulta se audita aparte y sin esperar a la BD; sin la tabla, como antes en LLAMADAS
+            if (AuditoriaConsultas.estaActiva()) {
+                AuditoriaConsultas.registrar(telefono);
+            } else {
+                db.registrarLlamadaYTransaccion(telefono, telefono, "20250627", "000000", 0.0, "000000", 2);
+            }
 
             if ("postpago".equals(tipoServicio)) {
-                return "{\"status\":\"OK\",\"saldo\":\"-1\"}";
+                return Respuestas.SALDO_POSTPAGO;
             } else if ("prepago".equals(tipoServicio)) {
-                double saldo = db.obtenerSaldo(telefono);
-                return String.format("{\"status\":\"OK\",\"saldo\":\"%.2f\"}", saldo);
+                Double enMemoria = MotorReservas.saldoConocido(telefono);
+                double saldo = enMemoria != null ? enMemoria : perfil.saldo();
+                salida.saldo(saldo);
+                return null;
             }
         } catch (Exception e) {
-            return "{\"status\":\"error\",\"message\":\"Error procesando consulta\"}";
+            return Respuestas.ERROR_CONSULTA;
         }
 
-        return "{\"status\":\"error\",\"message\":\"Tipo de servicio desconocido\"}";
+        return Respuestas.CONSULTA_SERVICIO_DESCONOCIDO;
     }
 
     private double calcularTarifa(ConexionSQLServer db, String destino, int tipoLlamada) {
+        if (CacheTarifas.estaCargada()) {
+            return CacheTarifas.calcularTarifa(destino, tipoLlamada);
+        }
+
+        // Sin caché (por ejemplo si la BD no respondió al arrancar) se consulta directo
         if (tipoLlamada == 3) {
             String grupo = db.obtenerGrupoInternacional(destino);
             return db.obtenerTarifaInternacional(grupo);
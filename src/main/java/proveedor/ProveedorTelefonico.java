@@ -1,8 +1,58 @@
 package proveedor;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 public class ProveedorTelefonico {
  
     public static void main (String[] args) {
+        // Sin credenciales no tiene sentido arrancar: cada motor fallaría por su lado al conectar
+        try {
+            Config.exigirClaveBd();
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+
+        // Alta masiva desde la consola: alta-masiva <archivo.csv|archivo.ndjson>
+        if (args.length == 2 && args[0].equals("alta-masiva")) {
+            try (ConexionSQLServer db = new ConexionSQLServer()) {
+                if (!db.conectar()) System.exit(1);
+                AltaMasivaLineas.Resultado r = AltaMasivaLineas.importar(db, Path.of(args[1]));
+                if (r.rechazos() != null) {
+                    System.out.println("Rechazos en " + r.rechazos());
+                }
+            } catch (Exception e) {
+                System.err.println("Error en alta masiva: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
+        Config.iniciar();
+        Metricas.iniciar();
+        CacheTarifas.iniciar();
+        MotorReservas.iniciar();
+
+        try {
+            IngestaCDR.iniciar();
+        } catch (IOException e) {
+            Log.aviso("No se pudo abrir el WAL de CDR, se registran en línea: " + e.getMessage());
+        }
+
+        DespachadorNotificaciones.iniciar();
+        ConsumoPostpago.iniciar();
+        AuditoriaConsultas.iniciar();
+
+        try {
+            MotorCobros.iniciar();
+        } catch (IOException e) {
+            Log.aviso("No se pudieron retomar los trabajos de cobros: " + e.getMessage());
+        }
+
+        // Sin Config.NODOS no hace nada: nodo único
+        Cluster.iniciar(Config.NODO_LOCAL, Config.NODOS);
+
         ProveedorServer servidor = new ProveedorServer(Config.PUERTO_PROVEEDOR);
         servidor.iniciar(); // arranca el socket
     } 
@@ -0,0 +1,143 @@
+package proveedor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Llamadas en curso (entre la transacción 1 y la 5). Es seguro entre hilos, tiene un tope global
+// y otro por línea, y descarta las llamadas que vencen sin recibir el fin de llamada
+public class RegistroLlamadas {
+
+    public record LlamadaActiva(String telefono, String destino, int tipoLlamada, long inicio, long expira,
+                                MotorReservas.Reserva reserva) {
+
+        // Una llamada prepago vence junto con su reserva; las demás a los Config.TIMEOUT_LLAMADA_MS
+        public LlamadaActiva(String telefono, String destino, int tipoLlamada, MotorReservas.Reserva reserva) {
+            this(telefono, destino, tipoLlamada, System.currentTimeMillis(),
+                reserva != null ? reserva.expira() : System.currentTimeMillis() + Config.TIMEOUT_LLAMADA_MS,
+                reserva);
+        }
+    }
+
+    // La secuencia desempata las llamadas que empiezan en el mismo milisegundo
+    private record Entrada(LlamadaActiva llamada, long secuencia) {}
+
+    private static final Comparator<Entrada> POR_INICIO =
+        Comparator.<Entrada>comparingLong(e -> e.llamada().inicio()).thenComparingLong(Entrada::secuencia);
+
+    public static final int REGISTRADA = 1;
+    public static final int LIMITE_LINEA = -1;
+    public static final int LIMITE_GLOBAL = -2;
+
+    // Las listas por línea son inmutables y se reemplazan dentro de compute(), así las lecturas no
+    // necesitan candado
+    private final ConcurrentHashMap<String, List<Entrada>> porLinea = new ConcurrentHashMap<>();
+    // Las mismas entradas ordenadas por inicio: se agregan y quitan dentro del compute() de su línea
+    private final ConcurrentSkipListSet<Entrada> porInicio = new ConcurrentSkipListSet<>(POR_INICIO);
+    private final AtomicLong secuencia = new AtomicLong();
+    private final AtomicInteger total = new AtomicInteger();
+    private final int maxTotal;
+    private final int maxPorLinea;
+    private ScheduledExecutorService limpieza;
+
+    public RegistroLlamadas(int maxTotal, int maxPorLinea) {
+        this.maxTotal = maxTotal;
+        this.maxPorLinea = maxPorLinea;
+    }
+
+    public synchronized void iniciar() {
+        if (limpieza != null) return;
+        limpieza = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "registro-llamadas");
+            t.setDaemon(true);
+            return t;
+        });
+        limpieza.scheduleWithFixedDelay(this::descartarVencidas, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public int registrar(LlamadaActiva llamada) {
+        if (total.incrementAndGet() > maxTotal) {
+            total.decrementAndGet();
+            return LIMITE_GLOBAL;
+        }
+
+        Entrada entrada = new Entrada(llamada, secuencia.incrementAndGet());
+        boolean[] aceptada = new boolean[1];
+        porLinea.compute(llamada.telefono(), (tel, lista) -> {
+            int actuales = lista == null ? 0 : lista.size();
+            if (actuales >= maxPorLinea) return lista;
+
+            List<Entrada> nueva = new ArrayList<>(actuales + 1);
+            if (lista != null) nueva.addAll(lista);
+            nueva.add(entrada);
+            porInicio.add(entrada);
+            aceptada[0] = true;
+            return List.copyOf(nueva);
+        });
+
+        if (!aceptada[0]) {
+            total.decrementAndGet();
+            return LIMITE_LINEA;
+        }
+        return REGISTRADA;
+    }
+
+    // Fin de llamada: saca la llamada más antigua de la línea (la trama 5 no identifica cuál)
+    public LlamadaActiva finalizar(String telefono) {
+        LlamadaActiva[] quitada = new LlamadaActiva[1];
+        porLinea.computeIfPresent(telefono, (tel, lista) -> {
+            Entrada primera = lista.get(0);
+            porInicio.remove(primera);
+            quitada[0] = primera.llamada();
+            return lista.size() == 1 ? null : List.copyOf(lista.subList(1, lista.size()));
+        });
+        if (quitada[0] != null) total.decrementAndGet();
+        return quitada[0];
+    }
+
+    public int contarActivas() {
+        return total.get();
+    }
+
+    public int contarActivas(String telefono) {
+        List<Entrada> lista = porLinea.get(telefono);
+        return lista == null ? 0 : lista.size();
+    }
+
+    // La primera de porInicio, sin recorrer las líneas
+    public LlamadaActiva llamadaMasAntigua() {
+        Iterator<Entrada> primera = porInicio.iterator();
+        return primera.hasNext() ? primera.next().llamada() : null;
+    }
+
+    void descartarVencidas() {
+        long ahora = System.currentTimeMillis();
+        for (String telefono : porLinea.keySet()) {
+            int[] quitadas = new int[1];
+            porLinea.computeIfPresent(telefono, (tel, lista) -> {
+                List<Entrada> vigentes = new ArrayList<>(lista.size());
+                for (Entrada e : lista) {
+                    if (e.llamada().expira() > ahora) {
+                        vigentes.add(e);
+                    } else {
+                        porInicio.remove(e);
+                    }
+                }
+                quitadas[0] = lista.size() - vigentes.size();
+                if (quitadas[0] == 0) return lista;
+                return vigentes.isEmpty() ? null : List.copyOf(vigentes);
+            });
+            if (quitadas[0] > 0) {
+                total.addAndGet(-quitadas[0]);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package proveedor;
+
+import java.nio.charset.StandardCharsets;
+
+// Respuestas fijas del protocolo, codificadas una sola vez (UTF-8 y con el fin de línea incluido)
+// para copiarlas tal cual al buffer de salida
+final class Respuestas {
+    static final byte[] FIN_LINEA = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    static final byte[] OK = codificar("{\"status\":\"OK\"}");
+    static final byte[] LLAMADA_POSTPAGO = codificar("{\"status\":\"OK\",\"costo\":\"0000000000\",\"tiempo\":\"245959\"}");
+    static final byte[] SALDO_POSTPAGO = codificar("{\"status\":\"OK\",\"saldo\":\"-1\"}");
+
+    // Trama y servidor
+    static final byte[] JSON_VACIO = error("JSON vacio");
+    static final byte[] JSON_INVALIDO = error("Formato JSON invalido");
+    static final byte[] TRAMA_LARGA = error("Trama demasiado larga");
+    static final byte[] OCUPADO = error("Servidor ocupado");
+    static final byte[] FALLO_BD = error("Fallo de conexion a BD");
+    static final byte[] DATOS_INCOMPLETOS = error("Datos incompletos");
+    static final byte[] DATOS_INCOMPLETOS_LINEA = error("Datos Incompletos");
+    static final byte[] TIPO_FALTANTE = error("Tipo de transacción faltante");
+    static final byte[] NO_SOPORTADA = error("Transaccion no soportada");
+    static final byte[] COSTO_INVALIDO = error("Costo invalido");
+
+    // Transacciones 1 y 2
+    static final byte[] SALDO_INSUFICIENTE = error("Saldo insuficiente");
+    static final byte[] ERROR_LLAMADA = error("Error procesando llamada");
+    static final byte[] SERVICIO_DESCONOCIDO = error("Tipo de servicio desconocido");
+    static final byte[] LIMITE_LINEA = error("Limite de llamadas simultaneas de la linea");
+    static final byte[] TOPE_CONSUMO = error("Tope de consumo del ciclo alcanzado");
+    static final byte[] ERROR_CONSULTA = codificar("{\"status\":\"error\",\"message\":\"Error procesando consulta\"}");
+    static final byte[] CONSULTA_SERVICIO_DESCONOCIDO = codificar("{\"status\":\"error\",\"message\":\"Tipo de servicio desconocido\"}");
+
+    // Transacciones 3, 5, 7 y 8
+    static final byte[] TELEFONO_EN_USO = error("Telefono en uso");
+    static final byte[] LINEA_NO_REGISTRADA = error("No se pudo registrar la linea");
+    static final byte[] CDR_NO_GUARDADO = error("No se pudo guardar");
+    static final byte[] ERROR_COBRO = error("Error al ejecutar cálculo de cobros");
+    static final byte[] TARIFAS_NO_RECARGADAS = error("No se pudieron recargar las tarifas");
+
+    // Transacción 6
+    static final byte[] ACTIVACION_NO_NOTIFICADA = error("Activación fallida (no notificado)");
+    static final byte[] ACTIVAR_TELEFONO_EN_USO = error("Teléfono ya está en uso");
+    static final byte[] ACTIVAR_TIPO_INVALIDO = error("Tipo de teléfono inválido");
+    static final byte[] CLIENTE_NO_ENCONTRADO = error("Cliente no encontrado por cédula");
+    static final byte[] ACTIVAR_NO_ENCONTRADOS = error("Teléfono y tarjetas no encontrados");
+    static final byte[] ACTIVAR_NO_ACTUALIZADO = error("No se pudo actualizar el estado");
+    static final byte[] ACTIVAR_EXCEPCION = error("Excepción SQL al activar línea");
+    static final byte[] ACTIVAR_DESCONOCIDO = error("Error desconocido al activar");
+    static final byte[] DESACTIVACION_NO_NOTIFICADA = error("Desactivación fallida (no notificado)");
+    static final byte[] DESACTIVAR_OTRO_DUENIO = error("El cliente no coincide con el dueño actual del teléfono");
+    static final byte[] DESACTIVAR_NO_ENCONTRADA = error("Línea activa no encontrada");
+    static final byte[] DESACTIVAR_NO_ACTUALIZADO = error("No se pudo desactivar la línea");
+    static final byte[] DESACTIVAR_EXCEPCION = error("Excepción SQL al desactivar línea");
+    static final byte[] DESACTIVAR_DESCONOCIDO = error("Error desconocido al desactivar");
+    static final byte[] ESTADO_INVALIDO = error("Estado no válido (1/2 o activar/desactivar)");
+
+    // Transacción 9
+    static final byte[] ARCHIVO_INVALIDO = error("Nombre de archivo invalido");
+    static final byte[] ARCHIVO_NO_ENCONTRADO = error("Archivo no encontrado");
+    static final byte[] ERROR_ALTA_MASIVA = error("Error en el alta masiva");
+
+    // Transacción 10
+    static final byte[] TRABAJO_NO_ENCONTRADO = error("Trabajo no encontrado");
+
+    // Transacción 11
+    static final byte[] CONSUMO_SOLO_POSTPAGO = error("Consulta de consumo solo para lineas postpago");
+
+    // Varios nodos (transacción 12 y reenvíos)
+    static final byte[] NODO_NO_DISPONIBLE = error("Nodo de la linea no disponible");
+    static final byte[] MEMBRESIA_INVALIDA = error("Accion de membresia invalida");
+    static final byte[] MEMBRESIA_NO_PERMITIDA = error("Membresia solo modificable desde un nodo");
+
+    private Respuestas() {
+    }
+
+    static byte[] error(String mensaje) {
+        return codificar("{\"status\":\"ERROR\",\"mensaje\":\"" + mensaje + "\"}");
+    }
+
+    static byte[] codificar(String json) {
+        return (json + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+    }
+}
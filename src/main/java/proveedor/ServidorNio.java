@@ -0,0 +1,271 @@
+package proveedor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+// Servidor con selector: un solo hilo acepta, lee y escribe; el procesamiento de cada
+// trama (bloqueante por JDBC) corre en hilos virtuales
+class ServidorNio {
+    private final ProveedorServer proveedor;
+    private final int puerto;
+    private final ExecutorService trabajadores = Executors.newVirtualThreadPerTaskExecutor();
+    private final Queue<Runnable> pendientes = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+    private SelectionKey claveAceptar;
+    private int conexionesActivas;
+
+    ServidorNio(ProveedorServer proveedor, int puerto) {
+        this.proveedor = proveedor;
+        this.puerto = puerto;
+    }
+
+    void iniciar() {
+        try (Selector sel = Selector.open(); ServerSocketChannel servidor = ServerSocketChannel.open()) {
+            selector = sel;
+            servidor.bind(new InetSocketAddress(puerto));
+            servidor.configureBlocking(false);
+            claveAceptar = servidor.register(selector, SelectionKey.OP_ACCEPT);
+            Log.info("Servidor escuchando en puerto " + puerto + " (modo nio)...");
+
+            long ultimaRevision = System.currentTimeMillis();
+            while (true) {
+                selector.select(1000);
+
+                Runnable tarea;
+                while ((tarea = pendientes.poll()) != null) {
+                    tarea.run();
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey clave = it.next();
+                    it.remove();
+                    if (!clave.isValid()) continue;
+
+                    if (clave.isAcceptable()) {
+                        aceptar(servidor);
+                        continue;
+                    }
+                    try {
+                        if (clave.isReadable()) {
+                            leer(clave);
+                        } else if (clave.isWritable()) {
+                            escribir(clave);
+                        }
+                    } catch (IOException e) {
+                        Log.error("Error con cliente: " + e.getMessage());
+                        cerrar(clave);
+                    }
+                }
+
+                long ahora = System.currentTimeMillis();
+                if (ahora - ultimaRevision >= 1000) {
+                    cerrarInactivas(ahora);
+                    ultimaRevision = ahora;
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Error general: " + e.getMessage());
+        } finally {
+            trabajadores.shutdown();
+        }
+    }
+
+    private void aceptar(ServerSocketChannel servidor) {
+        while (conexionesActivas < Config.MAX_CLIENTES_CONCURRENTES) {
+            try {
+                SocketChannel canal = servidor.accept();
+                if (canal == null) break;
+
+                // Una dirección sin tokens se rechaza sin registrarla; la respuesta cabe en el buffer del socket
+                InetAddress direccion = ((InetSocketAddress) canal.getRemoteAddress()).getAddress();
+                if (!ControlAdmision.admitirConexion(direccion)) {
+                    try (canal) {
+                        canal.write(ByteBuffer.wrap(Respuestas.OCUPADO));
+                    }
+                    continue;
+                }
+
+                canal.configureBlocking(false);
+                Conexion con = new Conexion();
+                con.sesion.direccion = direccion;
+                con.ultimaActividad = System.currentTimeMillis();
+                canal.register(selector, SelectionKey.OP_READ, con);
+                conexionesActivas++;
+            } catch (IOException e) {
+                Log.error("Error aceptando cliente: " + e.getMessage());
+            }
+        }
+
+        // Contrapresión: sin cupo se deja de aceptar y los clientes esperan en el backlog
+        if (conexionesActivas >= Config.MAX_CLIENTES_CONCURRENTES) {
+            claveAceptar.interestOps(0);
+        }
+    }
+
+    private void leer(SelectionKey clave) throws IOException {
+        SocketChannel canal = (SocketChannel) clave.channel();
+        Conexion con = (Conexion) clave.attachment();
+
+        if (canal.read(con.lectura) < 0) {
+            con.eof = true;
+        }
+        con.ultimaActividad = System.currentTimeMillis();
+        siguienteTrama(clave);
+    }
+
+    // Toma la siguiente trama del buffer (pueden venir varias encadenadas en modo keep_alive)
+    // y la procesa; mientras tanto no se lee más de la conexión, así las respuestas salen en orden
+    private void siguienteTrama(SelectionKey clave) throws IOException {
+        Conexion con = (Conexion) clave.attachment();
+
+        // El cliente cerró sin nada más por procesar (entre tramas, o sin haber mandado ninguna)
+        if (con.eof && con.lectura.position() == 0) {
+            ((SocketChannel) clave.channel()).shutdownOutput();
+            cerrar(clave);
+            return;
+        }
+
+        String trama = con.extraerLinea(con.eof);
+        if (trama == null) {
+            if (!con.lectura.hasRemaining()) {
+                clave.interestOps(0);
+                con.sesion.persistente = false;
+                responder(clave, ByteBuffer.wrap(Respuestas.TRAMA_LARGA));
+            } else {
+                clave.interestOps(SelectionKey.OP_READ);
+            }
+            return;
+        }
+
+        clave.interestOps(0);
+        trabajadores.execute(() -> {
+            try {
+                // El buffer de la sesión no se vuelve a usar hasta terminar de enviarlo
+                proveedor.procesarTrama(trama, con.sesion);
+                if (Log.debugActivo()) Log.debug("Respuesta enviada al cliente: " + con.sesion.respuesta);
+                responder(clave, con.sesion.respuesta.comoByteBuffer());
+            } catch (Exception e) {
+                Log.error("Error con cliente: " + e.getMessage());
+                enSelector(() -> cerrar(clave));
+            }
+        });
+    }
+
+    private void responder(SelectionKey clave, ByteBuffer respuesta) {
+        enSelector(() -> {
+            if (!clave.isValid()) return;
+            ((Conexion) clave.attachment()).escritura = respuesta;
+            clave.interestOps(SelectionKey.OP_WRITE);
+        });
+    }
+
+    private void escribir(SelectionKey clave) throws IOException {
+        SocketChannel canal = (SocketChannel) clave.channel();
+        Conexion con = (Conexion) clave.attachment();
+
+        canal.write(con.escritura);
+        if (con.escritura.hasRemaining()) return;
+
+        if (con.sesion.persistente) {
+            con.ultimaActividad = System.currentTimeMillis();
+            siguienteTrama(clave);
+        } else {
+            canal.shutdownOutput();
+            descartarPendiente(canal, con);
+            cerrar(clave);
+        }
+    }
+
+    // Igual que en el modo bloqueante: lo no leído se descarta antes del close para evitar un RST
+    private static void descartarPendiente(SocketChannel canal, Conexion con) throws IOException {
+        con.lectura.clear();
+        while (canal.read(con.lectura) > 0) {
+            con.lectura.clear();
+        }
+    }
+
+    // Cierra las conexiones que esperan trama hace más de TIMEOUT_KEEP_ALIVE_MS: la siguiente de una
+    // persistente o la primera (o una incompleta) de cualquiera
+    private void cerrarInactivas(long ahora) {
+        for (SelectionKey clave : selector.keys()) {
+            if (!(clave.attachment() instanceof Conexion con) || !clave.isValid()) continue;
+            if (clave.interestOps() == SelectionKey.OP_READ
+                    && ahora - con.ultimaActividad > Config.TIMEOUT_KEEP_ALIVE_MS) {
+                cerrar(clave);
+            }
+        }
+    }
+
+    private void cerrar(SelectionKey clave) {
+        Conexion con = (Conexion) clave.attachment();
+        if (con.cerrada) return;
+        con.cerrada = true;
+
+        clave.cancel();
+        try {
+            clave.channel().close();
+        } catch (IOException e) {
+            Log.error("Error al cerrar socket: " + e.getMessage());
+        }
+
+        conexionesActivas--;
+        if (conexionesActivas < Config.MAX_CLIENTES_CONCURRENTES && claveAceptar.isValid()) {
+            claveAceptar.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    // Las claves solo se tocan desde el hilo del selector
+    private void enSelector(Runnable tarea) {
+        pendientes.add(tarea);
+        selector.wakeup();
+    }
+
+    private static class Conexion {
+        final ByteBuffer lectura = ByteBuffer.allocate(Config.MAX_LONGITUD_TRAMA);
+        final ProveedorServer.SesionCliente sesion = new ProveedorServer.SesionCliente();
+        ByteBuffer escritura;
+        long ultimaActividad;
+        boolean eof;
+        boolean cerrada;
+
+        // Devuelve la primera línea completa (sin \r\n) o, al llegar el fin de flujo, lo que quede
+        String extraerLinea(boolean fin) {
+            byte[] datos = lectura.array();
+            int finLinea = -1;
+            for (int i = 0; i < lectura.position(); i++) {
+                if (datos[i] == '\n') {
+                    finLinea = i;
+                    break;
+                }
+            }
+
+            int largo;
+            int consumido;
+            if (finLinea >= 0) {
+                largo = finLinea;
+                consumido = finLinea + 1;
+            } else if (fin) {
+                largo = lectura.position();
+                consumido = largo;
+            } else {
+                return null;
+            }
+
+            if (largo > 0 && datos[largo - 1] == '\r') largo--;
+            String linea = new String(datos, 0, largo, StandardCharsets.UTF_8);
+
+            lectura.flip();
+            lectura.position(consumido);
+            lectura.compact();
+            return linea;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package proveedor;
+
+import proveedor.LectorTrama.Campo;
+
+// Solicitud ya validada, un tipo por transacción. Las tramas incompletas o inválidas se convierten
+// en un Rechazo con la misma respuesta de error que se enviaba antes, sin tocar la BD
+sealed interface Solicitud {
+
+    record Llamada(String telefono, String destino, int tipoLlamada) implements Solicitud {}
+
+    record Consulta(String telefono) implements Solicitud {}
+
+    record AltaLinea(String telefono, String identificadorTel, String identificadorTarjeta,
+                     String tipo, String estado) implements Solicitud {}
+
+    record FinLlamada(String telefono, String destino, String fecha, String hora,
+                      String duracion, long segundos, double costo) implements Solicitud {}
+
+    record EstadoLinea(String telefono, String identificadorTel, String identificadorTarjeta,
+                       String tipo, String cedula, String estado) implements Solicitud {}
+
+    record CobroPostpago(String fechaCalculo, String fechaMaxPago) implements Solicitud {}
+
+    record RecargaTarifas() implements Solicitud {}
+
+    record AltaMasiva(String archivo) implements Solicitud {}
+
+    record EstadoCobro(String trabajo) implements Solicitud {}
+
+    record ConsumoLinea(String telefono) implements Solicitud {}
+
+    // accion: listar, unir o salir; nodo ("host:puerto") solo para unir y salir
+    record Membresia(String accion, String nodo) implements Solicitud {}
+
+    record Rechazo(byte[] respuesta) implements Solicitud {}
+
+    Rechazo DATOS_INCOMPLETOS = new Rechazo(Respuestas.DATOS_INCOMPLETOS);
+    Rechazo DATOS_INCOMPLETOS_LINEA = new Rechazo(Respuestas.DATOS_INCOMPLETOS_LINEA);
+    Rechazo TIPO_FALTANTE = new Rechazo(Respuestas.TIPO_FALTANTE);
+    Rechazo NO_SOPORTADA = new Rechazo(Respuestas.NO_SOPORTADA);
+    Rechazo COSTO_INVALIDO = new Rechazo(Respuestas.COSTO_INVALIDO);
+    Rechazo MEMBRESIA_INVALIDA = new Rechazo(Respuestas.MEMBRESIA_INVALIDA);
+
+    // Línea a la que se refiere la solicitud, para repartirlas entre nodos; los records con campo
+    // telefono lo reemplazan con su accesor
+    default String telefono() {
+        return null;
+    }
+
+    // Lanza NumberFormatException (o similar) ante un tipo, tipo de llamada o duración no numéricos,
+    // igual que el manejo anterior, y la conexión se cierra sin respuesta
+    static Solicitud decodificar(LectorTrama t) {
+        String tipoStr = t.get(Campo.TIPO_TRANSACCION);
+        if (tipoStr == null) return TIPO_FALTANTE;
+
+        String telefono = t.get(Campo.TELEFONO);
+        switch (Integer.parseInt(tipoStr.trim())) {
+            case 1: {
+                String destino = t.get(Campo.DESTINO);
+                String tipoLlamada = t.get(Campo.TIPO_LLAMADA);
+                if (telefono == null || destino == null || tipoLlamada == null) return DATOS_INCOMPLETOS;
+                return new Llamada(telefono, destino, Integer.parseInt(tipoLlamada));
+            }
+            case 2:
+                return telefono == null ? DATOS_INCOMPLETOS : new Consulta(telefono);
+            case 3: {
+                String idTel = t.get(Campo.IDENTIFICADOR_TEL);
+                String idTarjeta = t.get(Campo.IDENTIFICADOR_TARJETA);
+                String tipo = t.get(Campo.TIPO);
+                String estado = t.get(Campo.ESTADO);
+                if (telefono == null || idTel == null || idTarjeta == null || tipo == null || estado == null) {
+                    return DATOS_INCOMPLETOS_LINEA;
+                }
+                return new AltaLinea(telefono, idTel, idTarjeta, tipo, estado);
+            }
+            case 5: {
+                String destino = t.get(Campo.DESTINO);
+                String fecha = t.get(Campo.FECHA);
+                String hora = t.get(Campo.HORA);
+                String duracion = t.get(Campo.DURACION);
+                String costoStr = t.get(Campo.COSTO);
+                if (telefono == null || destino == null || fecha == null || hora == null || duracion == null || costoStr == null) {
+                    return DATOS_INCOMPLETOS;
+                }
+
+                int h = Integer.parseInt(duracion.substring(0, 2));
+                int m = Integer.parseInt(duracion.substring(2, 4));
+                int s = Integer.parseInt(duracion.substring(4, 6));
+                long segundos = h * 3600 + m * 60 + s;
+
+                double costo;
+                try {
+                    costo = Double.parseDouble(costoStr);
+                } catch (Exception e) {
+                    return COSTO_INVALIDO;
+                }
+                return new FinLlamada(telefono, destino, fecha, hora, duracion, segundos, costo);
+            }
+            case 6: {
+                String idTel = t.get(Campo.IDENTIFICADOR_TEL);
+                String idTarjeta = t.get(Campo.IDENTIFICADOR_TARJETA);
+                String tipo = t.get(Campo.TIPO);
+                String cedula = t.get(Campo.DUENIO);
+                String estado = t.get(Campo.ESTADO); // puede venir "2"
+                if (telefono == null || idTel == null || idTarjeta == null || tipo == null || cedula == null || estado == null) {
+                    return DATOS_INCOMPLETOS_LINEA;
+                }
+                return new EstadoLinea(telefono, idTel, idTarjeta, tipo, cedula, estado);
+            }
+            case 7: {
+                String fechaCalculo = t.get(Campo.FECHA_CALCULO);
+                String fechaMaxPago = t.get(Campo.FECHA_MAX_PAGO);
+                if (fechaCalculo == null || fechaMaxPago == null) return DATOS_INCOMPLETOS;
+                return new CobroPostpago(fechaCalculo, fechaMaxPago);
+            }
+            case 8:
+                return new RecargaTarifas();
+            case 9: {
+                String archivo = t.get(Campo.ARCHIVO);
+                return archivo == null || archivo.isBlank() ? DATOS_INCOMPLETOS : new AltaMasiva(archivo.trim());
+            }
+            case 10: {
+                String trabajo = t.get(Campo.TRABAJO);
+                return trabajo == null || trabajo.isBlank() ? DATOS_INCOMPLETOS : new EstadoCobro(trabajo.trim());
+            }
+            case 11:
+                return telefono == null ? DATOS_INCOMPLETOS : new ConsumoLinea(telefono);
+            case 12: {
+                String accion = t.get(Campo.ACCION);
+                String nodo = t.get(Campo.NODO);
+                if ("listar".equals(accion)) return new Membresia(accion, null);
+                if (!"unir".equals(accion) && !"salir".equals(accion)) return MEMBRESIA_INVALIDA;
+                nodo = Cluster.normalizarNodo(nodo);
+                return nodo == null ? MEMBRESIA_INVALIDA : new Membresia(accion, nodo);
+            }
+            default:
+                return NO_SOPORTADA;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package proveedor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Trie inmutable de prefijos internacionales -> grupo; la búsqueda devuelve el grupo del
+// prefijo más largo que coincide, igual que la consulta por longitudes 4..1 contra la BD
+public final class TriePrefijos {
+    // La consulta original solo probaba prefijos de hasta 4 dígitos
+    public static final int MAX_LONGITUD_PREFIJO = 4;
+
+    private static final class Nodo {
+        final Map<Character, Nodo> hijos = new HashMap<>(4);
+        String grupo;
+    }
+
+    private final Nodo raiz = new Nodo();
+    private final int tamano;
+
+    public TriePrefijos(Map<String, String> prefijos) {
+        int n = 0;
+        for (Map.Entry<String, String> e : prefijos.entrySet()) {
+            String prefijo = e.getKey();
+            if (prefijo.isEmpty() || prefijo.length() > MAX_LONGITUD_PREFIJO) continue;
+
+            Nodo nodo = raiz;
+            for (int i = 0; i < prefijo.length(); i++) {
+                nodo = nodo.hijos.computeIfAbsent(prefijo.charAt(i), c -> new Nodo());
+            }
+            nodo.grupo = e.getValue();
+            n++;
+        }
+        this.tamano = n;
+    }
+
+    public String buscarGrupo(String numero) {
+        if (numero == null) return null;
+
+        String grupo = null;
+        Nodo nodo = raiz;
+        int limite = Math.min(numero.length(), MAX_LONGITUD_PREFIJO);
+        for (int i = 0; i < limite; i++) {
+            nodo = nodo.hijos.get(numero.charAt(i));
+            if (nodo == null) break;
+            if (nodo.grupo != null) grupo = nodo.grupo;
+        }
+        return grupo;
+    }
+
+    public int getTamano() {
+        return tamano;
+    }
+}